@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import com.google.zxing.BarcodeFormat;
+import java.awt.image.BufferedImage;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures decoding a page of one barcode format with only that type enabled
+ * and with all types enabled, which shows what enabling a type costs on every
+ * page.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BarcodeTypesBenchmark {
+
+    @Param({"QR_CODE", "PDF_417", "CODE_128", "CODE_39", "CODABAR", "EAN_13", "EAN_8", "UPC_A", "ITF"})
+    BarcodeFormat format;
+    @Param({"false", "true"})
+    boolean allTypes;
+
+    private BufferedImage page;
+    private DecoderContext decoderContext;
+
+    @Setup
+    public void setup() throws Exception {
+        page = TiffFixtures.createPage(format, 1, 150, BufferedImage.TYPE_BYTE_BINARY);
+        Set<BarcodeType> barcodeTypes = allTypes
+                ? EnumSet.allOf(BarcodeType.class) : EnumSet.of(BarcodeTypes.fromFormat(format));
+        decoderContext = new DecoderContext(barcodeTypes, new DecodeStrategy(DecodeStrategy.parseTiers("TRY_HARDER"), 1));
+        List<Barcode> barcodes = decoderContext.decode(page);
+        if (barcodes.isEmpty() || barcodes.get(0).getType() != BarcodeTypes.fromFormat(format)) {
+            throw new IllegalStateException("The " + format + " fixture does not decode.");
+        }
+    }
+
+    @Benchmark
+    public List<Barcode> decode() {
+        return decoderContext.decode(page);
+    }
+}
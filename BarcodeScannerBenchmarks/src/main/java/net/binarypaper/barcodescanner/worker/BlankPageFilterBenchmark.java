@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import com.google.zxing.BarcodeFormat;
+import java.awt.image.BufferedImage;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the blank page filter on a dusty blank page and on a page with a
+ * barcode, against decoding the blank page with every tier, which is the work
+ * the filter saves.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlankPageFilterBenchmark {
+
+    @Param({"200", "300"})
+    int dpi;
+    @Param({"blank", "barcode"})
+    String page;
+
+    private final BlankPageFilter blankPageFilter = new BlankPageFilter(0.5);
+    private BufferedImage image;
+    private DecoderContext decoderContext;
+
+    @Setup
+    public void setup() throws Exception {
+        boolean blank = page.equals("blank");
+        image = blank ? TiffFixtures.createBlankPage(1, dpi, BufferedImage.TYPE_BYTE_BINARY)
+                : TiffFixtures.createPage(BarcodeFormat.QR_CODE, 1, dpi, BufferedImage.TYPE_BYTE_BINARY);
+        if (blankPageFilter.isBlank(image) != blank) {
+            throw new IllegalStateException("The " + page + " page is not filtered as expected.");
+        }
+        DecodeStrategy decodeStrategy = new DecodeStrategy(DecodeStrategy.parseTiers("FAST,TRY_HARDER,FULL_RESOLUTION"), 2);
+        decoderContext = new DecoderContext(EnumSet.of(BarcodeType.QR), decodeStrategy);
+    }
+
+    @Benchmark
+    public boolean isBlank() {
+        return blankPageFilter.isBlank(image);
+    }
+
+    @Benchmark
+    public List<Barcode> decode() {
+        return decoderContext.decode(image);
+    }
+}
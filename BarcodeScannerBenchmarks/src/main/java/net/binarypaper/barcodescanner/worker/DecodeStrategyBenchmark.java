@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import com.google.zxing.BarcodeFormat;
+import java.awt.image.BufferedImage;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures decoding a clean 300 dpi page with TRY_HARDER only and with a fast
+ * pass first, at full resolution and downscaled.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeStrategyBenchmark {
+
+    @Param({"TRY_HARDER", "FAST,TRY_HARDER", "FAST,TRY_HARDER,FULL_RESOLUTION"})
+    String decodeTiers;
+    @Param({"1", "2"})
+    int fastPassDownscale;
+
+    private BufferedImage page;
+    private DecoderContext decoderContext;
+
+    @Setup
+    public void setup() throws Exception {
+        page = TiffFixtures.createPage(BarcodeFormat.QR_CODE, 1, 300, BufferedImage.TYPE_BYTE_BINARY);
+        DecodeStrategy decodeStrategy = new DecodeStrategy(DecodeStrategy.parseTiers(decodeTiers), fastPassDownscale);
+        decoderContext = new DecoderContext(EnumSet.of(BarcodeType.QR), decodeStrategy);
+        if (decoderContext.decode(page).size() != 1) {
+            throw new IllegalStateException("The fixture does not decode with " + decodeStrategy.getTiers() + ".");
+        }
+    }
+
+    @Benchmark
+    public List<Barcode> decode() {
+        return decoderContext.decode(page);
+    }
+}
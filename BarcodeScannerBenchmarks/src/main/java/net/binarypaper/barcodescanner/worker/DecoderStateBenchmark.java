@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Result;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.multi.GenericMultipleBarcodeReader;
+import com.google.zxing.qrcode.QRCodeReader;
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares decoding a page with new decoder state for every page, as
+ * scanImage used to, with decoding it through a reused DecoderContext. Run it
+ * with the GC profiler of the BenchmarkRunner to see the bytes allocated per
+ * page.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecoderStateBenchmark {
+
+    @Param({"150", "300"})
+    int dpi;
+
+    private BufferedImage page;
+    private DecoderContext decoderContext;
+
+    @Setup
+    public void setup() throws Exception {
+        page = TiffFixtures.createPage(BarcodeFormat.QR_CODE, 1, dpi, BufferedImage.TYPE_BYTE_BINARY);
+        decoderContext = new DecoderContext(EnumSet.of(BarcodeType.QR),
+                new DecodeStrategy(Collections.singletonList(DecodeTier.TRY_HARDER), 1));
+        if (newDecoderState() != 1 || reusedDecoderContext().size() != 1) {
+            throw new IllegalStateException("The fixture at " + dpi + " dpi does not decode.");
+        }
+    }
+
+    @Benchmark
+    public int newDecoderState() {
+        LuminanceSource source = new BufferedImageLuminanceSource(page);
+        BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
+        Map<DecodeHintType, Object> hints = new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+        hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+        GenericMultipleBarcodeReader reader = new GenericMultipleBarcodeReader(new QRCodeReader());
+        try {
+            Result[] results = reader.decodeMultiple(bitmap, hints);
+            return results.length;
+        } catch (NotFoundException ex) {
+            return 0;
+        }
+    }
+
+    @Benchmark
+    public List<Barcode> reusedDecoderContext() {
+        return decoderContext.decode(page);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures reading every page of a 40 page tiff file through a
+ * FileImageInputStream and through a memory mapped stream.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappedTiffReadBenchmark {
+
+    @Param({"file", "mapped"})
+    String stream;
+
+    private File file;
+    private ImageReader reader;
+
+    @Setup
+    public void setup() throws Exception {
+        file = File.createTempFile("MappedTiffReadBenchmark", ".tif");
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(TiffFixtures.createTiff(40, 200, BufferedImage.TYPE_BYTE_BINARY));
+        } finally {
+            outputStream.close();
+        }
+        reader = ImageIO.getImageReadersByFormatName("tiff").next();
+    }
+
+    @TearDown
+    public void tearDown() {
+        reader.dispose();
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public int readAllPages() throws IOException {
+        ImageInputStream iis = stream.equals("mapped") ? new MappedFileImageInputStream(file) : new FileImageInputStream(file);
+        try {
+            reader.setInput(iis, false, true);
+            int pageCount = reader.getNumImages(true);
+            for (int i = 0; i < pageCount; i++) {
+                reader.read(i);
+            }
+            return pageCount;
+        } finally {
+            iis.close();
+        }
+    }
+}
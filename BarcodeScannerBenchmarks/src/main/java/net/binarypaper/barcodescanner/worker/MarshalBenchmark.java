@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+import net.binarypaper.barcodescanner.entity.Document;
+import net.binarypaper.barcodescanner.entity.Page;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures writing the output xml of a document, page by page with the
+ * XmlDocumentWriter and as one marshalled Document.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MarshalBenchmark {
+
+    @Param({"1", "100", "1000"})
+    int pageCount;
+
+    private Document document;
+
+    @Setup
+    public void setup() {
+        List<Page> pages = new ArrayList<Page>();
+        for (int i = 1; i <= pageCount; i++) {
+            Barcode barcode = new Barcode();
+            barcode.setType(BarcodeType.QR);
+            barcode.setContent("<invoice number=\"" + i + "\"/>");
+            List<Barcode> barcodes = new ArrayList<Barcode>();
+            barcodes.add(barcode);
+            Page page = new Page();
+            page.setPageNumber(i);
+            page.setBarcodes(barcodes);
+            pages.add(page);
+        }
+        document = new Document();
+        document.setFileName("benchmark.tif");
+        document.setPages(pages);
+    }
+
+    @Benchmark
+    public String writePages() throws IOException {
+        StringWriter output = new StringWriter();
+        XmlDocumentWriter documentWriter = new XmlDocumentWriter(output, document.getFileName());
+        for (Page page : document.getPages()) {
+            documentWriter.writePage(page);
+        }
+        documentWriter.close();
+        return output.toString();
+    }
+
+    @Benchmark
+    public String marshalDocument() throws IOException {
+        StringWriter output = new StringWriter();
+        XmlDocumentWriter.marshal(document, output);
+        return output.toString();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import com.google.zxing.BarcodeFormat;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures decoding a page with the barcode in the top right corner on the
+ * whole page and in the region of a document profile.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegionDecodeBenchmark {
+
+    @Param({"150", "300"})
+    int dpi;
+    @Param({"", "1:0.5,0,0.5,0.2"})
+    String regions;
+
+    private BufferedImage page;
+    private List<Rectangle> pageRegions;
+    private DecoderContext decoderContext;
+
+    @Setup
+    public void setup() throws Exception {
+        page = TiffFixtures.createPage(BarcodeFormat.QR_CODE, 1, dpi, BufferedImage.TYPE_BYTE_BINARY);
+        DocumentProfile profile = new DocumentProfile("benchmark", Pattern.compile(".*"), DocumentProfile.parseRegions(regions));
+        pageRegions = profile.regionsOf(1, page.getWidth(), page.getHeight());
+        decoderContext = new DecoderContext(EnumSet.of(BarcodeType.QR),
+                new DecodeStrategy(Collections.singletonList(DecodeTier.TRY_HARDER), 1));
+        if (decoderContext.decode(page, pageRegions).size() != 1) {
+            throw new IllegalStateException("The fixture at " + dpi + " dpi does not decode.");
+        }
+    }
+
+    @Benchmark
+    public List<Barcode> decode() {
+        return decoderContext.decode(page, pageRegions);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import com.google.zxing.BarcodeFormat;
+import java.awt.image.BufferedImage;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures decoding one bilevel page per barcode format, resolution and
+ * decode tier list, the work scanImage does for every page.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanImageBenchmark {
+
+    @Param({"QR_CODE", "PDF_417", "CODE_128", "CODE_39", "EAN_13", "ITF"})
+    BarcodeFormat format;
+    @Param({"150", "300"})
+    int dpi;
+    @Param({"TRY_HARDER", "FAST,TRY_HARDER"})
+    String decodeTiers;
+
+    private BufferedImage page;
+    private DecoderContext decoderContext;
+
+    @Setup
+    public void setup() throws Exception {
+        page = TiffFixtures.createPage(format, 1, dpi, BufferedImage.TYPE_BYTE_BINARY);
+        decoderContext = new DecoderContext(EnumSet.of(BarcodeTypes.fromFormat(format)),
+                new DecodeStrategy(DecodeStrategy.parseTiers(decodeTiers), 1));
+        List<Barcode> barcodes = decoderContext.decode(page);
+        if (barcodes.isEmpty() || !barcodes.get(0).getContent().equals(TiffFixtures.content(format, 1))) {
+            throw new IllegalStateException("The " + format + " fixture at " + dpi + " dpi does not decode.");
+        }
+    }
+
+    @Benchmark
+    public List<Barcode> scanImage() {
+        return decoderContext.decode(page);
+    }
+}
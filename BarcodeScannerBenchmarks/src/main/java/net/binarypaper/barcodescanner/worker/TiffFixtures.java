@@ -0,0 +1,223 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Builds synthetic A4 tiff pages and files with known barcodes. Every fixture
+ * is generated from a fixed seed, so benchmark results can be compared between
+ * runs and machines without any sample files.
+ * <p>
+ * Run the main method to write the fixtures to a folder, for example to try
+ * them with the scanner itself.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public final class TiffFixtures {
+
+    private static final double A4_WIDTH_INCHES = 8.27;
+    private static final double A4_HEIGHT_INCHES = 11.69;
+    private static final long SEED = 20150101L;
+
+    private TiffFixtures() {
+    }
+
+    /**
+     * Returns the content of the barcode on a page of a fixture.
+     */
+    public static String content(BarcodeFormat format, int pageNumber) {
+        switch (format) {
+            case EAN_13:
+                return "590123412345" + checkDigit("590123412345");
+            case EAN_8:
+                return "9638507" + checkDigit("9638507");
+            case UPC_A:
+                return "03600029145" + checkDigit("03600029145");
+            case ITF:
+                return String.format("%08d", pageNumber);
+            case CODABAR:
+                return String.format("A%06dB", pageNumber);
+            case CODE_39:
+                // Code 39 has no lower case letters and no underscore
+                return "CODE39 PAGE " + pageNumber;
+            default:
+                return format + " page " + pageNumber;
+        }
+    }
+
+    private static int checkDigit(String digits) {
+        int sum = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            int digit = digits.charAt(i) - '0';
+            // Weigh the digits 3, 1, 3, ... from the right
+            sum += (digits.length() - i) % 2 == 1 ? digit * 3 : digit;
+        }
+        return (10 - sum % 10) % 10;
+    }
+
+    /**
+     * Creates an A4 page at the given resolution with only some noise, like
+     * specks of dust on a scan.
+     *
+     * @param imageType BufferedImage.TYPE_BYTE_BINARY for fax pages,
+     * TYPE_BYTE_GRAY or TYPE_INT_RGB for other scans.
+     */
+    public static BufferedImage createBlankPage(int pageNumber, int dpi, int imageType) {
+        int width = (int) Math.round(A4_WIDTH_INCHES * dpi);
+        int height = (int) Math.round(A4_HEIGHT_INCHES * dpi);
+        BufferedImage page = new BufferedImage(width, height, imageType);
+        Graphics2D graphics = page.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, width, height);
+        graphics.setColor(Color.BLACK);
+        Random random = new Random(SEED + pageNumber);
+        for (int i = 0; i < 200; i++) {
+            graphics.fillRect(random.nextInt(width), random.nextInt(height), 1 + dpi / 150, 1 + dpi / 150);
+        }
+        graphics.dispose();
+        return page;
+    }
+
+    /**
+     * Creates an A4 page at the given resolution with one barcode in the top
+     * right corner and some noise, like specks of dust on a scan.
+     *
+     * @param imageType BufferedImage.TYPE_BYTE_BINARY for fax pages,
+     * TYPE_BYTE_GRAY or TYPE_INT_RGB for other scans.
+     */
+    public static BufferedImage createPage(BarcodeFormat format, int pageNumber, int dpi, int imageType) throws WriterException {
+        BufferedImage page = createBlankPage(pageNumber, dpi, imageType);
+        int width = page.getWidth();
+        Graphics2D graphics = page.createGraphics();
+        graphics.setColor(Color.BLACK);
+        boolean linear = format != BarcodeFormat.QR_CODE && format != BarcodeFormat.DATA_MATRIX
+                && format != BarcodeFormat.AZTEC && format != BarcodeFormat.PDF_417;
+        // Barcodes are printed at the same physical size at every resolution
+        int barcodeWidth = (linear ? 500 : 250) * dpi / 150;
+        int barcodeHeight = (linear ? 120 : 250) * dpi / 150;
+        BitMatrix matrix = new MultiFormatWriter().encode(content(format, pageNumber), format, barcodeWidth, barcodeHeight);
+        int scale = Math.max(1, barcodeWidth / matrix.getWidth());
+        int left = width - matrix.getWidth() * scale - dpi / 2;
+        int top = dpi / 2;
+        for (int y = 0; y < matrix.getHeight(); y++) {
+            for (int x = 0; x < matrix.getWidth(); x++) {
+                if (matrix.get(x, y)) {
+                    graphics.fillRect(left + x * scale, top + y * scale, scale, scale);
+                }
+            }
+        }
+        graphics.dispose();
+        return page;
+    }
+
+    /**
+     * Creates a multi page tiff of QR code pages. Bilevel pages are CCITT T.6
+     * compressed, like fax pages, other pages Deflate compressed.
+     */
+    public static byte[] createTiff(int pages, int dpi, int imageType) throws IOException, WriterException {
+        List<BufferedImage> images = new ArrayList<BufferedImage>();
+        for (int i = 1; i <= pages; i++) {
+            images.add(createPage(BarcodeFormat.QR_CODE, i, dpi, imageType));
+        }
+        return createTiff(images, dpi);
+    }
+
+    public static byte[] createTiff(List<BufferedImage> pages, int dpi) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+        ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+        ImageOutputStream ios = ImageIO.createImageOutputStream(tiff);
+        try {
+            writer.setOutput(ios);
+            writer.prepareWriteSequence(null);
+            for (BufferedImage page : pages) {
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionType(page.getType() == BufferedImage.TYPE_BYTE_BINARY ? "CCITT T.6" : "Deflate");
+                IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(page), param);
+                metadata.mergeTree(IIOMetadataFormatImpl.standardMetadataFormatName, createDimension(dpi));
+                writer.writeToSequence(new IIOImage(page, null, metadata), param);
+            }
+            writer.endWriteSequence();
+        } finally {
+            ios.close();
+            writer.dispose();
+        }
+        return tiff.toByteArray();
+    }
+
+    private static IIOMetadataNode createDimension(int dpi) {
+        IIOMetadataNode dimension = new IIOMetadataNode("Dimension");
+        for (String name : new String[]{"HorizontalPixelSize", "VerticalPixelSize"}) {
+            IIOMetadataNode pixelSize = new IIOMetadataNode(name);
+            pixelSize.setAttribute("value", Double.toString(25.4 / dpi));
+            dimension.appendChild(pixelSize);
+        }
+        IIOMetadataNode root = new IIOMetadataNode(IIOMetadataFormatImpl.standardMetadataFormatName);
+        root.appendChild(dimension);
+        return root;
+    }
+
+    /**
+     * Writes the fixtures of the benchmarks to a folder.
+     *
+     * @param args The output folder, the current folder when it is missing.
+     */
+    public static void main(String[] args) throws Exception {
+        File folder = new File(args.length > 0 ? args[0] : ".");
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("The folder " + folder.getAbsolutePath() + " could not be created.");
+        }
+        for (int dpi : new int[]{150, 300}) {
+            write(new File(folder, "fax-" + dpi + "dpi-10pages.tif"), createTiff(10, dpi, BufferedImage.TYPE_BYTE_BINARY));
+            write(new File(folder, "gray-" + dpi + "dpi-10pages.tif"), createTiff(10, dpi, BufferedImage.TYPE_BYTE_GRAY));
+        }
+        write(new File(folder, "fax-150dpi-100pages.tif"), createTiff(100, 150, BufferedImage.TYPE_BYTE_BINARY));
+    }
+
+    private static void write(File file, byte[] content) throws IOException {
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(content);
+        } finally {
+            outputStream.close();
+        }
+        System.out.println("Wrote " + file.getPath());
+    }
+}
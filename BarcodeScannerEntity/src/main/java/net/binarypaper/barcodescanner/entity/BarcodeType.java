@@ -22,5 +22,16 @@ package net.binarypaper.barcodescanner.entity;
 public enum BarcodeType {
 
     QR,
-    PDF417
+    PDF417,
+    DATA_MATRIX,
+    AZTEC,
+    CODE_128,
+    CODE_39,
+    CODE_93,
+    CODABAR,
+    EAN_13,
+    EAN_8,
+    UPC_A,
+    UPC_E,
+    ITF
 }
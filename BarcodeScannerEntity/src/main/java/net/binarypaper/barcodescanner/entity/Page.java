@@ -27,6 +27,8 @@ public class Page {
 
     private int pageNumber;
     private List<Barcode> barcodes;
+    private String error;
+    private Boolean blank;
 
     @XmlAttribute(name = "pageNumber", required = true)
     public int getPageNumber() {
@@ -47,4 +49,29 @@ public class Page {
         this.barcodes = barcodes;
     }
 
+    /**
+     * Why the page could not be read or decoded, or null when it was.
+     */
+    @XmlElement(name = "error")
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    /**
+     * True when the page was found to be blank and was not decoded, or null
+     * when it was decoded.
+     */
+    @XmlAttribute(name = "blank")
+    public Boolean getBlank() {
+        return blank;
+    }
+
+    public void setBlank(Boolean blank) {
+        this.blank = blank;
+    }
+
 }
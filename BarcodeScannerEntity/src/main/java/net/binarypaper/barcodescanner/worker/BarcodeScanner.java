@@ -15,43 +15,46 @@
  */
 package net.binarypaper.barcodescanner.worker;
 
-import com.google.zxing.BinaryBitmap;
-import com.google.zxing.DecodeHintType;
-import com.google.zxing.LuminanceSource;
-import com.google.zxing.NotFoundException;
-import com.google.zxing.Result;
-import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
-import com.google.zxing.common.HybridBinarizer;
-import com.google.zxing.multi.GenericMultipleBarcodeReader;
-import com.google.zxing.qrcode.QRCodeReader;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.ResourceBundle;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
-import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 import javax.xml.bind.DatatypeConverter;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.Marshaller;
 import net.binarypaper.barcodescanner.entity.Barcode;
 import net.binarypaper.barcodescanner.entity.BarcodeType;
-import net.binarypaper.barcodescanner.entity.Document;
 import net.binarypaper.barcodescanner.entity.Page;
-import org.eclipse.persistence.jaxb.JAXBContextFactory;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
 /**
  *
@@ -60,56 +63,161 @@ import org.eclipse.persistence.jaxb.JAXBContextFactory;
 public class BarcodeScanner {
 
     private static final Logger LOGGER = Logger.getLogger(BarcodeScanner.class.getName());
-    private static final ResourceBundle resourceBundle = ResourceBundle.getBundle("config");
+    // The log file handler is added to the package logger so that it also
+    // receives the log records of the pipeline classes.
+    private static final Logger PACKAGE_LOGGER = Logger.getLogger(BarcodeScanner.class.getPackage().getName());
+    private static final String TIFF_STRIP_OFFSETS = "273";
+    private static final String TIFF_STRIP_BYTE_COUNTS = "279";
+    private static final PageDecodeExecutor pageDecodeExecutor = createPageDecodeExecutor();
+    private static final Set<BarcodeType> barcodeTypes = BarcodeTypes.parse(Settings.getString("barcodeTypes", "QR"));
+    private static final int targetDpi = Settings.getInt("targetDpi", 0);
+    private static final int pdfRenderDpi = Settings.getInt("pdfRenderDpi", 150);
+    private static final DecodeStrategy decodeStrategy = DecodeStrategy.load();
+    private static final List<DocumentProfile> documentProfiles = DocumentProfile.load();
+    private static final ResultCache resultCache = ResultCache.load();
+    private static final BlankPageFilter blankPageFilter = BlankPageFilter.load();
+    private static final MemoryBudget memoryBudget = MemoryBudget.load(pageDecodeExecutor.getWorkerThreads());
+    private static final WorkJournal workJournal = WorkJournal.load();
+    private static final OutputFormat outputFormat = OutputFormat.load();
+    // The settings that change the decode results, part of every cache key
+    private static final String cacheSettings = barcodeTypes + ";" + decodeStrategy.getTiers() + ";"
+            + decodeStrategy.scaleOf(DecodeTier.FAST) + ";" + targetDpi + ";" + pdfRenderDpi + ";"
+            + blankPageFilter.getMaxInkPercent();
+    private static final ScannerMetrics metrics = createMetrics();
+    private static boolean logFileHandlerSet;
+    private static final ThreadLocal<DecoderContext> decoderContext = new ThreadLocal<DecoderContext>() {
+
+        @Override
+        protected DecoderContext initialValue() {
+            return new DecoderContext(barcodeTypes, decodeStrategy, memoryBudget.getRetainedBytes());
+        }
+    };
 
     public static void main(String[] args) {
         setLogFileHandler();
-        File inputFolder = new File(resourceBundle.getString("inputFolder"));
-        while (true) {
-            List<File> files = getFilesInFolder(inputFolder);
-            for (File file : files) {
-                try {
-                    String fileNameLoweCase = file.getName().toLowerCase();
-//                    if (fileNameLoweCase.endsWith(".pdf")) {
-//                        BarcodeScanner barcodeScanner = new BarcodeScanner();
-//                        Document document = barcodeScanner.scanPdfDocument(file);
-//                        String outputFolder = resourceBundle.getString("outputFolder");
-//                        barcodeScanner.marshalDocument(document, outputFolder, file.getName());
-//                        file.delete();
-//                    } else 
-                    if (fileNameLoweCase.endsWith(".tif") || fileNameLoweCase.endsWith(".tiff")) {
-                        BarcodeScanner barcodeScanner = new BarcodeScanner();
-                        Document document = barcodeScanner.scanTiffDocument(file);
-                        String outputFolder = resourceBundle.getString("outputFolder");
-                        barcodeScanner.marshalDocument(document, outputFolder, file.getName());
-                        file.delete();
-                    } else {
-                        LOGGER.log(Level.WARNING, "The input file \"{0}\" does not have the file extension .pdf, .tiff or .tif", file.getName());
-                        moveInvalidInputFile(file.getName());
-                    }
-                } catch (FileNotFoundException ex) {
-                    LOGGER.log(Level.SEVERE, null, ex);
-                } catch (Exception ex) {
-                    LOGGER.log(Level.SEVERE, null, ex);
-                    moveInvalidInputFile(file.getName());
+        File inputFolder = new File(Settings.getString("inputFolder"));
+        WorkClaims workClaims = WorkClaims.load(inputFolder);
+        if (workClaims != null) {
+            try {
+                workClaims.start();
+            } catch (IOException ex) {
+                LOGGER.log(Level.SEVERE, "The input folder can not be shared with other nodes.", ex);
+                return;
+            }
+            LOGGER.log(Level.INFO, "Sharing the input folder {0} as node {1}.",
+                    new Object[]{inputFolder.getAbsolutePath(), workClaims.getNodeId()});
+        }
+        metrics.registerMBean();
+        MetricsEndpoint metricsEndpoint = startMetricsEndpoint();
+        BarcodeScanner barcodeScanner = new BarcodeScanner();
+        ScanService scanService = startScanService(barcodeScanner);
+        ScanPipeline scanPipeline = new ScanPipeline(barcodeScanner, metrics, createBatchWriter(), workClaims,
+                Settings.getInt("intakeThreads", 2),
+                Settings.getInt("outputThreads", 2),
+                Settings.getInt("maxFilesInFlight", 8));
+        InputFolderWatcher inputFolderWatcher = new InputFolderWatcher(inputFolder,
+                Settings.getInt("fileStableMillis", 250),
+                Settings.getInt("rescanIntervalSeconds", 60) * 1000L,
+                Settings.getString("inProgressFileSuffix", ".part"));
+        try {
+            while (true) {
+                for (File file : inputFolderWatcher.takeStableFiles()) {
+                    scanPipeline.submit(file);
                 }
             }
+        } catch (InterruptedException ex) {
+            LOGGER.log(Level.INFO, "The barcode scanner was interrupted and is shutting down.");
+            scanPipeline.shutdown();
+        } finally {
+            try {
+                inputFolderWatcher.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.SEVERE, null, ex);
+            }
+            if (scanService != null) {
+                scanService.close();
+            }
+            if (metricsEndpoint != null) {
+                metricsEndpoint.close();
+            }
+            if (workClaims != null) {
+                workClaims.close();
+            }
         }
     }
 
-    private static void setLogFileHandler() {
+    /**
+     * Creates the batch writer when the batchSize setting is above 1.
+     */
+    private static BatchWriter createBatchWriter() {
+        int batchSize = Settings.getInt("batchSize", 1);
+        if (batchSize <= 1) {
+            return null;
+        }
+        return new BatchWriter(new File(Settings.getString("outputFolder")), outputFormat, batchSize,
+                Settings.getInt("batchSeconds", 60));
+    }
+
+    /**
+     * Starts the http scanning service when the httpPort setting is set.
+     */
+    private static ScanService startScanService(BarcodeScanner barcodeScanner) {
+        int httpPort = Settings.getInt("httpPort", 0);
+        if (httpPort <= 0) {
+            return null;
+        }
+        try {
+            ScanService scanService = new ScanService(barcodeScanner, httpPort,
+                    Settings.getInt("httpThreads", 4),
+                    Settings.getInt("httpQueueSize", 8));
+            LOGGER.log(Level.INFO, "Scanning tiff files posted to http://localhost:{0,number,#}/barcodes", scanService.getPort());
+            return scanService;
+        } catch (IOException ex) {
+            LOGGER.log(Level.SEVERE, "The http scanning service could not be started on port " + httpPort + ".", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Starts the metrics http endpoint when the metricsPort setting is set.
+     */
+    private static MetricsEndpoint startMetricsEndpoint() {
+        int metricsPort = Settings.getInt("metricsPort", 0);
+        if (metricsPort <= 0) {
+            return null;
+        }
+        try {
+            MetricsEndpoint metricsEndpoint = new MetricsEndpoint(metrics, metricsPort);
+            LOGGER.log(Level.INFO, "Serving metrics at http://localhost:{0,number,#}/metrics", metricsEndpoint.getPort());
+            return metricsEndpoint;
+        } catch (IOException ex) {
+            LOGGER.log(Level.SEVERE, "The metrics endpoint could not be started on port " + metricsPort + ".", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Adds the log file handler to the package logger. Only the first call
+     * adds a handler, so that every call to readTiffBarcodes can make sure
+     * logging is set up without opening another log file.
+     */
+    private static synchronized void setLogFileHandler() {
+        if (logFileHandlerSet) {
+            return;
+        }
+        logFileHandlerSet = true;
         // Set the Log File Handler
         try {
-            String logFilePath = resourceBundle.getString("logFolder");
+            String logFilePath = Settings.getString("logFolder");
             File logDirectory = new File(logFilePath);
             if (!logDirectory.exists()) {
                 logDirectory.mkdir();
             }
             FileHandler fileHandler = new FileHandler(logFilePath + "LogFile.%u.%g.log", 1024 * 1024, 100);
             fileHandler.setFormatter(new SimpleFormatter());
-            Level level = Level.parse(resourceBundle.getString("logLevel"));
+            Level level = Level.parse(Settings.getString("logLevel"));
             fileHandler.setLevel(level);
-            LOGGER.addHandler(fileHandler);
+            PACKAGE_LOGGER.addHandler(fileHandler);
         } catch (IOException ex) {
             LOGGER.log(Level.SEVERE, null, ex);
         } catch (SecurityException ex) {
@@ -117,202 +225,689 @@ public class BarcodeScanner {
         }
     }
 
-    private static List<File> getFilesInFolder(final File folder) {
-        List<File> files = new ArrayList<File>();
-        for (final File file : folder.listFiles()) {
-            if (file.isFile()) {
-                files.add(file);
-            }
+    private static PageDecodeExecutor createPageDecodeExecutor() {
+        int workerThreads = Settings.getInt("workerThreads", 0);
+        if (workerThreads < 1) {
+            workerThreads = Runtime.getRuntime().availableProcessors();
         }
-        return files;
+        int pageQueueSize = Settings.getInt("pageQueueSize", workerThreads);
+        return new PageDecodeExecutor(workerThreads, Math.max(pageQueueSize, 0));
+    }
+
+    private static ScannerMetrics createMetrics() {
+        ScannerMetrics scannerMetrics = new ScannerMetrics(decodeStrategy, resultCache, blankPageFilter);
+        scannerMetrics.addQueue("page_decode", new ScannerMetrics.Gauge() {
+
+            @Override
+            public long value() {
+                return pageDecodeExecutor.getPendingPages();
+            }
+        });
+        scannerMetrics.addQueue("decode_memory", new ScannerMetrics.Gauge() {
+
+            @Override
+            public long value() {
+                return memoryBudget.getWaitingPages();
+            }
+        });
+        return scannerMetrics;
     }
 
     public String readTiffBarcodes(String fileName, String base64InputFile) {
+        // Convert base64InputFile to byte[]
+        byte[] inputFile = DatatypeConverter.parseBase64Binary(base64InputFile);
+        return readTiffBarcodes(fileName, inputFile);
+    }
+
+    public String readTiffBarcodes(String fileName, byte[] inputFile) {
+        return readTiffBarcodes(fileName, new ByteBufferImageInputStream(ByteBuffer.wrap(inputFile)));
+    }
+
+    public String readTiffBarcodes(String fileName, InputStream inputStream) {
+        // Cache in memory, the default ImageIO cache writes to a temporary file
+        return readTiffBarcodes(fileName, new MemoryCacheImageInputStream(inputStream));
+    }
+
+    private String readTiffBarcodes(String fileName, ImageInputStream iis) {
         // Set log file handler
         setLogFileHandler();
         // Create new output Document
-        Document document = new Document();
-        document.setFileName(fileName);
-        // Convert base64InputFile to byte[]
-        byte[] inputFile = DatatypeConverter.parseBase64Binary(base64InputFile);
-        File tiffFile = new File("");
-        try {
-            FileOutputStream fos = new FileOutputStream(tiffFile);
-//            FileOutputStream fos = new FileOutputStream("C:\\TEMP\\BarcodeScanner\\temp.tif");
-            fos.write(inputFile);
-            fos.close();
-        } catch (IOException iOException) {
-            System.err.println("Bad");
-        }
-        List<Page> pages = new ArrayList<Page>();
+        StringWriter outputStringWriter = new StringWriter();
+        XmlDocumentWriter documentWriter = new XmlDocumentWriter(outputStringWriter, fileName);
         // Read barcodes from tiff file
+        PageResults pageResults = new PageResults();
         try {
-            Iterator iterator = ImageIO.getImageReadersByFormatName("tiff");
-            ImageReader reader = (ImageReader) iterator.next();
-//            ByteArrayInputStream iis = new ByteArrayInputStream(inputFile);
-            ImageInputStream iis = new FileImageInputStream(tiffFile);
-            reader.setInput(iis, false, true);
-            int pageCount = reader.getNumImages(true);
-            for (int i = 0; i < pageCount; i++) {
-                Page page = new Page();
-                page.setPageNumber(i + 1);
-                BufferedImage bufferedImage = reader.read(i);
-                List<Barcode> barcodes = scanImage(bufferedImage);
-                if (barcodes.isEmpty()) {
-                    LOGGER.log(Level.WARNING,
-                            "No barcodes found on page {0} of the input file.",
-                            i + 1);
-                }
-                page.setBarcodes(barcodes);
-                pages.add(page);
+            readTiffPages(iis, fileName, pageResults);
+            pageResults.close();
+        } catch (IOException ex) {
+            pageResults.fail(ex);
+        } finally {
+            try {
+                iis.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, null, ex);
             }
-            iis.close();
+        }
+        long marshalNanos = 0;
+        try {
+            marshalNanos = writePages(pageResults, documentWriter, null, null, false);
         } catch (IOException ex) {
             LOGGER.log(Level.SEVERE, null, ex);
         }
-        document.setPages(pages);
         // Marshall document to output String
-        StringWriter outputStringWriter = new StringWriter();
         try {
-            JAXBContext jaxbContext = JAXBContextFactory.createContext(new Class[]{Document.class}, null);
-            Marshaller jaxbMarshaller = jaxbContext.createMarshaller();
-            // output pretty printed
-            jaxbMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-            jaxbMarshaller.marshal(document, outputStringWriter);
-        } catch (JAXBException ex) {
+            long start = System.nanoTime();
+            documentWriter.close();
+            metrics.recordStage(ScannerMetrics.Stage.MARSHAL, marshalNanos + System.nanoTime() - start);
+        } catch (IOException ex) {
             LOGGER.log(Level.SEVERE, "The output xml string could not be created.");
             LOGGER.log(Level.SEVERE, null, ex);
         }
         return outputStringWriter.toString();
     }
 
-//    private Document scanPdfDocument(File pdfFile) throws IOException {
-//        Document document = new Document();
-//        document.setFileName(pdfFile.getName());
-//        List<Page> pages = new ArrayList<Page>();
-//        PDDocument pdfDocument = PDDocument.load(pdfFile);
-//        List<PDPage> pdfPages = pdfDocument.getDocumentCatalog().getAllPages();
-//        for (int i = 0; i < pdfPages.size(); i++) {
-//            Page page = new Page();
-//            page.setPageNumber(i + 1);
-//            PDPage pdfPage = pdfPages.get(i);
-//            BufferedImage bufferedImage = pdfPage.convertToImage();
-//            List<Barcode> barcodes = scanImage(bufferedImage);
-//            if (barcodes.isEmpty()) {
-//                LOGGER.log(Level.WARNING,
-//                        "No barcodes found on page {0} of the input file {1}.",
-//                        new Object[]{i, pdfFile.getAbsolutePath()});
-//            }
-//            page.setBarcodes(barcodes);
-//            pages.add(page);
-//        }
-//        pdfDocument.close();
-//        document.setPages(pages);
-//        return document;
-//    }
-    private Document scanTiffDocument(File tiffFile) throws IOException {
-        Document document = new Document();
-        document.setFileName(tiffFile.getName());
-        List<Page> pages = new ArrayList<Page>();
+    /**
+     * The format of the output files, of the batch files and of the responses
+     * of the http scanning service.
+     */
+    OutputFormat getOutputFormat() {
+        return outputFormat;
+    }
+
+    /**
+     * Writes the output of an input file to a stream in the output format,
+     * page by page as the pages are decoded, and closes the stream. Every page
+     * is flushed to the stream as soon as it is written. The stream is left
+     * open when a page fails.
+     */
+    void writeDocument(String fileName, PageResults pageResults, OutputStream outputStream) throws IOException {
+        writeDocument(fileName, pageResults, outputStream, null, null, true);
+    }
+
+    /**
+     * Writes the output of an input file to a stream, appends every page to
+     * the work journal of the file before it is written, and caches the pages
+     * under the key of the input file. Files with pages that could not be read
+     * or decoded are not cached.
+     *
+     * @param fileKey The result cache key of the input file, or null to not
+     * cache the pages.
+     * @param journal The work journal of the input file, or null.
+     */
+    void writeDocument(String fileName, PageResults pageResults, OutputStream outputStream, String fileKey,
+            WorkJournal.Entry journal) throws IOException {
+        writeDocument(fileName, pageResults, outputStream, fileKey, journal, false);
+    }
+
+    private void writeDocument(String fileName, PageResults pageResults, OutputStream outputStream, String fileKey,
+            WorkJournal.Entry journal, boolean flushPages) throws IOException {
+        DocumentWriter documentWriter = outputFormat.createWriter(outputStream, fileName);
+        List<Page> writtenPages = fileKey == null || !resultCache.isEnabled() ? null : new ArrayList<Page>();
+        long marshalNanos = writePages(pageResults, documentWriter, writtenPages, journal, flushPages);
+        long start = System.nanoTime();
+        documentWriter.close();
+        metrics.recordStage(ScannerMetrics.Stage.MARSHAL, marshalNanos + System.nanoTime() - start);
+        if (writtenPages != null && !hasErrors(writtenPages)) {
+            resultCache.put(ResultCache.Kind.FILE, fileKey, writtenPages);
+        }
+    }
+
+    private static boolean hasErrors(List<Page> pages) {
+        for (Page page : pages) {
+            if (page.getError() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the key of an input file, or null when neither the result cache
+     * nor the work journal is enabled.
+     */
+    String fileKeyOf(File inputFile) throws IOException {
+        return resultCache.isEnabled() || workJournal.isEnabled() ? ResultCache.fileKey(inputFile, cacheSettings) : null;
+    }
+
+    /**
+     * Opens the work journal of an input file.
+     *
+     * @param fileKey The key of the input file, or null.
+     * @return The journal, or null when the work journal is disabled or the
+     * journal of the file can not be opened.
+     */
+    WorkJournal.Entry openJournal(String fileKey) {
+        if (fileKey == null || !workJournal.isEnabled()) {
+            return null;
+        }
+        try {
+            return workJournal.open(fileKey);
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "The work journal of the input file with key " + fileKey + " could not be opened.", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Adds the cached pages of an input file and closes the page results.
+     *
+     * @param fileKey The key of the input file, or null.
+     * @return false when the pages of the file are not cached.
+     */
+    boolean readCachedPages(String fileKey, PageResults pageResults) {
+        if (fileKey == null || !resultCache.isEnabled()) {
+            return false;
+        }
+        List<Page> pages = resultCache.get(ResultCache.Kind.FILE, fileKey);
+        if (pages == null) {
+            return false;
+        }
+        for (Page page : pages) {
+            pageResults.add(page);
+        }
+        pageResults.close();
+        return true;
+    }
+
+    /**
+     * Reads the pages of a pdf file, see
+     * {@link #readPdfPages(PdfDocumentPool, String, PageResults, Map)}.
+     */
+    void readPdfPages(PdfDocumentPool pdfDocumentPool, String inputFileName, PageResults pageResults) throws IOException {
+        readPdfPages(pdfDocumentPool, inputFileName, pageResults, Collections.<Integer, Page>emptyMap());
+    }
+
+    /**
+     * Hands every page of a pdf file to the page decode executor. The pages
+     * are rendered on the page decode worker threads, each with its own copy of
+     * the pdf file from the pool. Like a tiff page, a pdf page is only handed
+     * over once the memory budget admits it. Returns once every page is
+     * decoded, after which the pool can be closed. A page that can not be
+     * rendered becomes a page with an error.
+     *
+     * @param journaledPages The pages that were decoded before a restart, by
+     * page number. They are not rendered again.
+     */
+    void readPdfPages(final PdfDocumentPool pdfDocumentPool, final String inputFileName, PageResults pageResults,
+            Map<Integer, Page> journaledPages) throws IOException {
+        final DocumentProfile documentProfile = DocumentProfile.forFile(documentProfiles, inputFileName);
+        List<Future<Page>> submittedPages = new ArrayList<Future<Page>>();
+        try {
+            for (int i = 0; i < pdfDocumentPool.getNumberOfPages() && !pageResults.isCancelled(); i++) {
+                final int pageIndex = i;
+                Page journaledPage = journaledPages.get(pageIndex + 1);
+                if (journaledPage != null) {
+                    pageResults.add(journaledPage);
+                    metrics.pagesResumed(1);
+                    continue;
+                }
+                MemoryBudget.Grant grant = memoryBudget.acquire(memoryBudget.isEnabled()
+                        ? pdfDecodeBytesOf(pdfDocumentPool, pageIndex) : 0);
+                // The page image and its memory are released as soon as the
+                // page is decoded
+                Future<Page> pageResult = pageDecodeExecutor.submit(new Callable<Page>() {
+
+                    @Override
+                    public Page call() throws IOException {
+                        BufferedImage bufferedImage;
+                        PDDocument document = pdfDocumentPool.borrow();
+                        try {
+                            long start = System.nanoTime();
+                            bufferedImage = PdfPages.pageImage(document, pageIndex, pdfRenderDpi, targetDpi);
+                            metrics.recordStage(ScannerMetrics.Stage.READ, System.nanoTime() - start);
+                        } catch (IOException ex) {
+                            return errorPage(pageIndex + 1, inputFileName, "The page could not be rendered", ex);
+                        } catch (RuntimeException ex) {
+                            return errorPage(pageIndex + 1, inputFileName, "The page could not be rendered", ex);
+                        } finally {
+                            pdfDocumentPool.release(document);
+                        }
+                        return scanPage(pageIndex + 1, bufferedImage, inputFileName, documentProfile);
+                    }
+                }, grant);
+                submittedPages.add(pageResult);
+                pageResults.add(pageResult);
+            }
+            // The pool must stay open until every page is rendered
+            for (Future<Page> pageResult : submittedPages) {
+                try {
+                    pageResult.get();
+                } catch (ExecutionException ex) {
+                    // Reported by the output of the page
+                } catch (CancellationException ex) {
+                    // The output of the file failed
+                }
+            }
+        } catch (InterruptedException ex) {
+            pageResults.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Reading of " + inputFileName + " was interrupted.");
+        }
+    }
+
+    /**
+     * Estimates the memory a pdf page needs from its size before it is
+     * rendered. A page that can not be estimated is given the whole budget.
+     */
+    private static long pdfDecodeBytesOf(PdfDocumentPool pdfDocumentPool, int pageIndex) throws IOException {
+        PDDocument document = pdfDocumentPool.borrow();
+        try {
+            return PdfPages.decodeBytesOf(document, pageIndex, pdfRenderDpi, targetDpi);
+        } catch (RuntimeException ex) {
+            return memoryBudget.getBudgetBytes();
+        } finally {
+            pdfDocumentPool.release(document);
+        }
+    }
+
+    /**
+     * Reads the pages of a tiff file on the calling thread, see
+     * {@link #readTiffPages(ImageInputStream, String, PageResults, Map)}.
+     */
+    void readTiffPages(ImageInputStream iis, String inputFileName, PageResults pageResults) throws IOException {
+        readTiffPages(iis, inputFileName, pageResults, Collections.<Integer, Page>emptyMap());
+    }
+
+    /**
+     * Reads the pages of a tiff file on the calling thread one after the
+     * other, and hands every page to the page decode executor as soon as it is
+     * read. The pages are counted while they are read, so the first page is
+     * decoded before the end of a large file is reached.
+     * <p>
+     * A page that can not be read becomes a page with an error, as long as
+     * the pages after it can still be found. The file fails when it is truncated
+     * or the chain of pages is broken, or when not a single page can be read.
+     *
+     * @param journaledPages The pages that were decoded before a restart, by
+     * page number. They are not read again.
+     */
+    void readTiffPages(ImageInputStream iis, final String inputFileName, PageResults pageResults,
+            Map<Integer, Page> journaledPages) throws IOException {
         Iterator iterator = ImageIO.getImageReadersByFormatName("tiff");
         ImageReader reader = (ImageReader) iterator.next();
-        ImageInputStream iis = new FileImageInputStream(tiffFile);
-        reader.setInput(iis, false, true);
-        int pageCount = reader.getNumImages(true);
-        for (int i = 0; i < pageCount; i++) {
-            Page page = new Page();
-            page.setPageNumber(i + 1);
-            BufferedImage bufferedImage = reader.read(i);
-            List<Barcode> barcodes = scanImage(bufferedImage);
-            if (barcodes.isEmpty()) {
-                LOGGER.log(Level.WARNING,
-                        "No barcodes found on page {0} of the input file {1}.",
-                        new Object[]{i + 1, tiffFile.getAbsolutePath()});
+        final DocumentProfile documentProfile = DocumentProfile.forFile(documentProfiles, inputFileName);
+        // Only counted once a page fails, to know whether the pages after it
+        // can still be found
+        int pageCount = -1;
+        boolean pageRead = false;
+        IOException pageFailure = null;
+        try {
+            reader.setInput(iis, false, true);
+            for (int i = 0; (pageCount < 0 || i < pageCount) && !pageResults.isCancelled(); i++) {
+                final int pageNumber = i + 1;
+                Page journaledPage = journaledPages.get(pageNumber);
+                if (journaledPage != null) {
+                    pageResults.add(journaledPage);
+                    metrics.pagesResumed(1);
+                    pageRead = true;
+                    continue;
+                }
+                AdmittedPage admittedPage;
+                try {
+                    admittedPage = readTiffPage(reader, i);
+                } catch (IOException ex) {
+                    pageFailure = new IOException("Page " + pageNumber + " of " + inputFileName + " could not be read.", ex);
+                    if (isTruncated(iis, reader, i, ex)) {
+                        throw pageFailure;
+                    }
+                    if (pageCount < 0) {
+                        pageCount = countTiffPages(reader);
+                    }
+                    if (pageCount <= i) {
+                        // The pages after this page can not be found, so it
+                        // is not known how much of the file is missing
+                        throw pageFailure;
+                    }
+                    pageResults.add(errorPage(pageNumber, inputFileName, "The page could not be read", ex));
+                    continue;
+                }
+                if (admittedPage == null) {
+                    break;
+                }
+                pageRead = true;
+                final BufferedImage bufferedImage = admittedPage.image;
+                // The page image and its memory are released as soon as the
+                // page is decoded
+                pageResults.add(pageDecodeExecutor.submit(new Callable<Page>() {
+
+                    @Override
+                    public Page call() {
+                        return scanPage(pageNumber, bufferedImage, inputFileName, documentProfile);
+                    }
+                }, admittedPage.grant));
             }
-            page.setBarcodes(barcodes);
-            pages.add(page);
+        } catch (InterruptedException ex) {
+            pageResults.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Reading of " + inputFileName + " was interrupted.");
+        } finally {
+            reader.dispose();
+        }
+        if (!pageRead && pageFailure != null) {
+            throw pageFailure;
         }
-        iis.close();
-        document.setPages(pages);
-        return document;
     }
 
-    private List<Barcode> scanImage(BufferedImage bufferedImage) {
-        List<Barcode> barcodes = new ArrayList<Barcode>();
-        LuminanceSource source = new BufferedImageLuminanceSource(bufferedImage);
-        BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
+    /**
+     * Reads a page of a tiff file once the memory budget admits it. The
+     * memory the page needs is estimated from its size before it is read.
+     *
+     * @return The page image and the memory granted to it, or null when the
+     * file has no more pages.
+     * @throws IOException When the page data is damaged.
+     */
+    private static AdmittedPage readTiffPage(ImageReader reader, int pageIndex) throws IOException, InterruptedException {
+        MemoryBudget.Grant grant = null;
+        try {
+            ImageReadParam readParam = ImagePreparation.readParam(reader, pageIndex, targetDpi, memoryBudget.getBudgetBytes());
+            grant = memoryBudget.acquire(memoryBudget.isEnabled() ? ImagePreparation.decodeBytesOf(reader, pageIndex, readParam) : 0);
+            long start = System.nanoTime();
+            BufferedImage bufferedImage = reader.read(pageIndex, readParam);
+            metrics.recordStage(ScannerMetrics.Stage.READ, System.nanoTime() - start);
+            AdmittedPage admittedPage = new AdmittedPage(bufferedImage, grant);
+            grant = null;
+            return admittedPage;
+        } catch (RuntimeException ex) {
+            // The reader signals that the previous page was the last page
+            // with a plain IndexOutOfBoundsException. Damaged page data causes
+            // any other runtime exception.
+            if (ex.getClass() == IndexOutOfBoundsException.class) {
+                return null;
+            }
+            throw new IOException(ex);
+        } finally {
+            if (grant != null) {
+                grant.release();
+            }
+        }
+    }
+
+    /**
+     * A page image and the memory granted to it.
+     */
+    private static final class AdmittedPage {
+
+        final BufferedImage image;
+        final MemoryBudget.Grant grant;
 
-        QRCodeReader qrCodeReader = new QRCodeReader();
-        HashMap<DecodeHintType, Object> hints = new HashMap<DecodeHintType, Object>();
-        hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
-        GenericMultipleBarcodeReader reader = new GenericMultipleBarcodeReader(qrCodeReader);
-        Result[] results;
+        AdmittedPage(BufferedImage image, MemoryBudget.Grant grant) {
+            this.image = image;
+            this.grant = grant;
+        }
+    }
+
+    /**
+     * Tells whether a page could not be read because its data runs past the
+     * end of the file, which is what a truncated file looks like. The reader
+     * runs into the end of a stream of unknown length, but only trips over
+     * its own sums when the length is known, so then the strips of the page
+     * are checked against the length.
+     */
+    private static boolean isTruncated(ImageInputStream iis, ImageReader reader, int pageIndex, IOException ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof EOFException) {
+                return true;
+            }
+        }
         try {
-            results = reader.decodeMultiple(bitmap, hints);
-            for (Result result : results) {
-                Barcode barcode = new Barcode();
-                barcode.setType(BarcodeType.QR);
-                barcode.setContent(result.toString());
-                barcodes.add(barcode);
+            long length = iis.length();
+            if (length < 0) {
+                return false;
             }
-        } catch (NotFoundException ex) {
-            // No barcodes found in image
+            // The strips of a page whose directory is cut short are not found
+            IIOMetadata metadata = reader.getImageMetadata(pageIndex);
+            long dataEnd = dataEndOf(metadata.getAsTree(metadata.getNativeMetadataFormatName()));
+            return dataEnd < 0 || dataEnd > length;
+        } catch (IOException readEx) {
+            LOGGER.log(Level.FINE, null, readEx);
+            return false;
+        } catch (RuntimeException readEx) {
+            LOGGER.log(Level.FINE, null, readEx);
+            return false;
         }
+    }
 
-        return barcodes;
+    /**
+     * Returns the offset of the end of the last strip of a page in the native
+     * tiff metadata, or -1 when the strips can not be found.
+     */
+    private static long dataEndOf(Node root) {
+        long[] offsets = null;
+        long[] byteCounts = null;
+        for (Node directory = root.getFirstChild(); directory != null; directory = directory.getNextSibling()) {
+            for (Node field = directory.getFirstChild(); field != null; field = field.getNextSibling()) {
+                if (!field.getNodeName().equals("TIFFField") || field.getFirstChild() == null) {
+                    continue;
+                }
+                String number = ((Element) field).getAttribute("number");
+                if (number.equals(TIFF_STRIP_OFFSETS)) {
+                    offsets = fieldValues(field.getFirstChild());
+                } else if (number.equals(TIFF_STRIP_BYTE_COUNTS)) {
+                    byteCounts = fieldValues(field.getFirstChild());
+                }
+            }
+        }
+        if (offsets == null || byteCounts == null || offsets.length != byteCounts.length) {
+            return -1;
+        }
+        long dataEnd = -1;
+        for (int i = 0; i < offsets.length; i++) {
+            dataEnd = Math.max(dataEnd, offsets[i] + byteCounts[i]);
+        }
+        return dataEnd;
     }
 
-    private void marshalDocument(Document document, String outputFolder, String inputFileName) {
-        File outputFile = new File(outputFolder + inputFileName + ".xml");
-        if (outputFile.exists() && !outputFile.isDirectory()) {
-            LOGGER.log(Level.INFO,
-                    "The output xml file {0} already exists. A Unique output file name will be created.",
-                    outputFile.getAbsolutePath());
-            boolean fileExists = true;
-            int i = 1;
-            while (fileExists) {
-                outputFile = new File(outputFolder + inputFileName + "_" + i + ".xml");
-                if (outputFile.exists()) {
-                    i++;
-                } else {
-                    fileExists = false;
+    private static long[] fieldValues(Node values) {
+        NodeList valueNodes = values.getChildNodes();
+        long[] fieldValues = new long[valueNodes.getLength()];
+        for (int i = 0; i < fieldValues.length; i++) {
+            fieldValues[i] = Long.parseLong(((Element) valueNodes.item(i)).getAttribute("value"));
+        }
+        return fieldValues;
+    }
+
+    /**
+     * Counts the pages of a tiff file by following the chain of its image
+     * directories.
+     *
+     * @return The number of pages, or -1 when the chain is broken.
+     */
+    private static int countTiffPages(ImageReader reader) {
+        try {
+            return reader.getNumImages(true);
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, null, ex);
+            return -1;
+        } catch (RuntimeException ex) {
+            LOGGER.log(Level.FINE, null, ex);
+            return -1;
+        }
+    }
+
+    /**
+     * Returns a page with an error instead of barcodes, for a page that could
+     * not be read or decoded.
+     */
+    private static Page errorPage(int pageNumber, String inputFileName, String error, Throwable cause) {
+        Throwable rootCause = cause;
+        while (rootCause.getCause() != null) {
+            rootCause = rootCause.getCause();
+        }
+        LOGGER.log(Level.WARNING, error + ": page " + pageNumber + " of the input file " + inputFileName + ".", cause);
+        metrics.pageFailed();
+        Page page = new Page();
+        page.setPageNumber(pageNumber);
+        page.setBarcodes(Collections.<Barcode>emptyList());
+        page.setError(error + ": " + rootCause);
+        return page;
+    }
+
+    /**
+     * Waits for the page decode results in page order and writes every page
+     * as soon as it is decoded.
+     *
+     * @param writtenPages The list to add the written pages to, or null.
+     * @param journal The work journal to append the pages to, or null.
+     * @return The time in nanoseconds spent writing, without the time spent
+     * waiting for the pages.
+     */
+    private long writePages(PageResults pageResults, DocumentWriter documentWriter, List<Page> writtenPages,
+            WorkJournal.Entry journal, boolean flushPages) throws IOException {
+        try {
+            long writeNanos = 0;
+            Future<Page> pageResult;
+            while ((pageResult = pageResults.next()) != null) {
+                Page page = pageResult.get();
+                if (writtenPages != null) {
+                    writtenPages.add(page);
+                }
+                if (journal != null) {
+                    journal.append(page);
                 }
+                long start = System.nanoTime();
+                documentWriter.writePage(page);
+                if (flushPages) {
+                    documentWriter.flush();
+                }
+                writeNanos += System.nanoTime() - start;
+            }
+            return writeNanos;
+        } catch (InterruptedException ex) {
+            pageResults.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Waiting for the decoded pages was interrupted.");
+        } catch (ExecutionException ex) {
+            pageResults.cancel();
+            throw new IOException("A page could not be decoded.", ex.getCause());
+        } catch (IOException ex) {
+            pageResults.cancel();
+            throw ex;
+        }
+    }
+
+    private Page scanPage(int pageNumber, BufferedImage bufferedImage, String inputFileName, DocumentProfile documentProfile) {
+        Page page = new Page();
+        page.setPageNumber(pageNumber);
+        if (blankPageFilter.isBlank(bufferedImage)) {
+            LOGGER.log(Level.FINE, "Page {0} of the input file {1} is blank and is not decoded.",
+                    new Object[]{pageNumber, inputFileName});
+            page.setBarcodes(new ArrayList<Barcode>());
+            page.setBlank(Boolean.TRUE);
+            metrics.pageProcessed(page.getBarcodes());
+            metrics.pageBlank();
+            return page;
+        }
+        List<Rectangle> regions = documentProfile.regionsOf(pageNumber, bufferedImage.getWidth(), bufferedImage.getHeight());
+        String pageKey = null;
+        List<Page> cachedPages = null;
+        if (resultCache.isEnabled()) {
+            pageKey = ResultCache.pageKey(bufferedImage, regions, cacheSettings);
+            cachedPages = resultCache.get(ResultCache.Kind.PAGE, pageKey);
+        }
+        List<Barcode> barcodes;
+        if (cachedPages != null) {
+            barcodes = cachedPages.get(0).getBarcodes();
+        } else {
+            long start = System.nanoTime();
+            try {
+                barcodes = scanImage(bufferedImage, regions);
+            } catch (RuntimeException ex) {
+                return errorPage(pageNumber, inputFileName, "The page could not be decoded", ex);
+            }
+            metrics.recordStage(ScannerMetrics.Stage.DECODE, System.nanoTime() - start);
+            if (pageKey != null) {
+                Page cachedPage = new Page();
+                cachedPage.setBarcodes(barcodes);
+                resultCache.put(ResultCache.Kind.PAGE, pageKey, Collections.singletonList(cachedPage));
             }
         }
+        metrics.pageProcessed(barcodes);
+        if (barcodes.isEmpty()) {
+            LOGGER.log(Level.WARNING,
+                    "No barcodes found on page {0} of the input file {1}.",
+                    new Object[]{pageNumber, inputFileName});
+        }
+        page.setBarcodes(barcodes);
+        return page;
+    }
+
+    private List<Barcode> scanImage(BufferedImage bufferedImage, List<Rectangle> regions) {
+        DecoderContext context = decoderContext.get();
         try {
-            JAXBContext jaxbContext = JAXBContextFactory.createContext(new Class[]{Document.class}, null);
-            Marshaller jaxbMarshaller = jaxbContext.createMarshaller();
-            // output pretty printed
-            jaxbMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-            jaxbMarshaller.marshal(document, outputFile);
-        } catch (JAXBException ex) {
-            LOGGER.log(Level.SEVERE, "The output xml file {0} could not be created.", outputFile.getAbsolutePath());
-            LOGGER.log(Level.SEVERE, null, ex);
+            return context.decode(bufferedImage, regions);
+        } finally {
+            // The memory of the page is handed back to the budget once it is
+            // decoded, so its buffers may not be kept
+            context.trimBuffers();
         }
     }
 
-    private static void moveInvalidInputFile(String inputFileName) {
-        String errorFolderPath = resourceBundle.getString("errorFolder");
+    /**
+     * Writes the output file of an input file, page by page as the pages are
+     * decoded. The output is written to a hidden temporary file that is
+     * renamed once it is complete, so a crash never leaves a partial output
+     * file behind. A partially written temporary file is removed again.
+     */
+    void marshalDocument(String inputFileName, PageResults pageResults, String outputFolder) throws IOException {
+        marshalDocument(inputFileName, pageResults, outputFolder, null, null);
+    }
+
+    /**
+     * Writes the output file of an input file, journals its pages and caches
+     * them under the key of the input file.
+     *
+     * @param fileKey The result cache key of the input file, or null to not
+     * cache the pages.
+     * @param journal The work journal of the input file, or null.
+     */
+    void marshalDocument(String inputFileName, PageResults pageResults, String outputFolder, String fileKey,
+            WorkJournal.Entry journal) throws IOException {
+        File tempFile = new File(outputFolder + "." + inputFileName + "." + outputFormat.getFileExtension() + ".tmp");
+        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(tempFile));
+        boolean written = false;
+        try {
+            writeDocument(inputFileName, pageResults, outputStream, fileKey, journal);
+            written = true;
+        } finally {
+            if (!written) {
+                outputStream.close();
+                LOGGER.log(Level.SEVERE, "The output file {0} could not be created.", tempFile.getAbsolutePath());
+                tempFile.delete();
+            }
+        }
+        moveToOutputFile(tempFile, outputFolder, inputFileName);
+        LOGGER.log(Level.FINE, "Pages resolved per decode tier: {0}", decodeStrategy.report());
+    }
+
+    /**
+     * Moves the written temporary file to a unique output file name. The
+     * output folder may be shared with other nodes, so the name is only taken
+     * when no file of that name exists at the time of the move.
+     */
+    private static File moveToOutputFile(File tempFile, String outputFolder, String inputFileName) throws IOException {
+        String extension = "." + outputFormat.getFileExtension();
+        File outputFile = UniqueFileMove.move(tempFile, new File(outputFolder), inputFileName, extension);
+        if (!outputFile.getName().equals(inputFileName + extension)) {
+            LOGGER.log(Level.INFO,
+                    "The output file {0} already exists. The output file {1} was created instead.",
+                    new Object[]{inputFileName + extension, outputFile.getAbsolutePath()});
+        }
+        return outputFile;
+    }
+
+    static void moveInvalidInputFile(File inputFile) {
+        String inputFileName = inputFile.getName();
+        String errorFolderPath = Settings.getString("errorFolder");
         File errorFolder = new File(errorFolderPath);
         if (!errorFolder.exists() || !errorFolder.isDirectory()) {
             LOGGER.log(Level.INFO, "Creating error folder: {0}", errorFolder);
             errorFolder.mkdir();
         }
-        File inputFile = new File(resourceBundle.getString("inputFolder") + inputFileName);
-        LOGGER.log(Level.INFO, "Moving input file {0} to the error folder.", resourceBundle.getString("inputFolder") + inputFileName);
-        File newFileName = new File(errorFolderPath + inputFileName);
-        if (newFileName.exists() && !newFileName.isDirectory()) {
-            boolean fileExists = true;
-            int i = 1;
-            while (fileExists) {
-                newFileName = new File(errorFolderPath + inputFileName + "_" + i);
-                if (newFileName.exists()) {
-                    i++;
-                } else {
-                    fileExists = false;
-                }
-            }
+        LOGGER.log(Level.INFO, "Moving input file {0} to the error folder.", inputFile.getPath());
+        try {
+            UniqueFileMove.move(inputFile, errorFolder, inputFileName, "");
+        } catch (IOException ex) {
+            LOGGER.log(Level.SEVERE, "The input file " + inputFile.getAbsolutePath() + " could not be moved to the error folder.", ex);
         }
-        inputFile.renameTo(newFileName);
     }
 }
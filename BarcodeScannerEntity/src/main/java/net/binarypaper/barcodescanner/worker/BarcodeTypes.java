@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import com.google.zxing.BarcodeFormat;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+
+/**
+ * Maps the barcode types of the output xml to the ZXing barcode formats.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+final class BarcodeTypes {
+
+    private static final Logger LOGGER = Logger.getLogger(BarcodeTypes.class.getName());
+    private static final Map<BarcodeType, BarcodeFormat> formats = new EnumMap<BarcodeType, BarcodeFormat>(BarcodeType.class);
+    private static final Map<BarcodeFormat, BarcodeType> types = new EnumMap<BarcodeFormat, BarcodeType>(BarcodeFormat.class);
+
+    static {
+        map(BarcodeType.QR, BarcodeFormat.QR_CODE);
+        map(BarcodeType.PDF417, BarcodeFormat.PDF_417);
+        map(BarcodeType.DATA_MATRIX, BarcodeFormat.DATA_MATRIX);
+        map(BarcodeType.AZTEC, BarcodeFormat.AZTEC);
+        map(BarcodeType.CODE_128, BarcodeFormat.CODE_128);
+        map(BarcodeType.CODE_39, BarcodeFormat.CODE_39);
+        map(BarcodeType.CODE_93, BarcodeFormat.CODE_93);
+        map(BarcodeType.CODABAR, BarcodeFormat.CODABAR);
+        map(BarcodeType.EAN_13, BarcodeFormat.EAN_13);
+        map(BarcodeType.EAN_8, BarcodeFormat.EAN_8);
+        map(BarcodeType.UPC_A, BarcodeFormat.UPC_A);
+        map(BarcodeType.UPC_E, BarcodeFormat.UPC_E);
+        map(BarcodeType.ITF, BarcodeFormat.ITF);
+    }
+
+    private BarcodeTypes() {
+    }
+
+    private static void map(BarcodeType type, BarcodeFormat format) {
+        formats.put(type, format);
+        types.put(format, type);
+    }
+
+    static BarcodeFormat toFormat(BarcodeType type) {
+        return formats.get(type);
+    }
+
+    static BarcodeType fromFormat(BarcodeFormat format) {
+        return types.get(format);
+    }
+
+    /**
+     * Parses a comma separated list of barcode type names. Unknown names are
+     * logged and skipped. QR is used when no valid type is listed.
+     */
+    static Set<BarcodeType> parse(String typeNames) {
+        Set<BarcodeType> barcodeTypes = EnumSet.noneOf(BarcodeType.class);
+        for (String typeName : typeNames.split(",")) {
+            typeName = typeName.trim();
+            if (typeName.isEmpty()) {
+                continue;
+            }
+            try {
+                barcodeTypes.add(BarcodeType.valueOf(typeName));
+            } catch (IllegalArgumentException ex) {
+                LOGGER.log(Level.WARNING, "The barcode type {0} is not supported and will be ignored.", typeName);
+            }
+        }
+        if (barcodeTypes.isEmpty()) {
+            barcodeTypes.add(BarcodeType.QR);
+        }
+        return barcodeTypes;
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects the output of many input files in one batch file, so that the
+ * importer that reads the output folder handles a few large files instead of
+ * a great many small ones.
+ * <p>
+ * How the documents of the input files are laid out in a batch file depends on
+ * the {@link OutputFormat}. A batch is committed when it holds the configured
+ * number of documents, or when its first document is the configured number of
+ * seconds old. The batch is written to a hidden temporary file and renamed to
+ * its final name once it is complete and synced to disk, so the importer never
+ * sees a partial batch. Batch names hold the time the batch was started and a
+ * random UUID, so they never collide and no names are probed.
+ * <p>
+ * Every document comes with a {@link Listener} that is told when its batch is
+ * committed, which is when its input file may be removed, or when the document
+ * could not be written. A batch file that fails is written again from the
+ * documents held in memory, so one failed document does not fail the
+ * documents that were added before it.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+class BatchWriter implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(BatchWriter.class.getName());
+
+    /**
+     * Is told what became of a document that was added to a batch.
+     */
+    interface Listener {
+
+        void committed();
+
+        void failed(IOException ex);
+    }
+
+    private final File outputFolder;
+    private final OutputFormat outputFormat;
+    private final int batchSize;
+    private final long batchMillis;
+    private final ScheduledExecutorService timer;
+    // The documents of the open batch, kept to write them to a new batch
+    // file when the batch file fails
+    private final List<byte[]> documents = new ArrayList<byte[]>();
+    private final List<Listener> listeners = new ArrayList<Listener>();
+    private String batchName;
+    private File tempFile;
+    private FileOutputStream fileOutputStream;
+    private OutputStream outputStream;
+    private boolean closed;
+
+    /**
+     * @param batchSize The number of documents in a full batch.
+     * @param batchSeconds The number of seconds after which a batch is
+     * committed, however many documents it holds.
+     */
+    BatchWriter(File outputFolder, OutputFormat outputFormat, int batchSize, int batchSeconds) {
+        this.outputFolder = outputFolder;
+        this.outputFormat = outputFormat;
+        this.batchSize = Math.max(batchSize, 1);
+        this.batchMillis = TimeUnit.SECONDS.toMillis(Math.max(batchSeconds, 1));
+        timer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("batch-timer"));
+    }
+
+    /**
+     * Adds the output of an input file to the open batch. When the document
+     * can not be written only this document fails, the documents before it
+     * are written to a new batch file.
+     *
+     * @param document The complete output of one input file, as written by
+     * the DocumentWriter of the output format.
+     */
+    void add(byte[] document, Listener listener) {
+        Outcome outcome = new Outcome();
+        synchronized (this) {
+            add(document, listener, outcome);
+        }
+        outcome.tell();
+    }
+
+    private void add(byte[] document, Listener listener, Outcome outcome) {
+        try {
+            write(document);
+        } catch (IOException ex) {
+            // A half written document spoils the batch file
+            LOGGER.log(Level.SEVERE, "The batch file " + batchName + " could not be written.", ex);
+            rewrite(outcome);
+            outcome.failed(Collections.singletonList(listener), ex);
+            return;
+        }
+        documents.add(document);
+        listeners.add(listener);
+        if (listeners.size() >= batchSize || closed) {
+            commit(outcome);
+        }
+    }
+
+    private void write(byte[] document) throws IOException {
+        if (outputStream == null) {
+            open();
+        }
+        outputFormat.writeBatchDocument(outputStream, document);
+    }
+
+    /**
+     * Opens the stream the batch file is written to.
+     */
+    OutputStream openStream(FileOutputStream fileOutputStream) {
+        return new BufferedOutputStream(fileOutputStream);
+    }
+
+    private void open() throws IOException {
+        final String name = "batch-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date())
+                + "-" + UUID.randomUUID() + "." + outputFormat.getBatchFileExtension();
+        File file = new File(outputFolder, "." + name + ".tmp");
+        fileOutputStream = new FileOutputStream(file);
+        tempFile = file;
+        batchName = name;
+        outputStream = openStream(fileOutputStream);
+        outputFormat.writeBatchStart(outputStream);
+        if (!closed) {
+            timer.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    commit(name);
+                }
+            }, batchMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Commits the batch with the given name if it is still open.
+     */
+    private void commit(String name) {
+        Outcome outcome = new Outcome();
+        synchronized (this) {
+            if (name.equals(batchName)) {
+                commit(outcome);
+            }
+        }
+        outcome.tell();
+    }
+
+    /**
+     * Commits the open batch. When the batch file fails, its documents are
+     * written to a new batch file once more before they fail.
+     */
+    private void commit(Outcome outcome) {
+        try {
+            finish();
+        } catch (IOException ex) {
+            LOGGER.log(Level.SEVERE, "The batch file " + batchName + " could not be written. Its documents are written to a new batch file.", ex);
+            rewrite(outcome);
+            if (listeners.isEmpty()) {
+                return;
+            }
+            try {
+                finish();
+            } catch (IOException retryEx) {
+                LOGGER.log(Level.SEVERE, "The batch file " + batchName + " could not be written.", retryEx);
+                outcome.failed(listeners, retryEx);
+                discard();
+                return;
+            }
+        }
+        LOGGER.log(Level.INFO, "Wrote {0} documents to the batch file {1}",
+                new Object[]{listeners.size(), new File(outputFolder, batchName).getAbsolutePath()});
+        outcome.committed(listeners);
+        reset();
+    }
+
+    /**
+     * Ends the batch file, syncs it to disk and gives it its final name.
+     */
+    private void finish() throws IOException {
+        outputFormat.writeBatchEnd(outputStream);
+        outputStream.flush();
+        fileOutputStream.getChannel().force(true);
+        outputStream.close();
+        Files.move(tempFile.toPath(), new File(outputFolder, batchName).toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Drops the batch file and writes the documents of the batch to a new
+     * batch file. The documents fail when that can not be written either.
+     */
+    private void rewrite(Outcome outcome) {
+        List<byte[]> batchDocuments = new ArrayList<byte[]>(documents);
+        List<Listener> batchListeners = new ArrayList<Listener>(listeners);
+        discard();
+        try {
+            for (byte[] document : batchDocuments) {
+                write(document);
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.SEVERE, "The batch file " + batchName + " could not be written.", ex);
+            outcome.failed(batchListeners, ex);
+            discard();
+            return;
+        }
+        documents.addAll(batchDocuments);
+        listeners.addAll(batchListeners);
+    }
+
+    /**
+     * Drops the batch file.
+     */
+    private void discard() {
+        if (fileOutputStream != null) {
+            try {
+                fileOutputStream.close();
+            } catch (IOException closeEx) {
+                LOGGER.log(Level.FINE, null, closeEx);
+            }
+        }
+        if (tempFile != null) {
+            tempFile.delete();
+        }
+        reset();
+    }
+
+    private void reset() {
+        documents.clear();
+        listeners.clear();
+        batchName = null;
+        tempFile = null;
+        fileOutputStream = null;
+        outputStream = null;
+    }
+
+    /**
+     * Commits the open batch. Documents that are added afterwards are
+     * committed right away.
+     */
+    @Override
+    public void close() {
+        Outcome outcome = new Outcome();
+        synchronized (this) {
+            closed = true;
+            timer.shutdownNow();
+            if (outputStream != null) {
+                commit(outcome);
+            }
+        }
+        outcome.tell();
+    }
+
+    /**
+     * The listeners to tell what became of their documents once the lock of
+     * the writer is released, so that the input file moves of a batch do not
+     * hold up the documents of other files.
+     */
+    private static final class Outcome {
+
+        private final List<Listener> committed = new ArrayList<Listener>();
+        private final List<Listener> failed = new ArrayList<Listener>();
+        private final List<IOException> failures = new ArrayList<IOException>();
+
+        void committed(List<Listener> listeners) {
+            committed.addAll(listeners);
+        }
+
+        void failed(List<Listener> listeners, IOException ex) {
+            for (Listener listener : listeners) {
+                failed.add(listener);
+                failures.add(ex);
+            }
+        }
+
+        void tell() {
+            for (Listener listener : committed) {
+                listener.committed();
+            }
+            for (int i = 0; i < failed.size(); i++) {
+                failed.get(i).failed(failures.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+import net.binarypaper.barcodescanner.entity.Document;
+import net.binarypaper.barcodescanner.entity.Page;
+
+/**
+ * Writes a Document in a compact length prefixed binary format, one page at a
+ * time. All numbers are big endian ints and all strings are an int byte length
+ * followed by the UTF-8 bytes of the string.
+ * <pre>
+ * document: "BCSD" version fileName page* 0
+ * page:     length pageNumber barcodeCount barcode* error blank
+ * barcode:  barcodeType content
+ * error:    -1 for a page without error, or the error string
+ * blank:    one byte, 1 for a blank page that was not decoded and 0 otherwise
+ * </pre>
+ * The length in front of a page is the number of bytes that follow it, so a
+ * reader can skip pages without parsing them. A length of 0 ends the
+ * document. Documents can be concatenated, as they are in a batch file.
+ * Version 1 documents, whose pages have no error, and version 2 documents,
+ * whose pages have no blank byte, are still read.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+class BinaryDocumentWriter implements DocumentWriter {
+
+    static final int MAGIC = 0x42435344;
+    static final int FORMAT_VERSION = 3;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final DataOutputStream output;
+    private final String fileName;
+    private boolean started;
+    private final ByteArrayOutputStream pageBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pageOutput = new DataOutputStream(pageBytes);
+
+    BinaryDocumentWriter(OutputStream outputStream, String fileName) {
+        this.output = new DataOutputStream(outputStream);
+        this.fileName = fileName;
+    }
+
+    /**
+     * Writes the start of the document with the first page, so that nothing
+     * is written before the first page is decoded.
+     */
+    private void start() throws IOException {
+        if (!started) {
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            writeString(output, fileName);
+            started = true;
+        }
+    }
+
+    @Override
+    public void writePage(Page page) throws IOException {
+        start();
+        pageBytes.reset();
+        writePageFields(pageOutput, page);
+        output.writeInt(pageBytes.size());
+        pageBytes.writeTo(output);
+    }
+
+    /**
+     * Writes the fields of a page in the current format version, without the
+     * length in front of them.
+     */
+    static void writePageFields(DataOutputStream output, Page page) throws IOException {
+        output.writeInt(page.getPageNumber());
+        List<Barcode> barcodes = page.getBarcodes();
+        output.writeInt(barcodes == null ? 0 : barcodes.size());
+        if (barcodes != null) {
+            for (Barcode barcode : barcodes) {
+                writeString(output, barcode.getType().name());
+                writeString(output, barcode.getContent());
+            }
+        }
+        if (page.getError() == null) {
+            output.writeInt(-1);
+        } else {
+            writeString(output, page.getError());
+        }
+        output.writeBoolean(Boolean.TRUE.equals(page.getBlank()));
+    }
+
+    @Override
+    public void flush() throws IOException {
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            start();
+            output.writeInt(0);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * Reads the next document from a stream of binary documents.
+     *
+     * @return The document, or null when the stream has ended.
+     */
+    static Document read(InputStream inputStream) throws IOException {
+        DataInputStream input = new DataInputStream(inputStream);
+        int magic;
+        try {
+            magic = input.readInt();
+        } catch (EOFException ex) {
+            return null;
+        }
+        if (magic != MAGIC) {
+            throw new IOException("The stream does not hold a binary document.");
+        }
+        int version = input.readInt();
+        if (version < 1 || version > FORMAT_VERSION) {
+            throw new IOException("The binary document format version " + version + " is not supported.");
+        }
+        Document document = new Document();
+        document.setFileName(readString(input));
+        List<Page> pages = new ArrayList<Page>();
+        while (input.readInt() > 0) {
+            pages.add(readPageFields(input, version));
+        }
+        document.setPages(pages);
+        return document;
+    }
+
+    /**
+     * Reads the fields of a page written in the given format version.
+     */
+    static Page readPageFields(DataInputStream input, int version) throws IOException {
+        Page page = new Page();
+        page.setPageNumber(input.readInt());
+        int barcodeCount = input.readInt();
+        if (barcodeCount < 0) {
+            throw new IOException("The binary document holds a negative barcode count.");
+        }
+        List<Barcode> barcodes = new ArrayList<Barcode>();
+        for (int i = 0; i < barcodeCount; i++) {
+            Barcode barcode = new Barcode();
+            String barcodeType = readString(input);
+            try {
+                barcode.setType(BarcodeType.valueOf(barcodeType));
+            } catch (IllegalArgumentException ex) {
+                throw new IOException("The barcode type " + barcodeType + " is not known.", ex);
+            }
+            barcode.setContent(readString(input));
+            barcodes.add(barcode);
+        }
+        page.setBarcodes(barcodes);
+        if (version >= 2) {
+            int errorLength = input.readInt();
+            if (errorLength >= 0) {
+                page.setError(readString(input, errorLength));
+            }
+        }
+        if (version >= 3 && input.readBoolean()) {
+            page.setBlank(Boolean.TRUE);
+        }
+        return page;
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        return readString(input, input.readInt());
+    }
+
+    private static String readString(DataInputStream input, int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("The binary document holds a string of negative length.");
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Finds blank pages and separator sheets before they are decoded, so that
+ * the decoders do not spend their slowest, most thorough attempts on pages
+ * that hold no barcodes at all.
+ * <p>
+ * A page is blank when the share of dark pixels, leaving out a narrow margin
+ * where scanners leave dark borders, is at most the configured ink percentage
+ * and no square tile of the page is densely inked. Dust and specks add a
+ * little ink spread over the page, while even the smallest barcode inks the
+ * tiles it covers densely, so a page with a barcode is never blank however
+ * little ink it holds in total.
+ * <p>
+ * Bilevel pages, as read from fax compressed tiff files, are counted a byte
+ * of eight pixels at a time. Other pages are sampled at every other pixel of
+ * every other row.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+final class BlankPageFilter {
+
+    // The side of the tiles that are checked for dense ink, in pixels
+    private static final int TILE_SIZE = 32;
+    // The share of ink that makes a tile dense
+    private static final double DENSE_TILE_RATIO = 0.125;
+    // The share of the width and height left out at each edge
+    private static final double MARGIN_RATIO = 0.02;
+    // The step between the sampled pixels and rows of pages that are not bilevel
+    private static final int SAMPLE_STEP = 2;
+    private static final int DARK_LUMINANCE = 128;
+
+    private final double maxInkPercent;
+
+    /**
+     * @param maxInkPercent The highest percentage of dark pixels on a blank
+     * page, or 0 to never find a page blank.
+     */
+    BlankPageFilter(double maxInkPercent) {
+        this.maxInkPercent = Math.max(maxInkPercent, 0);
+    }
+
+    /**
+     * Creates the filter from the blankPageInkPercent setting.
+     */
+    static BlankPageFilter load() {
+        return new BlankPageFilter(Settings.getDouble("blankPageInkPercent", 0));
+    }
+
+    boolean isEnabled() {
+        return maxInkPercent > 0;
+    }
+
+    double getMaxInkPercent() {
+        return maxInkPercent;
+    }
+
+    /**
+     * Returns whether a page image is blank. Counting stops as soon as the
+     * page can no longer be blank, so pages with print are rejected early.
+     */
+    boolean isBlank(BufferedImage image) {
+        if (!isEnabled()) {
+            return false;
+        }
+        int marginX = (int) (image.getWidth() * MARGIN_RATIO);
+        int marginY = (int) (image.getHeight() * MARGIN_RATIO);
+        int left = marginX;
+        int right = image.getWidth() - marginX;
+        int top = marginY;
+        int bottom = image.getHeight() - marginY;
+        if (isPackedBilevel(image)) {
+            // Only whole bytes are counted, so the padding bits at the end of
+            // a row are never mistaken for ink
+            left = (left + 7) / 8 * 8;
+            right = right / 8 * 8;
+            if (right <= left || bottom <= top) {
+                return false;
+            }
+            return countBilevel(image, new InkTally(left, top, right, bottom, 1, maxInkPercent));
+        }
+        if (right <= left || bottom <= top) {
+            return false;
+        }
+        return countSampled(image, new InkTally(left, top, right, bottom, SAMPLE_STEP, maxInkPercent));
+    }
+
+    /**
+     * Returns whether the pixels of an image are single bits packed into the
+     * bytes of its own data buffer, with a palette of two colors.
+     */
+    private static boolean isPackedBilevel(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        if (!(raster.getSampleModel() instanceof MultiPixelPackedSampleModel)
+                || !(raster.getDataBuffer() instanceof DataBufferByte)
+                || !(image.getColorModel() instanceof IndexColorModel)) {
+            return false;
+        }
+        MultiPixelPackedSampleModel sampleModel = (MultiPixelPackedSampleModel) raster.getSampleModel();
+        return sampleModel.getPixelBitStride() == 1 && sampleModel.getDataBitOffset() == 0
+                && ((IndexColorModel) image.getColorModel()).getMapSize() == 2
+                && raster.getParent() == null
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0;
+    }
+
+    private static boolean countBilevel(BufferedImage image, InkTally tally) {
+        WritableRaster raster = image.getRaster();
+        MultiPixelPackedSampleModel sampleModel = (MultiPixelPackedSampleModel) raster.getSampleModel();
+        DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] data = dataBuffer.getData();
+        IndexColorModel colorModel = (IndexColorModel) image.getColorModel();
+        // The palette decides whether a set bit is black or white
+        int inkMask = luminanceOf(colorModel.getRGB(1)) < luminanceOf(colorModel.getRGB(0)) ? 0 : 0xFF;
+        for (int y = tally.top; y < tally.bottom; y++) {
+            if (!tally.startRow(y)) {
+                return false;
+            }
+            int offset = dataBuffer.getOffset() + sampleModel.getOffset(tally.left, y);
+            for (int x = tally.left; x < tally.right; x += 8) {
+                int ink = Integer.bitCount((data[offset++] ^ inkMask) & 0xFF);
+                if (ink > 0) {
+                    tally.add(x, ink);
+                }
+            }
+        }
+        return tally.bandIsClear();
+    }
+
+    private static boolean countSampled(BufferedImage image, InkTally tally) {
+        int width = tally.right - tally.left;
+        int[] row = new int[width];
+        for (int y = tally.top; y < tally.bottom; y += SAMPLE_STEP) {
+            if (!tally.startRow(y)) {
+                return false;
+            }
+            image.getRGB(tally.left, y, width, 1, row, 0, width);
+            for (int i = 0; i < width; i += SAMPLE_STEP) {
+                if (luminanceOf(row[i]) < DARK_LUMINANCE) {
+                    tally.add(tally.left + i, 1);
+                }
+            }
+        }
+        return tally.bandIsClear();
+    }
+
+    private static int luminanceOf(int rgb) {
+        return (((rgb >> 16) & 0xFF) * 299 + ((rgb >> 8) & 0xFF) * 587 + (rgb & 0xFF) * 114) / 1000;
+    }
+
+    /**
+     * Counts the dark pixels of a page in bands of tiles, and tells after
+     * every band whether the page can still be blank.
+     */
+    private static final class InkTally {
+
+        final int left;
+        final int top;
+        final int right;
+        final int bottom;
+        private final long maxInk;
+        private final int denseTileInk;
+        private final int[] tileInk;
+        private long ink;
+        private int band;
+
+        /**
+         * @param step The step between the counted pixels and rows.
+         */
+        InkTally(int left, int top, int right, int bottom, int step, double maxInkPercent) {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+            long samples = (long) ((right - left + step - 1) / step) * ((bottom - top + step - 1) / step);
+            maxInk = (long) (samples * maxInkPercent / 100);
+            // Measured against a whole tile, so that a few specks in a narrow
+            // tile at the edge do not make it dense
+            denseTileInk = (int) Math.ceil(TILE_SIZE * TILE_SIZE / (step * step) * DENSE_TILE_RATIO);
+            tileInk = new int[(right - left + TILE_SIZE - 1) / TILE_SIZE];
+        }
+
+        /**
+         * Starts counting a row, and checks the band of tiles above it when
+         * the row starts a new band.
+         *
+         * @return false when the page is not blank.
+         */
+        boolean startRow(int y) {
+            int rowBand = (y - top) / TILE_SIZE;
+            if (rowBand != band) {
+                if (!bandIsClear()) {
+                    return false;
+                }
+                band = rowBand;
+            }
+            return true;
+        }
+
+        void add(int x, int pixels) {
+            tileInk[(x - left) / TILE_SIZE] += pixels;
+            ink += pixels;
+        }
+
+        /**
+         * Returns whether the page holds no more ink than a blank page and the
+         * current band has no dense tile, and clears the band.
+         */
+        boolean bandIsClear() {
+            if (ink > maxInk) {
+                return false;
+            }
+            for (int i = 0; i < tileInk.length; i++) {
+                if (tileInk[i] >= denseTileInk) {
+                    return false;
+                }
+            }
+            Arrays.fill(tileInk, 0);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The decode tiers a page goes through and the number of pages every tier
+ * resolved. A DecodeStrategy is shared by all page decode worker threads.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+final class DecodeStrategy {
+
+    private static final Logger LOGGER = Logger.getLogger(DecodeStrategy.class.getName());
+
+    private final List<DecodeTier> tiers;
+    private final int downscale;
+    private final AtomicLongArray resolvedPages = new AtomicLongArray(DecodeTier.values().length);
+    private final AtomicLong unresolvedPages = new AtomicLong();
+
+    /**
+     * Creates a strategy that goes through the tiers in the given order. The
+     * downscaled tiers decode a page reduced by the downscale factor in both
+     * directions. A tier that would repeat the work of an earlier tier is
+     * left out.
+     */
+    DecodeStrategy(List<DecodeTier> tiers, int downscale) {
+        this.downscale = Math.max(1, downscale);
+        List<DecodeTier> distinctTiers = new ArrayList<DecodeTier>();
+        for (DecodeTier tier : tiers) {
+            if (!repeatsEarlierTier(distinctTiers, tier)) {
+                distinctTiers.add(tier);
+            }
+        }
+        this.tiers = Collections.unmodifiableList(distinctTiers);
+    }
+
+    private boolean repeatsEarlierTier(List<DecodeTier> earlierTiers, DecodeTier tier) {
+        for (DecodeTier earlierTier : earlierTiers) {
+            if (earlierTier.isTryHarder() == tier.isTryHarder()
+                    && earlierTier.isRotated() == tier.isRotated()
+                    && scaleOf(earlierTier) == scaleOf(tier)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Loads the strategy of the decodeTiers and fastPassDownscale settings.
+     */
+    static DecodeStrategy load() {
+        return new DecodeStrategy(parseTiers(Settings.getString("decodeTiers", "FAST,TRY_HARDER,FULL_RESOLUTION")),
+                Settings.getInt("fastPassDownscale", 1));
+    }
+
+    /**
+     * Parses a comma separated list of decode tier names. Unknown names are
+     * logged and skipped. TRY_HARDER is used when no valid tier is listed.
+     */
+    static List<DecodeTier> parseTiers(String tierNames) {
+        List<DecodeTier> tiers = new ArrayList<DecodeTier>();
+        for (String tierName : tierNames.split(",")) {
+            tierName = tierName.trim();
+            if (tierName.isEmpty()) {
+                continue;
+            }
+            try {
+                tiers.add(DecodeTier.valueOf(tierName));
+            } catch (IllegalArgumentException ex) {
+                LOGGER.log(Level.WARNING, "The decode tier {0} is not supported and will be ignored.", tierName);
+            }
+        }
+        if (tiers.isEmpty()) {
+            tiers.add(DecodeTier.TRY_HARDER);
+        }
+        return tiers;
+    }
+
+    List<DecodeTier> getTiers() {
+        return tiers;
+    }
+
+    /**
+     * Returns the factor by which the page is reduced for a tier.
+     */
+    int scaleOf(DecodeTier tier) {
+        return tier.isDownscaled() ? downscale : 1;
+    }
+
+    void resolved(DecodeTier tier) {
+        resolvedPages.incrementAndGet(tier.ordinal());
+    }
+
+    void unresolved() {
+        unresolvedPages.incrementAndGet();
+    }
+
+    long getResolvedPages(DecodeTier tier) {
+        return resolvedPages.get(tier.ordinal());
+    }
+
+    long getUnresolvedPages() {
+        return unresolvedPages.get();
+    }
+
+    /**
+     * Returns the number of pages every tier resolved, for example
+     * FAST=120, TRY_HARDER=4, none=1.
+     */
+    String report() {
+        StringBuilder report = new StringBuilder();
+        for (DecodeTier tier : tiers) {
+            report.append(tier).append('=').append(getResolvedPages(tier)).append(", ");
+        }
+        return report.append("none=").append(getUnresolvedPages()).toString();
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+/**
+ * The decode passes of a page, from the cheapest to the most expensive. A page
+ * only escalates to the next tier when the previous one found no barcode.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+enum DecodeTier {
+
+    /**
+     * Decodes the downscaled page without TRY_HARDER. Clean scans decode here.
+     */
+    FAST(false, true, false),
+    /**
+     * Decodes the downscaled page with TRY_HARDER.
+     */
+    TRY_HARDER(true, true, false),
+    /**
+     * Decodes the page at full resolution with TRY_HARDER.
+     */
+    FULL_RESOLUTION(true, false, false),
+    /**
+     * Decodes the page at full resolution, turned a quarter, with TRY_HARDER.
+     * This finds linear barcodes that are printed vertically.
+     */
+    ROTATED(true, false, true);
+
+    private final boolean tryHarder;
+    private final boolean downscaled;
+    private final boolean rotated;
+
+    private DecodeTier(boolean tryHarder, boolean downscaled, boolean rotated) {
+        this.tryHarder = tryHarder;
+        this.downscaled = downscaled;
+        this.rotated = rotated;
+    }
+
+    boolean isTryHarder() {
+        return tryHarder;
+    }
+
+    boolean isDownscaled() {
+        return downscaled;
+    }
+
+    boolean isRotated() {
+        return rotated;
+    }
+}
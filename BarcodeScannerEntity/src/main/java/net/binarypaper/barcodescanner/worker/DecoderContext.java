@@ -0,0 +1,418 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Reader;
+import com.google.zxing.Result;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.multi.GenericMultipleBarcodeReader;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+
+/**
+ * The barcode decoder state of one page decode worker thread.
+ * <p>
+ * The readers, the decode hints and the luminance buffers are kept from one
+ * page to the next, so scanning a page no longer allocates a luminance copy of
+ * the whole image. The luminance buffers grow to the size of the largest page
+ * the thread has seen, and are dropped once a page is done when they hold more
+ * than the memory the thread may keep between pages.
+ * <p>
+ * A page goes through the tiers of the decode strategy until one of them
+ * finds a barcode, so that clean pages are not searched with TRY_HARDER.
+ * <p>
+ * A DecoderContext is not thread safe and must only be used by the thread
+ * that created it.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+class DecoderContext {
+
+    private final DecodeStrategy decodeStrategy;
+    private final long retainedBytes;
+    private final MultiFormatReader fastReader = new MultiFormatReader();
+    private final MultiFormatReader tryHarderReader = new MultiFormatReader();
+    private final GenericMultipleBarcodeReader fastMultipleReader = new GenericMultipleBarcodeReader(new ReuseHintsReader(fastReader));
+    private final GenericMultipleBarcodeReader tryHarderMultipleReader = new GenericMultipleBarcodeReader(new ReuseHintsReader(tryHarderReader));
+    private byte[] luminances = new byte[0];
+    private byte[] rotatedLuminances = new byte[0];
+    private int[] rgbRow = new int[0];
+    private int[] luminanceRow = new int[0];
+    private int[] luminanceSums = new int[0];
+
+    /**
+     * Creates a decoder that only looks for the given barcode types. Every
+     * extra type adds decode time to every page.
+     */
+    DecoderContext(Set<BarcodeType> barcodeTypes, DecodeStrategy decodeStrategy) {
+        this(barcodeTypes, decodeStrategy, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param retainedBytes The memory of the luminance buffers that may be
+     * kept from one page to the next.
+     */
+    DecoderContext(Set<BarcodeType> barcodeTypes, DecodeStrategy decodeStrategy, long retainedBytes) {
+        this.decodeStrategy = decodeStrategy;
+        this.retainedBytes = retainedBytes;
+        Map<DecodeHintType, Object> hints = new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+        List<BarcodeFormat> possibleFormats = new ArrayList<BarcodeFormat>();
+        for (BarcodeType barcodeType : barcodeTypes) {
+            possibleFormats.add(BarcodeTypes.toFormat(barcodeType));
+        }
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, possibleFormats);
+        fastReader.setHints(hints);
+        hints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+        tryHarderReader.setHints(hints);
+    }
+
+    /**
+     * Decodes the regions of interest of an image, and the whole image when
+     * no barcode is found in any region, one decode tier after the other. A
+     * barcode that is found in more than one overlapping region is only
+     * returned once.
+     */
+    List<Barcode> decode(BufferedImage bufferedImage, List<Rectangle> regions) {
+        List<BufferedImage> regionImages = new ArrayList<BufferedImage>();
+        for (Rectangle region : regions) {
+            // The subimage shares the raster of the page, nothing is copied
+            regionImages.add(bufferedImage.getSubimage(region.x, region.y, region.width, region.height));
+        }
+        for (DecodeTier tier : decodeStrategy.getTiers()) {
+            List<Barcode> barcodes = new ArrayList<Barcode>();
+            for (BufferedImage regionImage : regionImages) {
+                for (Barcode barcode : decode(regionImage, tier)) {
+                    if (!contains(barcodes, barcode)) {
+                        barcodes.add(barcode);
+                    }
+                }
+            }
+            if (barcodes.isEmpty()) {
+                barcodes = decode(bufferedImage, tier);
+            }
+            if (!barcodes.isEmpty()) {
+                decodeStrategy.resolved(tier);
+                return barcodes;
+            }
+        }
+        decodeStrategy.unresolved();
+        return new ArrayList<Barcode>();
+    }
+
+    List<Barcode> decode(BufferedImage bufferedImage) {
+        return decode(bufferedImage, Collections.<Rectangle>emptyList());
+    }
+
+    /**
+     * Drops the luminance buffers when they hold more than the memory that
+     * may be kept from one page to the next. Called once a page is done.
+     */
+    void trimBuffers() {
+        if ((long) luminances.length + rotatedLuminances.length > retainedBytes) {
+            luminances = new byte[0];
+            rotatedLuminances = new byte[0];
+        }
+    }
+
+    private static boolean contains(List<Barcode> barcodes, Barcode barcode) {
+        for (Barcode found : barcodes) {
+            if (found.getType() == barcode.getType() && found.getContent().equals(barcode.getContent())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<Barcode> decode(BufferedImage bufferedImage, DecodeTier tier) {
+        List<Barcode> barcodes = new ArrayList<Barcode>();
+        int scale = decodeStrategy.scaleOf(tier);
+        if (bufferedImage.getWidth() < scale || bufferedImage.getHeight() < scale) {
+            return barcodes;
+        }
+        LuminanceSource source = loadLuminances(bufferedImage, scale);
+        if (tier.isRotated()) {
+            source = rotateCounterClockwise(source);
+        } else if (tier.isTryHarder()) {
+            source = new RotatableLuminanceSource(source);
+        }
+        BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
+        GenericMultipleBarcodeReader reader = tier.isTryHarder() ? tryHarderMultipleReader : fastMultipleReader;
+        Result[] results;
+        try {
+            results = reader.decodeMultiple(bitmap);
+            for (Result result : results) {
+                Barcode barcode = new Barcode();
+                barcode.setType(BarcodeTypes.fromFormat(result.getBarcodeFormat()));
+                barcode.setContent(result.toString());
+                barcodes.add(barcode);
+            }
+        } catch (NotFoundException ex) {
+            // No barcodes found in image
+        }
+        return barcodes;
+    }
+
+    /**
+     * Converts the image to luminance values in the reused buffer, reduced by
+     * the scale factor in both directions. Every luminance value is the
+     * average of its block of scale by scale pixels. The conversion is the
+     * same as the one of ZXing's BufferedImageLuminanceSource.
+     * <p>
+     * Bilevel, palette and grayscale images are read straight from their
+     * data buffer. Other images are converted through getRGB.
+     */
+    LuminanceSource loadLuminances(BufferedImage bufferedImage, int scale) {
+        int width = bufferedImage.getWidth() / scale;
+        int height = bufferedImage.getHeight() / scale;
+        int size = width * height;
+        if (luminances.length < size) {
+            luminances = new byte[size];
+        }
+        if (luminanceRow.length < bufferedImage.getWidth()) {
+            luminanceRow = new int[bufferedImage.getWidth()];
+            rgbRow = new int[bufferedImage.getWidth()];
+        }
+        if (luminanceSums.length < width) {
+            luminanceSums = new int[width];
+        }
+        int[] paletteLuminances = paletteLuminances(bufferedImage);
+        boolean byteGray = bufferedImage.getType() == BufferedImage.TYPE_BYTE_GRAY
+                && bufferedImage.getRaster().getDataBuffer() instanceof DataBufferByte;
+        int sourceWidth = width * scale;
+        int blockSize = scale * scale;
+        for (int y = 0; y < height; y++) {
+            Arrays.fill(luminanceSums, 0, width, 0);
+            for (int blockY = 0; blockY < scale; blockY++) {
+                int sourceY = y * scale + blockY;
+                if (paletteLuminances != null) {
+                    readPackedRow(bufferedImage.getRaster(), sourceY, sourceWidth, paletteLuminances);
+                } else if (byteGray) {
+                    readGrayRow(bufferedImage.getRaster(), sourceY, sourceWidth);
+                } else {
+                    readRgbRow(bufferedImage, sourceY, sourceWidth);
+                }
+                for (int x = 0; x < sourceWidth; x++) {
+                    luminanceSums[x / scale] += luminanceRow[x];
+                }
+            }
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                luminances[offset + x] = (byte) (luminanceSums[x] / blockSize);
+            }
+        }
+        // The Y plane of a YUV source is a plain luminance array, which lets
+        // ZXing use the buffer without copying it.
+        return new PlanarYUVLuminanceSource(luminances, width, height, 0, 0, width, height, false);
+    }
+
+    private static int luminance(int pixel) {
+        // Fully transparent pixels are treated as white
+        if ((pixel & 0xFF000000) == 0) {
+            pixel = 0xFFFFFFFF;
+        }
+        return (306 * ((pixel >> 16) & 0xFF)
+                + 601 * ((pixel >> 8) & 0xFF)
+                + 117 * (pixel & 0xFF)
+                + 0x200) >> 10;
+    }
+
+    /**
+     * Returns the luminance of every palette entry of an image with one, two
+     * or four bits per pixel, such as a CCITT fax page, or null when the image
+     * is stored differently.
+     */
+    private static int[] paletteLuminances(BufferedImage bufferedImage) {
+        WritableRaster raster = bufferedImage.getRaster();
+        if (!(raster.getSampleModel() instanceof MultiPixelPackedSampleModel)
+                || !(raster.getDataBuffer() instanceof DataBufferByte)
+                || !(bufferedImage.getColorModel() instanceof IndexColorModel)) {
+            return null;
+        }
+        int bits = ((MultiPixelPackedSampleModel) raster.getSampleModel()).getPixelBitStride();
+        if (bits > 4) {
+            return null;
+        }
+        IndexColorModel colorModel = (IndexColorModel) bufferedImage.getColorModel();
+        int[] paletteLuminances = new int[1 << bits];
+        for (int i = 0; i < paletteLuminances.length; i++) {
+            paletteLuminances[i] = i < colorModel.getMapSize() ? luminance(colorModel.getRGB(i)) : 0;
+        }
+        return paletteLuminances;
+    }
+
+    private void readPackedRow(WritableRaster raster, int y, int width, int[] paletteLuminances) {
+        MultiPixelPackedSampleModel sampleModel = (MultiPixelPackedSampleModel) raster.getSampleModel();
+        DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] data = dataBuffer.getData();
+        int bits = sampleModel.getPixelBitStride();
+        int mask = (1 << bits) - 1;
+        // The raster of a subimage shares the data of the page at an offset
+        int sampleX = -raster.getSampleModelTranslateX();
+        int sampleY = y - raster.getSampleModelTranslateY();
+        int offset = dataBuffer.getOffset() + sampleModel.getOffset(sampleX, sampleY);
+        int bitOffset = sampleModel.getBitOffset(sampleX);
+        for (int x = 0; x < width; x++) {
+            luminanceRow[x] = paletteLuminances[(data[offset] >> (8 - bitOffset - bits)) & mask];
+            bitOffset += bits;
+            if (bitOffset == 8) {
+                bitOffset = 0;
+                offset++;
+            }
+        }
+    }
+
+    /**
+     * Reads the gray values as they are, like BufferedImageLuminanceSource
+     * does for grayscale images.
+     */
+    private void readGrayRow(WritableRaster raster, int y, int width) {
+        ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+        DataBufferByte dataBuffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] data = dataBuffer.getData();
+        int pixelStride = sampleModel.getPixelStride();
+        int offset = dataBuffer.getOffset()
+                + sampleModel.getOffset(-raster.getSampleModelTranslateX(), y - raster.getSampleModelTranslateY());
+        for (int x = 0; x < width; x++) {
+            luminanceRow[x] = data[offset + x * pixelStride] & 0xFF;
+        }
+    }
+
+    private void readRgbRow(BufferedImage bufferedImage, int y, int width) {
+        bufferedImage.getRGB(0, y, width, 1, rgbRow, 0, width);
+        for (int x = 0; x < width; x++) {
+            luminanceRow[x] = luminance(rgbRow[x]);
+        }
+    }
+
+    /**
+     * Turns a source of the loaded luminances a quarter counter clockwise into
+     * the second reused buffer. The YUV source does not support rotation
+     * itself.
+     */
+    private LuminanceSource rotateCounterClockwise(LuminanceSource source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        byte[] matrix = source.getMatrix();
+        int size = width * height;
+        if (rotatedLuminances.length < size) {
+            rotatedLuminances = new byte[size];
+        }
+        for (int y = 0; y < height; y++) {
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                rotatedLuminances[(width - 1 - x) * height + y] = matrix[offset + x];
+            }
+        }
+        return new PlanarYUVLuminanceSource(rotatedLuminances, height, width, 0, 0, height, width, false);
+    }
+
+    /**
+     * A source of the loaded luminances that can be turned a quarter, like
+     * BufferedImageLuminanceSource. The linear barcode readers only try a page
+     * vertically with TRY_HARDER when its source supports rotation. The
+     * regions GenericMultipleBarcodeReader crops out can be turned as well.
+     */
+    private class RotatableLuminanceSource extends LuminanceSource {
+
+        private final LuminanceSource source;
+
+        RotatableLuminanceSource(LuminanceSource source) {
+            super(source.getWidth(), source.getHeight());
+            this.source = source;
+        }
+
+        @Override
+        public byte[] getRow(int y, byte[] row) {
+            return source.getRow(y, row);
+        }
+
+        @Override
+        public byte[] getMatrix() {
+            return source.getMatrix();
+        }
+
+        @Override
+        public boolean isCropSupported() {
+            return true;
+        }
+
+        @Override
+        public LuminanceSource crop(int left, int top, int width, int height) {
+            return new RotatableLuminanceSource(source.crop(left, top, width, height));
+        }
+
+        @Override
+        public boolean isRotateSupported() {
+            return true;
+        }
+
+        @Override
+        public LuminanceSource rotateCounterClockwise() {
+            return DecoderContext.this.rotateCounterClockwise(source);
+        }
+    }
+
+    /**
+     * MultiFormatReader.decode(image, hints) creates all its format readers
+     * again on every call. GenericMultipleBarcodeReader calls it for every
+     * region it searches, so this reader decodes with the hints that were set
+     * once on the MultiFormatReader instead.
+     */
+    private static class ReuseHintsReader implements Reader {
+
+        private final MultiFormatReader multiFormatReader;
+
+        ReuseHintsReader(MultiFormatReader multiFormatReader) {
+            this.multiFormatReader = multiFormatReader;
+        }
+
+        @Override
+        public Result decode(BinaryBitmap image) throws NotFoundException {
+            return multiFormatReader.decodeWithState(image);
+        }
+
+        @Override
+        public Result decode(BinaryBitmap image, Map<DecodeHintType, ?> hints) throws NotFoundException {
+            return multiFormatReader.decodeWithState(image);
+        }
+
+        @Override
+        public void reset() {
+            multiFormatReader.reset();
+        }
+    }
+}
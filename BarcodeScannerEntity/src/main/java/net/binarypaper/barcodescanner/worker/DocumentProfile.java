@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The regions of interest of a kind of input document. A region is a
+ * rectangle given as fractions of the page size, so that it fits pages of any
+ * resolution. Only the regions of a page are searched for barcodes, and the
+ * whole page is searched when none is found there.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+final class DocumentProfile {
+
+    private static final Logger LOGGER = Logger.getLogger(DocumentProfile.class.getName());
+    // Searches the whole of every page
+    static final DocumentProfile WHOLE_PAGE = new DocumentProfile("wholePage", Pattern.compile(".*"), Collections.<Region>emptyList());
+
+    private final String name;
+    private final Pattern fileNamePattern;
+    private final List<Region> regions;
+
+    DocumentProfile(String name, Pattern fileNamePattern, List<Region> regions) {
+        this.name = name;
+        this.fileNamePattern = fileNamePattern;
+        this.regions = regions;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Loads the document profiles listed in the documentProfiles setting.
+     * Profiles without a valid file name pattern are logged and skipped.
+     */
+    static List<DocumentProfile> load() {
+        List<DocumentProfile> profiles = new ArrayList<DocumentProfile>();
+        for (String name : Settings.getString("documentProfiles", "").split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            String pattern = Settings.getString("documentProfile." + name + ".fileNamePattern", ".*");
+            try {
+                profiles.add(new DocumentProfile(name, Pattern.compile(pattern),
+                        parseRegions(Settings.getString("documentProfile." + name + ".regions", ""))));
+            } catch (PatternSyntaxException ex) {
+                LOGGER.log(Level.WARNING, "The file name pattern {0} of the document profile {1} is not valid. The profile will be ignored.",
+                        new Object[]{pattern, name});
+            }
+        }
+        return profiles;
+    }
+
+    /**
+     * Returns the first profile whose file name pattern matches the name of
+     * the input file, or WHOLE_PAGE when none matches.
+     */
+    static DocumentProfile forFile(List<DocumentProfile> profiles, String inputFileName) {
+        String fileName = new File(inputFileName).getName();
+        for (DocumentProfile profile : profiles) {
+            if (profile.fileNamePattern.matcher(fileName).matches()) {
+                return profile;
+            }
+        }
+        return WHOLE_PAGE;
+    }
+
+    /**
+     * Parses a semicolon separated list of regions in the form
+     * page:left,top,width,height, where the page is a page number or * for
+     * every page. Invalid regions are logged and skipped.
+     */
+    static List<Region> parseRegions(String regionList) {
+        List<Region> regions = new ArrayList<Region>();
+        for (String region : regionList.split(";")) {
+            region = region.trim();
+            if (region.isEmpty()) {
+                continue;
+            }
+            try {
+                regions.add(Region.parse(region));
+            } catch (IllegalArgumentException ex) {
+                LOGGER.log(Level.WARNING, "The region {0} is not valid and will be ignored. {1}",
+                        new Object[]{region, ex.getMessage()});
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * Returns the pixel rectangles of the regions of a page, or an empty list
+     * when the whole page must be searched.
+     */
+    List<Rectangle> regionsOf(int pageNumber, int width, int height) {
+        List<Rectangle> rectangles = new ArrayList<Rectangle>();
+        for (Region region : regions) {
+            if (region.appliesTo(pageNumber)) {
+                Rectangle rectangle = region.toRectangle(width, height);
+                if (!rectangle.isEmpty()) {
+                    rectangles.add(rectangle);
+                }
+            }
+        }
+        return rectangles;
+    }
+
+    static final class Region {
+
+        // Zero for every page
+        private final int pageNumber;
+        private final double left;
+        private final double top;
+        private final double width;
+        private final double height;
+
+        Region(int pageNumber, double left, double top, double width, double height) {
+            this.pageNumber = pageNumber;
+            this.left = left;
+            this.top = top;
+            this.width = width;
+            this.height = height;
+        }
+
+        static Region parse(String region) {
+            int colon = region.indexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("The page number is missing.");
+            }
+            String page = region.substring(0, colon).trim();
+            int pageNumber = page.equals("*") ? 0 : Integer.parseInt(page);
+            if (pageNumber < 0) {
+                throw new IllegalArgumentException("The page number is negative.");
+            }
+            String[] bounds = region.substring(colon + 1).split(",");
+            if (bounds.length != 4) {
+                throw new IllegalArgumentException("The region must have a left, top, width and height.");
+            }
+            double[] fractions = new double[4];
+            for (int i = 0; i < fractions.length; i++) {
+                fractions[i] = Double.parseDouble(bounds[i].trim());
+                // NaN fails every comparison, so it is checked on its own
+                if (Double.isNaN(fractions[i]) || fractions[i] < 0 || fractions[i] > 1) {
+                    throw new IllegalArgumentException("The bounds must be fractions of the page size between 0 and 1.");
+                }
+            }
+            return new Region(pageNumber, fractions[0], fractions[1], fractions[2], fractions[3]);
+        }
+
+        boolean appliesTo(int pageNumber) {
+            return this.pageNumber == 0 || this.pageNumber == pageNumber;
+        }
+
+        /**
+         * Returns the pixel rectangle of the region, clipped to the page.
+         */
+        Rectangle toRectangle(int pageWidth, int pageHeight) {
+            int x = (int) Math.floor(left * pageWidth);
+            int y = (int) Math.floor(top * pageHeight);
+            int right = (int) Math.ceil((left + width) * pageWidth);
+            int bottom = (int) Math.ceil((top + height) * pageHeight);
+            return new Rectangle(x, y, Math.min(right, pageWidth) - x, Math.min(bottom, pageHeight) - y);
+        }
+    }
+}
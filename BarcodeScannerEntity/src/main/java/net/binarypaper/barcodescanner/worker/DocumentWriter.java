@@ -0,0 +1,37 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import net.binarypaper.barcodescanner.entity.Page;
+
+/**
+ * Writes the output of an input file one page at a time, so that a page can be
+ * written as soon as it is decoded. Flushing the writer sends the pages written
+ * so far to the underlying stream. Closing the writer writes the end of the
+ * document and closes the underlying stream.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+interface DocumentWriter extends Closeable, Flushable {
+
+    /**
+     * Writes the next page. Pages must be written in page order.
+     */
+    void writePage(Page page) throws IOException;
+}
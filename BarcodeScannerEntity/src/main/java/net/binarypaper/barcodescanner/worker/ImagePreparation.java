@@ -0,0 +1,157 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Prepares the reading of a page image. Pages scanned at a higher resolution
+ * than the barcodes need are subsampled by the image reader, so that the full
+ * resolution image is never created. Pages that would need more memory to
+ * decode than a page may use are subsampled as well.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+final class ImagePreparation {
+
+    private static final Logger LOGGER = Logger.getLogger(ImagePreparation.class.getName());
+    private static final double MILLIMETERS_PER_INCH = 25.4;
+
+    private ImagePreparation() {
+    }
+
+    /**
+     * Returns the read parameters that subsample a page down to the target
+     * resolution, or null when the page must be read at full resolution.
+     * Pages without a resolution in their metadata are read at full
+     * resolution.
+     *
+     * @param targetDpi The lowest resolution to read pages at, or 0 to never
+     * subsample.
+     */
+    static ImageReadParam readParam(ImageReader reader, int imageIndex, int targetDpi) throws IOException {
+        if (targetDpi <= 0) {
+            return null;
+        }
+        // The pixel size is stored in millimeters, so 300 dpi reads as 299.99
+        int subsampling = (int) (Math.round(dpiOf(reader.getImageMetadata(imageIndex))) / targetDpi);
+        if (subsampling < 2) {
+            return null;
+        }
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return param;
+    }
+
+    /**
+     * Returns the read parameters that subsample a page down to the target
+     * resolution, and further down when decoding the page would need more
+     * memory than a single page may use.
+     *
+     * @param maxDecodeBytes The most memory decoding a page may need, or 0
+     * for no limit.
+     * @return The read parameters, or null when the page must be read at
+     * full resolution.
+     */
+    static ImageReadParam readParam(ImageReader reader, int imageIndex, int targetDpi, long maxDecodeBytes) throws IOException {
+        ImageReadParam param = readParam(reader, imageIndex, targetDpi);
+        if (maxDecodeBytes <= 0 || decodeBytesOf(reader, imageIndex, param) <= maxDecodeBytes) {
+            return param;
+        }
+        int subsampling = subsamplingOf(param);
+        int width = reader.getWidth(imageIndex);
+        int height = reader.getHeight(imageIndex);
+        int bitsPerPixel = bitsPerPixelOf(reader, imageIndex);
+        while (decodeBytes(width, height, bitsPerPixel, subsampling) > maxDecodeBytes) {
+            subsampling++;
+        }
+        LOGGER.log(Level.INFO, "Page {0} of {1} by {2} pixels needs more memory than the decode memory budget and is subsampled by {3}.",
+                new Object[]{imageIndex + 1, String.valueOf(width), String.valueOf(height), subsampling});
+        param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return param;
+    }
+
+    /**
+     * Estimates the memory that reading and decoding a page takes, from the
+     * size and pixel layout of the page before it is read. Decoding adds a
+     * byte of luminance, a byte of the luminance turned for vertical barcodes
+     * and a bit of the binarized image for every pixel to the page image
+     * itself.
+     *
+     * @param param The read parameters the page is read with, or null.
+     */
+    static long decodeBytesOf(ImageReader reader, int imageIndex, ImageReadParam param) throws IOException {
+        return decodeBytes(reader.getWidth(imageIndex), reader.getHeight(imageIndex), bitsPerPixelOf(reader, imageIndex),
+                subsamplingOf(param));
+    }
+
+    static long decodeBytes(int width, int height, int bitsPerPixel, int subsampling) {
+        long pixels = (long) ((width + subsampling - 1) / subsampling) * ((height + subsampling - 1) / subsampling);
+        return pixels * bitsPerPixel / 8 + 2 * pixels + pixels / 8;
+    }
+
+    private static int subsamplingOf(ImageReadParam param) {
+        return param == null ? 1 : Math.max(param.getSourceXSubsampling(), param.getSourceYSubsampling());
+    }
+
+    /**
+     * Returns the number of bits of a pixel of the page image, or 32 when the
+     * layout of the page is unknown.
+     */
+    private static int bitsPerPixelOf(ImageReader reader, int imageIndex) throws IOException {
+        ImageTypeSpecifier imageType = reader.getRawImageType(imageIndex);
+        if (imageType == null) {
+            return 32;
+        }
+        return imageType.getColorModel().getPixelSize();
+    }
+
+    /**
+     * Returns the horizontal resolution of the standard image metadata, or 0
+     * when it is unknown.
+     */
+    static double dpiOf(IIOMetadata metadata) {
+        if (metadata == null || !metadata.isStandardMetadataFormatSupported()) {
+            return 0;
+        }
+        Node root = metadata.getAsTree(IIOMetadataFormatImpl.standardMetadataFormatName);
+        for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeName().equals("Dimension")) {
+                for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                    if (child.getNodeName().equals("HorizontalPixelSize")) {
+                        try {
+                            double millimetersPerPixel = Double.parseDouble(((Element) child).getAttribute("value"));
+                            return millimetersPerPixel > 0 ? MILLIMETERS_PER_INCH / millimetersPerPixel : 0;
+                        } catch (NumberFormatException ex) {
+                            return 0;
+                        }
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the input folder for new files.
+ * <p>
+ * New and modified files are reported by a {@link WatchService}, so an idle
+ * input folder costs no CPU. Because the scanners copy files into the folder
+ * while they are being watched, a file is only handed out once its size and
+ * last modified time have not changed for the configured stable time. Files
+ * ending with the in progress suffix are ignored until they are renamed.
+ * <p>
+ * The folder is also listed at a slow interval, which picks up files that were
+ * already in the folder at start up, files whose events were lost and file
+ * systems that do not deliver watch events at all.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+class InputFolderWatcher implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(InputFolderWatcher.class.getName());
+
+    private final File inputFolder;
+    private final long stableMillis;
+    private final long rescanMillis;
+    private final String inProgressSuffix;
+    private final WatchService watchService;
+    private final Map<String, Candidate> candidates = new LinkedHashMap<String, Candidate>();
+    private long nextRescan;
+
+    InputFolderWatcher(File inputFolder, long stableMillis, long rescanMillis, String inProgressSuffix) {
+        this.inputFolder = inputFolder;
+        this.stableMillis = Math.max(stableMillis, 0);
+        this.rescanMillis = Math.max(rescanMillis, 1000);
+        this.inProgressSuffix = inProgressSuffix == null ? "" : inProgressSuffix;
+        this.watchService = createWatchService(inputFolder);
+    }
+
+    private static WatchService createWatchService(File inputFolder) {
+        try {
+            WatchService watchService = FileSystems.getDefault().newWatchService();
+            inputFolder.toPath().register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            return watchService;
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "The input folder {0} cannot be watched. New files will only be found when the folder is rescanned.",
+                    inputFolder.getAbsolutePath());
+            LOGGER.log(Level.WARNING, null, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Blocks until at least one file in the input folder is stable and returns
+     * the stable files.
+     */
+    List<File> takeStableFiles() throws InterruptedException {
+        while (true) {
+            long now = System.currentTimeMillis();
+            if (now >= nextRescan) {
+                rescan();
+                nextRescan = now + rescanMillis;
+            }
+            List<File> stableFiles = removeStableCandidates(now);
+            if (!stableFiles.isEmpty()) {
+                return stableFiles;
+            }
+            long timeout = nextRescan - now;
+            if (!candidates.isEmpty()) {
+                timeout = Math.min(timeout, Math.max(stableMillis, 1));
+            }
+            waitForEvents(timeout);
+        }
+    }
+
+    private void waitForEvents(long timeout) throws InterruptedException {
+        if (watchService == null) {
+            Thread.sleep(timeout);
+            return;
+        }
+        WatchKey watchKey = watchService.poll(timeout, TimeUnit.MILLISECONDS);
+        while (watchKey != null) {
+            for (WatchEvent<?> event : watchKey.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // Events were lost, so list the folder right away
+                    nextRescan = 0;
+                } else {
+                    Path fileName = (Path) event.context();
+                    addCandidate(new File(inputFolder, fileName.toString()));
+                }
+            }
+            watchKey.reset();
+            watchKey = watchService.poll();
+        }
+    }
+
+    private void rescan() {
+        File[] files = inputFolder.listFiles();
+        if (files == null) {
+            LOGGER.log(Level.WARNING, "The input folder {0} could not be listed.", inputFolder.getAbsolutePath());
+            return;
+        }
+        for (File file : files) {
+            addCandidate(file);
+        }
+    }
+
+    private void addCandidate(File file) {
+        String fileName = file.getName();
+        if ((!inProgressSuffix.isEmpty() && fileName.endsWith(inProgressSuffix)) || !file.isFile()) {
+            return;
+        }
+        Candidate candidate = candidates.get(fileName);
+        if (candidate == null) {
+            candidates.put(fileName, new Candidate(file, System.currentTimeMillis()));
+        } else {
+            candidate.refresh(System.currentTimeMillis());
+        }
+    }
+
+    private List<File> removeStableCandidates(long now) {
+        List<File> stableFiles = new ArrayList<File>();
+        Iterator<Candidate> iterator = candidates.values().iterator();
+        while (iterator.hasNext()) {
+            Candidate candidate = iterator.next();
+            if (!candidate.file.isFile()) {
+                iterator.remove();
+            } else if (!candidate.refresh(now) && now - candidate.unchangedSince >= stableMillis) {
+                iterator.remove();
+                stableFiles.add(candidate.file);
+            }
+        }
+        return stableFiles;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    private static class Candidate {
+
+        private final File file;
+        private long length;
+        private long lastModified;
+        private long unchangedSince;
+
+        Candidate(File file, long now) {
+            this.file = file;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+            this.unchangedSince = now;
+        }
+
+        /**
+         * Reads the size and last modified time of the file again and returns
+         * true if either of them changed.
+         */
+        boolean refresh(long now) {
+            long newLength = file.length();
+            long newLastModified = file.lastModified();
+            if (newLength == length && newLastModified == lastModified) {
+                return false;
+            }
+            length = newLength;
+            lastModified = newLastModified;
+            unchangedSince = now;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Decides which of the queued input files is read next, so that a few large
+ * files do not hold up the small and urgent files that arrive behind them.
+ * <p>
+ * Every file is given a virtual arrival time when it is queued, and the files
+ * are read in the order of their virtual arrival times. A file of a lower
+ * priority class is handled as if it arrived the class delay later for every
+ * class above it, and a file as if it arrived the size delay later for every
+ * megabyte of its size. A queued file is therefore passed over by the files
+ * that arrive up to its delay after it, but never by the files that arrive
+ * later, so no file waits forever.
+ * <p>
+ * The priority classes are matched on the file name in the order they are
+ * configured, and the files that match none of them come last. Some of the
+ * intake threads and file slots can be reserved for the files of the first
+ * class, so that a burst of large files never occupies all of them.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+final class IntakeScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(IntakeScheduler.class.getName());
+    private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    private final List<Pattern> priorityClasses;
+    private final long classDelayMillis;
+    private final long sizeDelayMillisPerMegabyte;
+    private final int intakeThreads;
+    private final int maxFilesInFlight;
+    private final int reservedSlots;
+    // The files of the first priority class, which may use the reserved
+    // slots, and the other files
+    private final PriorityQueue<Ticket> firstClassQueue = new PriorityQueue<Ticket>();
+    private final PriorityQueue<Ticket> otherQueue = new PriorityQueue<Ticket>();
+    private long sequence;
+    private int filesReading;
+    private int filesInFlight;
+    private int otherFilesReading;
+    private int otherFilesInFlight;
+
+    /**
+     * @param priorityClasses The file name patterns of the priority classes,
+     * from the highest priority down.
+     * @param reservedSlots The number of intake threads and file slots that
+     * only the files of the first priority class may use.
+     */
+    IntakeScheduler(List<Pattern> priorityClasses, long classDelayMillis, long sizeDelayMillisPerMegabyte,
+            int intakeThreads, int maxFilesInFlight, int reservedSlots) {
+        this.priorityClasses = priorityClasses;
+        this.classDelayMillis = Math.max(classDelayMillis, 0);
+        this.sizeDelayMillisPerMegabyte = Math.max(sizeDelayMillisPerMegabyte, 0);
+        this.intakeThreads = Math.max(intakeThreads, 1);
+        this.maxFilesInFlight = Math.max(maxFilesInFlight, 1);
+        // The other files always keep at least one thread and slot
+        this.reservedSlots = Math.max(0, Math.min(reservedSlots, Math.min(this.intakeThreads, this.maxFilesInFlight) - 1));
+    }
+
+    /**
+     * Loads the scheduler of the priorityClasses, priorityClassDelaySeconds,
+     * sizeDelaySecondsPerMegabyte and reservedPrioritySlots settings.
+     * Priority classes without a valid file name pattern are logged and
+     * skipped.
+     */
+    static IntakeScheduler load(int intakeThreads, int maxFilesInFlight) {
+        List<Pattern> priorityClasses = new ArrayList<Pattern>();
+        for (String name : Settings.getString("priorityClasses", "").split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            String pattern = Settings.getString("priorityClass." + name + ".fileNamePattern", ".*");
+            try {
+                priorityClasses.add(Pattern.compile(pattern));
+            } catch (PatternSyntaxException ex) {
+                LOGGER.log(Level.WARNING, "The file name pattern {0} of the priority class {1} is not valid. The class will be ignored.",
+                        new Object[]{pattern, name});
+            }
+        }
+        return new IntakeScheduler(priorityClasses,
+                TimeUnit.SECONDS.toMillis(Settings.getInt("priorityClassDelaySeconds", 60)),
+                TimeUnit.SECONDS.toMillis(Settings.getInt("sizeDelaySecondsPerMegabyte", 1)),
+                intakeThreads, maxFilesInFlight, Settings.getInt("reservedPrioritySlots", 0));
+    }
+
+    /**
+     * Creates the ticket of a file that arrives now. The file is queued once
+     * the ticket is added.
+     */
+    Ticket createTicket(File file) {
+        return createTicket(file, file.length(), System.currentTimeMillis());
+    }
+
+    synchronized Ticket createTicket(File file, long length, long arrivalMillis) {
+        int priorityClass = priorityClassOf(file.getName());
+        long virtualArrival = arrivalMillis + priorityClass * classDelayMillis
+                + Math.max(length, 0) * sizeDelayMillisPerMegabyte / BYTES_PER_MEGABYTE;
+        return new Ticket(file, priorityClass == 0, virtualArrival, sequence++, System.nanoTime());
+    }
+
+    /**
+     * Returns the index of the first priority class that matches the file
+     * name, or the number of classes when none matches.
+     */
+    int priorityClassOf(String fileName) {
+        for (int i = 0; i < priorityClasses.size(); i++) {
+            if (priorityClasses.get(i).matcher(fileName).matches()) {
+                return i;
+            }
+        }
+        return priorityClasses.size();
+    }
+
+    synchronized void add(Ticket ticket) {
+        (ticket.firstClass ? firstClassQueue : otherQueue).add(ticket);
+    }
+
+    /**
+     * Takes the next file that may be read now, and counts it as reading and
+     * in flight.
+     *
+     * @return The ticket of the file, or null when no file may be read now.
+     */
+    synchronized Ticket poll() {
+        if (filesReading >= intakeThreads || filesInFlight >= maxFilesInFlight) {
+            return null;
+        }
+        boolean otherAllowed = otherFilesReading < intakeThreads - reservedSlots
+                && otherFilesInFlight < maxFilesInFlight - reservedSlots;
+        Ticket first = firstClassQueue.peek();
+        Ticket other = otherAllowed ? otherQueue.peek() : null;
+        Ticket ticket;
+        if (first != null && (other == null || first.compareTo(other) < 0)) {
+            ticket = firstClassQueue.poll();
+        } else if (other != null) {
+            ticket = otherQueue.poll();
+            otherFilesReading++;
+            otherFilesInFlight++;
+        } else {
+            return null;
+        }
+        filesReading++;
+        filesInFlight++;
+        return ticket;
+    }
+
+    /**
+     * Frees the intake thread of a file whose pages were all read.
+     */
+    synchronized void readingDone(Ticket ticket) {
+        filesReading--;
+        if (!ticket.firstClass) {
+            otherFilesReading--;
+        }
+    }
+
+    /**
+     * Frees the file slot of a file that left the pipeline.
+     */
+    synchronized void fileDone(Ticket ticket) {
+        filesInFlight--;
+        if (!ticket.firstClass) {
+            otherFilesInFlight--;
+        }
+    }
+
+    synchronized int getQueuedFiles() {
+        return firstClassQueue.size() + otherQueue.size();
+    }
+
+    synchronized int getFilesInFlight() {
+        return filesInFlight;
+    }
+
+    /**
+     * A queued input file.
+     */
+    static final class Ticket implements Comparable<Ticket> {
+
+        private final File file;
+        private final boolean firstClass;
+        private final long virtualArrival;
+        private final long sequence;
+        private final long queuedNanos;
+
+        private Ticket(File file, boolean firstClass, long virtualArrival, long sequence, long queuedNanos) {
+            this.file = file;
+            this.firstClass = firstClass;
+            this.virtualArrival = virtualArrival;
+            this.sequence = sequence;
+            this.queuedNanos = queuedNanos;
+        }
+
+        File getFile() {
+            return file;
+        }
+
+        /**
+         * The System.nanoTime() at which the file was queued.
+         */
+        long getQueuedNanos() {
+            return queuedNanos;
+        }
+
+        @Override
+        public int compareTo(Ticket other) {
+            if (virtualArrival != other.virtualArrival) {
+                return virtualArrival < other.virtualArrival ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.IOException;
+import java.io.Writer;
+import javax.xml.bind.JAXBException;
+import net.binarypaper.barcodescanner.entity.Page;
+import org.eclipse.persistence.jaxb.JAXBMarshaller;
+
+/**
+ * Writes a Document as compact json one page at a time, in the same way as the
+ * {@link XmlDocumentWriter} writes xml. The output is the json that MOXy
+ * marshals for the whole Document, on a single line:
+ * <pre>
+ * {"document":{"fileName":"scan.tif","page":[{"pageNumber":1,"barcode":[{"barcodeType":"QR","content":"..."}]}]}}
+ * </pre>
+ * The document object and the page array are written here, and every page is
+ * marshalled into the array as a fragment. A document without pages has an
+ * empty page array.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+class JsonDocumentWriter implements DocumentWriter {
+
+    private static final String DOCUMENT_END = "]}}";
+    private static final MarshallerPool marshallers = new MarshallerPool(MarshallerPool.JSON, false, true);
+
+    private final Writer writer;
+    private final String fileName;
+    private boolean started;
+
+    JsonDocumentWriter(Writer writer, String fileName) {
+        this.writer = writer;
+        this.fileName = fileName;
+    }
+
+    @Override
+    public void writePage(Page page) throws IOException {
+        if (started) {
+            writer.write(',');
+        } else {
+            start();
+        }
+        JAXBMarshaller marshaller = marshallers.borrow();
+        try {
+            marshaller.marshal(MarshallerPool.pageElement(page), writer);
+        } catch (JAXBException ex) {
+            throw new IOException("Page " + page.getPageNumber() + " of " + fileName + " could not be marshalled.", ex);
+        } finally {
+            marshallers.giveBack(marshaller);
+        }
+    }
+
+    private void start() throws IOException {
+        writer.write("{\"document\":{\"fileName\":");
+        writer.write(quote(fileName));
+        writer.write(",\"page\":[");
+        started = true;
+    }
+
+    /**
+     * Returns a json string of the value, escaped the way MOXy escapes the
+     * strings it marshals.
+     */
+    static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2);
+        quoted.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                case '\b':
+                    quoted.append("\\b");
+                    break;
+                case '\f':
+                    quoted.append("\\f");
+                    break;
+                case '\n':
+                    quoted.append("\\n");
+                    break;
+                case '\r':
+                    quoted.append("\\r");
+                    break;
+                case '\t':
+                    quoted.append("\\t");
+                    break;
+                default:
+                    if (Character.isISOControl(c) || Character.isSurrogate(c)) {
+                        quoted.append(String.format("\\u%04X", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!started) {
+                start();
+            }
+            writer.write(DOCUMENT_END);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in fixed buckets that range from a millisecond to a minute.
+ * Recording a duration takes two atomic increments, so the histogram can be
+ * shared by all threads without locking.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+final class LatencyHistogram {
+
+    /**
+     * The upper bounds of the buckets in seconds. Durations above the last
+     * bound are counted in an overflow bucket.
+     */
+    static final double[] BUCKET_SECONDS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05,
+        0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+    private static final long[] BUCKET_NANOS = new long[BUCKET_SECONDS.length];
+
+    static {
+        for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+            BUCKET_NANOS[i] = Math.round(BUCKET_SECONDS[i] * 1e9);
+        }
+    }
+
+    private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_SECONDS.length + 1);
+    private final AtomicLong sumNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void record(long nanos) {
+        int bucket = 0;
+        while (bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket]) {
+            bucket++;
+        }
+        bucketCounts.incrementAndGet(bucket);
+        sumNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Returns the number of durations up to the bound of a bucket. The
+     * bucket after the last bound returns the total count.
+     */
+    long getCumulativeCount(int bucket) {
+        long count = 0;
+        for (int i = 0; i <= bucket; i++) {
+            count += bucketCounts.get(i);
+        }
+        return count;
+    }
+
+    long getCount() {
+        return getCumulativeCount(BUCKET_SECONDS.length);
+    }
+
+    double getSumSeconds() {
+        return sumNanos.get() / 1e9;
+    }
+
+    double getMeanMillis() {
+        long count = getCount();
+        return count == 0 ? 0 : sumNanos.get() / 1e6 / count;
+    }
+
+    /**
+     * Returns an upper estimate of a percentile: the bound of the bucket that
+     * holds it, or the longest duration when it is above the last bound.
+     *
+     * @param percentile A fraction between 0 and 1.
+     */
+    double getPercentileMillis(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile);
+        for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+            if (getCumulativeCount(i) >= rank) {
+                return BUCKET_SECONDS[i] * 1000;
+            }
+        }
+        return maxNanos.get() / 1e6;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * An ImageInputStream that reads a file through memory mapping instead of a
+ * read call per field the way FileImageInputStream does. Seeking between the
+ * directories and strips of a large multi page tiff file costs nothing, and
+ * the pages are copied straight from the page cache.
+ * <p>
+ * A ByteBuffer can not map more than 2 GB, so larger files are mapped in
+ * consecutive windows. The windows are only read with absolute reads, so
+ * streams over the same file may be read from different threads at the same
+ * time, each with its own mapping. A single stream, like every
+ * ImageInputStream, is read by one thread at a time.
+ * <p>
+ * The windows are unmapped when the stream is closed, so the file can be
+ * moved or removed right away on every platform. The stream must therefore
+ * not be closed while it is being read.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+class MappedFileImageInputStream extends ImageInputStreamImpl {
+
+    private static final Logger LOGGER = Logger.getLogger(MappedFileImageInputStream.class.getName());
+    private static final int WINDOW_SIZE = 1 << 30;
+
+    private final long length;
+    private final int windowSize;
+    private final MappedByteBuffer[] windows;
+
+    MappedFileImageInputStream(File file) throws IOException {
+        this(file, WINDOW_SIZE);
+    }
+
+    /**
+     * @param windowSize The number of bytes mapped by a window.
+     */
+    MappedFileImageInputStream(File file, int windowSize) throws IOException {
+        this.windowSize = windowSize;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            // The mapping stays valid after the channel is closed
+            FileChannel channel = randomAccessFile.getChannel();
+            length = channel.size();
+            windows = new MappedByteBuffer[(int) ((length + windowSize - 1) / windowSize)];
+            for (int i = 0; i < windows.length; i++) {
+                long position = (long) i * windowSize;
+                windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(windowSize, length - position));
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (streamPos >= length) {
+            return -1;
+        }
+        int b = windows[(int) (streamPos / windowSize)].get((int) (streamPos % windowSize)) & 0xff;
+        streamPos++;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int len) throws IOException {
+        checkClosed();
+        if (offset < 0 || len < 0 || offset + len > bytes.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        bitOffset = 0;
+        if (len == 0) {
+            return 0;
+        }
+        if (streamPos >= length) {
+            return -1;
+        }
+        int count = (int) Math.min(len, length - streamPos);
+        int copied = 0;
+        while (copied < count) {
+            long position = streamPos + copied;
+            ByteBuffer view = windows[(int) (position / windowSize)].duplicate();
+            view.position((int) (position % windowSize));
+            int chunk = Math.min(count - copied, view.remaining());
+            view.get(bytes, offset + copied, chunk);
+            copied += chunk;
+        }
+        streamPos += count;
+        return count;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        for (int i = 0; i < windows.length; i++) {
+            unmap(windows[i]);
+            windows[i] = null;
+        }
+    }
+
+    /**
+     * Unmaps a window right away instead of when it is garbage collected.
+     * Where the runtime does not allow it the window is left to the garbage
+     * collector.
+     */
+    private static void unmap(MappedByteBuffer window) {
+        try {
+            Method cleanerMethod = window.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(window);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception ex) {
+            LOGGER.log(Level.FINE, "The mapped input file is left to the garbage collector.", ex);
+        }
+    }
+}
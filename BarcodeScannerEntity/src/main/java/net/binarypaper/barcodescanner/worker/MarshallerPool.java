@@ -0,0 +1,132 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+import net.binarypaper.barcodescanner.entity.Document;
+import net.binarypaper.barcodescanner.entity.Page;
+import org.eclipse.persistence.jaxb.JAXBContextFactory;
+import org.eclipse.persistence.jaxb.JAXBMarshaller;
+import org.eclipse.persistence.jaxb.MarshallerProperties;
+
+/**
+ * Marshals Documents with MOXy, as xml or json, with or without indentation.
+ * <p>
+ * The JAXBContext is created once and shared. Marshallers are not thread safe,
+ * so every pool keeps the marshallers of its output settings and lends one out
+ * per marshalled Document. The marshallers of a fragment pool marshal single
+ * page elements into a document that the DocumentWriter starts and ends
+ * itself.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+class MarshallerPool {
+
+    static final String XML = "application/xml";
+    static final String JSON = "application/json";
+
+    private static final JAXBContext jaxbContext = createJaxbContext();
+    private static final QName PAGE = new QName("page");
+
+    private final String mediaType;
+    private final boolean formatted;
+    private final boolean fragment;
+    private final Queue<JAXBMarshaller> marshallers = new ConcurrentLinkedQueue<JAXBMarshaller>();
+
+    /**
+     * @param mediaType XML or JSON.
+     * @param formatted true to indent the output.
+     */
+    MarshallerPool(String mediaType, boolean formatted) {
+        this(mediaType, formatted, false);
+    }
+
+    /**
+     * @param mediaType XML or JSON.
+     * @param formatted true to indent the output.
+     * @param fragment true to marshal page elements without the xml
+     * declaration, and json pages without the name of their element.
+     */
+    MarshallerPool(String mediaType, boolean formatted, boolean fragment) {
+        this.mediaType = mediaType;
+        this.formatted = formatted;
+        this.fragment = fragment;
+    }
+
+    private static JAXBContext createJaxbContext() {
+        try {
+            return JAXBContextFactory.createContext(new Class[]{Document.class}, null);
+        } catch (JAXBException ex) {
+            throw new IllegalStateException("The JAXBContext for the output could not be created.", ex);
+        }
+    }
+
+    String marshal(Document document) throws IOException {
+        JAXBMarshaller marshaller = borrow();
+        try {
+            StringWriter stringWriter = new StringWriter();
+            marshaller.marshal(document, stringWriter);
+            return stringWriter.toString();
+        } catch (JAXBException ex) {
+            throw new IOException("The document " + document.getFileName() + " could not be marshalled.", ex);
+        } finally {
+            giveBack(marshaller);
+        }
+    }
+
+    /**
+     * Returns a page as the page element of a fragment pool. A Page is not a
+     * root element, so it is marshalled under the name it has in a Document.
+     */
+    static JAXBElement<Page> pageElement(Page page) {
+        return new JAXBElement<Page>(PAGE, Page.class, page);
+    }
+
+    /**
+     * Lends out a marshaller, which must be given back once the caller is
+     * done with it.
+     */
+    JAXBMarshaller borrow() throws IOException {
+        JAXBMarshaller marshaller = marshallers.poll();
+        if (marshaller != null) {
+            return marshaller;
+        }
+        try {
+            marshaller = (JAXBMarshaller) jaxbContext.createMarshaller();
+            marshaller.setProperty(MarshallerProperties.MEDIA_TYPE, mediaType);
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, formatted);
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, fragment);
+            if (fragment) {
+                marshaller.setProperty(MarshallerProperties.JSON_INCLUDE_ROOT, false);
+            }
+            return marshaller;
+        } catch (JAXBException ex) {
+            throw new IOException("The " + mediaType + " marshaller could not be created.", ex);
+        }
+    }
+
+    void giveBack(JAXBMarshaller marshaller) {
+        marshallers.offer(marshaller);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Admits pages for decoding from a budget of memory instead of a fixed
+ * number of pages, so that a few huge pages can not exhaust the heap while
+ * many ordinary pages are still decoded at the same time.
+ * <p>
+ * Every page is granted the memory its decoding is estimated to need before
+ * it is read, and hands the grant back once it is decoded. Pages are admitted
+ * in the order they ask, so a large page is never passed over by a stream of
+ * small ones. A page that needs more than the whole budget is granted the
+ * whole budget and is decoded on its own.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+final class MemoryBudget {
+
+    private static final long BYTES_PER_MEGABYTE = 1024L * 1024L;
+
+    private final long budgetBytes;
+    private final long retainedBytes;
+    private final Queue<Object> waiting = new ArrayDeque<Object>();
+    private long usedBytes;
+
+    /**
+     * @param budgetBytes The memory shared by the pages that are read and
+     * decoded at the same time, or 0 for no budget.
+     */
+    MemoryBudget(long budgetBytes) {
+        this(budgetBytes, 0);
+    }
+
+    /**
+     * @param budgetBytes The memory shared by the pages that are read and
+     * decoded at the same time, or 0 for no budget.
+     * @param retainedBytes The memory of the decode buffers a page decode
+     * thread may keep from one page to the next.
+     */
+    MemoryBudget(long budgetBytes, long retainedBytes) {
+        this.budgetBytes = Math.max(budgetBytes, 0);
+        this.retainedBytes = Math.max(retainedBytes, 0);
+    }
+
+    /**
+     * Creates the budget from the decodeMemoryMegabytes and
+     * decodeBufferMegabytes settings. The decode buffers that the page decode
+     * threads keep between pages are not handed back with the grants of the
+     * pages, so they are taken off the budget up front. They may take at most
+     * half of it.
+     */
+    static MemoryBudget load(int workerThreads) {
+        long budgetBytes = Math.max(Settings.getInt("decodeMemoryMegabytes", 0), 0) * BYTES_PER_MEGABYTE;
+        long retainedBytes = Math.max(Settings.getInt("decodeBufferMegabytes", 16), 0) * BYTES_PER_MEGABYTE;
+        if (budgetBytes == 0) {
+            return new MemoryBudget(0, retainedBytes);
+        }
+        retainedBytes = Math.min(retainedBytes, budgetBytes / 2 / workerThreads);
+        return new MemoryBudget(budgetBytes - retainedBytes * workerThreads, retainedBytes);
+    }
+
+    boolean isEnabled() {
+        return budgetBytes > 0;
+    }
+
+    /**
+     * Returns the memory shared by the pages, without the decode buffers the
+     * threads keep.
+     */
+    long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * Returns the memory of the decode buffers a page decode thread may keep
+     * from one page to the next.
+     */
+    long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Returns the number of pages waiting for memory.
+     */
+    synchronized int getWaitingPages() {
+        return waiting.size();
+    }
+
+    /**
+     * Blocks until the memory is granted. Without a budget the memory is
+     * granted right away.
+     *
+     * @param bytes The memory the page is estimated to need.
+     */
+    Grant acquire(long bytes) throws InterruptedException {
+        if (!isEnabled()) {
+            return new Grant(0);
+        }
+        long grantedBytes = Math.min(Math.max(bytes, 0), budgetBytes);
+        Object turn = new Object();
+        synchronized (this) {
+            waiting.add(turn);
+            try {
+                while (waiting.peek() != turn || usedBytes + grantedBytes > budgetBytes) {
+                    wait();
+                }
+            } finally {
+                // Also when interrupted, so the pages behind it are not stuck
+                waiting.remove(turn);
+                notifyAll();
+            }
+            usedBytes += grantedBytes;
+        }
+        return new Grant(grantedBytes);
+    }
+
+    private synchronized void release(long bytes) {
+        usedBytes -= bytes;
+        notifyAll();
+    }
+
+    /**
+     * The memory granted to a page. Releasing it more than once has no
+     * effect.
+     */
+    final class Grant {
+
+        private final long bytes;
+        private boolean released;
+
+        private Grant(long bytes) {
+            this.bytes = bytes;
+        }
+
+        long getBytes() {
+            return bytes;
+        }
+
+        void release() {
+            synchronized (MemoryBudget.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            if (bytes > 0) {
+                MemoryBudget.this.release(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the {@link ScannerMetrics} in the Prometheus text format at /metrics.
+ * The endpoint only listens on the loopback address, so the metrics are not
+ * reachable from other machines unless a local agent forwards them.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+class MetricsEndpoint implements Closeable {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer httpServer;
+    private final ExecutorService executor;
+
+    /**
+     * Starts the endpoint.
+     *
+     * @param port The local port to listen on, or 0 for any free port.
+     * @throws IOException When the port is already in use.
+     */
+    MetricsEndpoint(final ScannerMetrics scannerMetrics, int port) throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        httpServer.createContext("/metrics", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    if (!"GET".equals(exchange.getRequestMethod())) {
+                        exchange.sendResponseHeaders(405, -1);
+                        return;
+                    }
+                    byte[] body = scannerMetrics.toPrometheusText().getBytes("UTF-8");
+                    exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream outputStream = exchange.getResponseBody();
+                    outputStream.write(body);
+                    outputStream.close();
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("metrics-http"));
+        httpServer.setExecutor(executor);
+        httpServer.start();
+    }
+
+    int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        httpServer.stop(0);
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The formats the output of an input file can be written in. Formatted xml is
+ * the easiest to read, the other formats are smaller and cheaper to parse for
+ * the importer that reads the output folder.
+ * <p>
+ * Every format also knows how to collect many documents in one batch file.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+enum OutputFormat {
+
+    /**
+     * Indented xml, the original output format.
+     */
+    XML("xml", "xml", "application/xml; charset=utf-8") {
+
+        @Override
+        DocumentWriter createWriter(OutputStream outputStream, String fileName) throws IOException {
+            return new XmlDocumentWriter(utf8Writer(outputStream), fileName, true);
+        }
+
+        @Override
+        void writeBatchStart(OutputStream outputStream) throws IOException {
+            writeXmlBatchStart(outputStream);
+        }
+
+        @Override
+        void writeBatchDocument(OutputStream outputStream, byte[] document) throws IOException {
+            writeXmlBatchDocument(outputStream, document);
+        }
+
+        @Override
+        void writeBatchEnd(OutputStream outputStream) throws IOException {
+            writeXmlBatchEnd(outputStream);
+        }
+    },
+    /**
+     * The same xml without indentation and line breaks.
+     */
+    COMPACT_XML("xml", "xml", "application/xml; charset=utf-8") {
+
+        @Override
+        DocumentWriter createWriter(OutputStream outputStream, String fileName) throws IOException {
+            return new XmlDocumentWriter(utf8Writer(outputStream), fileName, false);
+        }
+
+        @Override
+        void writeBatchStart(OutputStream outputStream) throws IOException {
+            writeXmlBatchStart(outputStream);
+        }
+
+        @Override
+        void writeBatchDocument(OutputStream outputStream, byte[] document) throws IOException {
+            writeXmlBatchDocument(outputStream, document);
+        }
+
+        @Override
+        void writeBatchEnd(OutputStream outputStream) throws IOException {
+            writeXmlBatchEnd(outputStream);
+        }
+    },
+    /**
+     * Compact json as marshalled by MOXy. A batch file holds one document per
+     * line.
+     */
+    JSON("json", "ndjson", "application/json; charset=utf-8") {
+
+        @Override
+        DocumentWriter createWriter(OutputStream outputStream, String fileName) throws IOException {
+            return new JsonDocumentWriter(utf8Writer(outputStream), fileName);
+        }
+
+        @Override
+        void writeBatchDocument(OutputStream outputStream, byte[] document) throws IOException {
+            outputStream.write(document);
+            outputStream.write('\n');
+        }
+    },
+    /**
+     * The length prefixed format of the {@link BinaryDocumentWriter}. A batch
+     * file holds the documents one after the other.
+     */
+    BINARY("bcs", "bcs", "application/octet-stream") {
+
+        @Override
+        DocumentWriter createWriter(OutputStream outputStream, String fileName) throws IOException {
+            return new BinaryDocumentWriter(outputStream, fileName);
+        }
+    };
+
+    private static final Logger LOGGER = Logger.getLogger(OutputFormat.class.getName());
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+
+    private final String fileExtension;
+    private final String batchFileExtension;
+    private final String contentType;
+
+    private OutputFormat(String fileExtension, String batchFileExtension, String contentType) {
+        this.fileExtension = fileExtension;
+        this.batchFileExtension = batchFileExtension;
+        this.contentType = contentType;
+    }
+
+    /**
+     * Reads the outputFormat setting. XML is used when the setting is not a
+     * known format.
+     */
+    static OutputFormat load() {
+        String formatName = Settings.getString("outputFormat", XML.name());
+        try {
+            return valueOf(formatName.toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            LOGGER.log(Level.WARNING, "The output format {0} is not supported. XML will be used.", formatName);
+            return XML;
+        }
+    }
+
+    /**
+     * The extension of output files, without the dot.
+     */
+    String getFileExtension() {
+        return fileExtension;
+    }
+
+    /**
+     * The extension of batch files, without the dot.
+     */
+    String getBatchFileExtension() {
+        return batchFileExtension;
+    }
+
+    /**
+     * The http content type of the output.
+     */
+    String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Creates a writer for the output of an input file. Closing the writer
+     * closes the stream.
+     */
+    abstract DocumentWriter createWriter(OutputStream outputStream, String fileName) throws IOException;
+
+    /**
+     * Writes the start of a batch file.
+     */
+    void writeBatchStart(OutputStream outputStream) throws IOException {
+    }
+
+    /**
+     * Writes the complete output of one input file to a batch file.
+     */
+    void writeBatchDocument(OutputStream outputStream, byte[] document) throws IOException {
+        outputStream.write(document);
+    }
+
+    /**
+     * Writes the end of a batch file.
+     */
+    void writeBatchEnd(OutputStream outputStream) throws IOException {
+    }
+
+    private static Writer utf8Writer(OutputStream outputStream) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"));
+    }
+
+    /**
+     * Several documents are not well-formed xml, so a batch file wraps them in
+     * a batch element.
+     */
+    private static void writeXmlBatchStart(OutputStream outputStream) throws IOException {
+        outputStream.write((XML_DECLARATION + "<batch>\n").getBytes("UTF-8"));
+    }
+
+    /**
+     * Writes a document without its xml declaration.
+     */
+    private static void writeXmlBatchDocument(OutputStream outputStream, byte[] document) throws IOException {
+        int start = 0;
+        if (document.length > 1 && document[0] == '<' && document[1] == '?') {
+            while (start < document.length - 1 && !(document[start] == '?' && document[start + 1] == '>')) {
+                start++;
+            }
+            start += 2;
+        }
+        while (start < document.length && Character.isWhitespace(document[start])) {
+            start++;
+        }
+        int end = document.length;
+        while (end > start && Character.isWhitespace(document[end - 1])) {
+            end--;
+        }
+        outputStream.write(document, start, end - start);
+        outputStream.write('\n');
+    }
+
+    private static void writeXmlBatchEnd(OutputStream outputStream) throws IOException {
+        outputStream.write("</batch>\n".getBytes("UTF-8"));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decodes pages on a fixed pool of worker threads.
+ * <p>
+ * The number of pages that are waiting for or busy with decoding is bounded by
+ * the number of worker threads plus the queue size. When that limit is reached
+ * the thread reading the input file blocks in {@link #submit(Callable)} until a
+ * worker finishes a page, so the decoded images held in memory stay flat no
+ * matter how many pages the input file has.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+class PageDecodeExecutor {
+
+    private final ThreadPoolExecutor executor;
+    private final Semaphore pagePermits;
+    private final int maxPendingPages;
+
+    PageDecodeExecutor(int workerThreads, int queueSize) {
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("workerThreads must be at least 1");
+        }
+        if (queueSize < 0) {
+            throw new IllegalArgumentException("queueSize may not be negative");
+        }
+        executor = new ThreadPoolExecutor(workerThreads, workerThreads,
+                0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new NamedThreadFactory("page-decode"));
+        maxPendingPages = workerThreads + queueSize;
+        pagePermits = new Semaphore(maxPendingPages);
+    }
+
+    int getWorkerThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Returns the number of pages that are waiting for or busy with decoding.
+     */
+    int getPendingPages() {
+        return maxPendingPages - pagePermits.availablePermits();
+    }
+
+    /**
+     * Submits a page decode task, blocking while the queue is full.
+     */
+    <T> Future<T> submit(Callable<T> task) throws InterruptedException {
+        return submit(task, null);
+    }
+
+    /**
+     * Submits a page decode task, blocking while the queue is full. The queue
+     * slot and the memory granted to the page are released once the page is
+     * decoded, and also when the task is cancelled before it runs. A page that
+     * is cancelled while it is decoded keeps both until the worker lets go of
+     * the page image.
+     *
+     * @param grant The memory granted to the page, or null.
+     */
+    <T> Future<T> submit(final Callable<T> task, final MemoryBudget.Grant grant) throws InterruptedException {
+        try {
+            pagePermits.acquire();
+        } catch (InterruptedException ex) {
+            if (grant != null) {
+                grant.release();
+            }
+            throw ex;
+        }
+        // Whoever claims the page first releases it: the worker that decodes
+        // it, or the cancellation of a page that has not started
+        final AtomicBoolean claimed = new AtomicBoolean();
+        FutureTask<T> future = new FutureTask<T>(new Callable<T>() {
+
+            @Override
+            public T call() throws Exception {
+                if (!claimed.compareAndSet(false, true)) {
+                    throw new CancellationException();
+                }
+                try {
+                    return task.call();
+                } finally {
+                    release(grant);
+                }
+            }
+        }) {
+
+            @Override
+            protected void done() {
+                if (isCancelled() && claimed.compareAndSet(false, true)) {
+                    release(grant);
+                }
+            }
+        };
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException ex) {
+            future.cancel(false);
+            throw ex;
+        }
+        return future;
+    }
+
+    private void release(MemoryBudget.Grant grant) {
+        pagePermits.release();
+        if (grant != null) {
+            grant.release();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import net.binarypaper.barcodescanner.entity.Page;
+
+/**
+ * The decode results of the pages of one input file, in page order, while the
+ * file is still being read. The thread that reads the file adds the page
+ * results as it finds the pages, and the thread that writes the output takes
+ * them as soon as they are added.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+class PageResults {
+
+    private static final Future<Page> END_OF_PAGES = new FutureTask<Page>(new Callable<Page>() {
+
+        @Override
+        public Page call() {
+            return null;
+        }
+    });
+
+    private final BlockingQueue<Future<Page>> pageResults = new LinkedBlockingQueue<Future<Page>>();
+    private volatile IOException failure;
+    private volatile boolean cancelled;
+
+    void add(Future<Page> pageResult) {
+        pageResults.add(pageResult);
+    }
+
+    /**
+     * Adds a page that is already decoded.
+     */
+    void add(final Page page) {
+        FutureTask<Page> pageResult = new FutureTask<Page>(new Callable<Page>() {
+
+            @Override
+            public Page call() {
+                return page;
+            }
+        });
+        pageResult.run();
+        pageResults.add(pageResult);
+    }
+
+    /**
+     * Marks the end of the pages after the last page was added.
+     */
+    void close() {
+        pageResults.add(END_OF_PAGES);
+    }
+
+    /**
+     * Marks the end of the pages when the file could not be read further. The
+     * pages added before stay available.
+     */
+    void fail(IOException ex) {
+        failure = ex;
+        pageResults.add(END_OF_PAGES);
+    }
+
+    /**
+     * Waits for the result of the next page.
+     *
+     * @return The result of the next page, or null after the last page.
+     * @throws IOException When the file could not be read past the pages
+     * returned so far.
+     */
+    Future<Page> next() throws InterruptedException, IOException {
+        Future<Page> pageResult = pageResults.take();
+        if (pageResult == END_OF_PAGES) {
+            // Leave the end marker for the next call
+            pageResults.add(END_OF_PAGES);
+            if (failure != null) {
+                throw new IOException("The input file could not be read completely.", failure);
+            }
+            return null;
+        }
+        return pageResult;
+    }
+
+    /**
+     * Cancels the pages that are not decoded yet and tells the reading thread
+     * to stop reading.
+     */
+    void cancel() {
+        cancelled = true;
+        for (Future<Page> pageResult : pageResults) {
+            pageResult.cancel(false);
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+/**
+ * The loaded copies of one pdf file. A PDDocument is not thread safe, so
+ * every page decode worker thread that renders a page of the file borrows a
+ * copy of its own. A copy is only loaded when no idle copy is left, so there
+ * are never more copies than worker threads, and one more for the intake
+ * thread that estimates the memory of the pages.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+class PdfDocumentPool implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(PdfDocumentPool.class.getName());
+
+    private final File pdfFile;
+    private final int numberOfPages;
+    private final Deque<PDDocument> idleDocuments = new ArrayDeque<PDDocument>();
+    private boolean closed;
+
+    /**
+     * Loads the first copy of the pdf file.
+     *
+     * @throws IOException When the file does not exist or is not a pdf file.
+     */
+    PdfDocumentPool(File pdfFile) throws IOException {
+        this.pdfFile = pdfFile;
+        PDDocument document = PDDocument.load(pdfFile);
+        numberOfPages = document.getNumberOfPages();
+        idleDocuments.push(document);
+    }
+
+    int getNumberOfPages() {
+        return numberOfPages;
+    }
+
+    PDDocument borrow() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("The pdf file " + pdfFile.getAbsolutePath() + " is closed.");
+            }
+            if (!idleDocuments.isEmpty()) {
+                return idleDocuments.pop();
+            }
+        }
+        return PDDocument.load(pdfFile);
+    }
+
+    /**
+     * Returns a borrowed copy. A copy that is returned after the pool was
+     * closed is closed.
+     */
+    synchronized void release(PDDocument document) {
+        if (closed) {
+            closeQuietly(document);
+        } else {
+            idleDocuments.push(document);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        while (!idleDocuments.isEmpty()) {
+            closeQuietly(idleDocuments.pop());
+        }
+    }
+
+    private void closeQuietly(PDDocument document) {
+        try {
+            document.close();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, null, ex);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDResources;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.graphics.PDXObject;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+
+/**
+ * Creates the images of pdf pages for barcode decoding. A scanned page that is
+ * just one embedded image is decoded from that image, everything else is
+ * rendered in grayscale at a resolution that is only high enough for the
+ * barcodes.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+final class PdfPages {
+
+    private static final Logger LOGGER = Logger.getLogger(PdfPages.class.getName());
+    private static final float POINTS_PER_INCH = 72;
+    // The largest difference between the aspect ratios of an image and its
+    // page for the image to count as a scan of the whole page
+    private static final double ASPECT_RATIO_TOLERANCE = 0.05;
+
+    private PdfPages() {
+    }
+
+    /**
+     * Returns the image of a page.
+     *
+     * @param renderDpi The resolution to render pages at.
+     * @param targetDpi The lowest resolution to subsample embedded images to,
+     * or 0 to never subsample.
+     */
+    static BufferedImage pageImage(PDDocument document, int pageIndex, int renderDpi, int targetDpi) throws IOException {
+        PDPage page = document.getPage(pageIndex);
+        PDImageXObject image = scannedImage(page);
+        if (image != null) {
+            try {
+                return image.getImage(null, subsampling(image, page, targetDpi));
+            } catch (IOException ex) {
+                LOGGER.log(Level.FINE, "The embedded image of page {0} could not be read. The page is rendered instead.", pageIndex + 1);
+            }
+        }
+        return new PDFRenderer(document).renderImageWithDPI(pageIndex, renderDpi, ImageType.GRAY);
+    }
+
+    /**
+     * Estimates the memory that creating and decoding the image of a page
+     * takes, in the same way as {@link ImagePreparation#decodeBytesOf}. The
+     * larger of the embedded image and the rendered page is taken, since a
+     * page whose image can not be read is rendered instead.
+     */
+    static long decodeBytesOf(PDDocument document, int pageIndex, int renderDpi, int targetDpi) {
+        PDPage page = document.getPage(pageIndex);
+        PDRectangle cropBox = page.getCropBox();
+        long decodeBytes = ImagePreparation.decodeBytes(Math.round(cropBox.getWidth() * renderDpi / POINTS_PER_INCH),
+                Math.round(cropBox.getHeight() * renderDpi / POINTS_PER_INCH), 8, 1);
+        try {
+            PDImageXObject image = scannedImage(page);
+            if (image != null) {
+                int components = image.getColorSpace().getNumberOfComponents();
+                int bitsPerPixel = components > 1 ? 32 : image.getBitsPerComponent() == 1 ? 1 : 8;
+                decodeBytes = Math.max(decodeBytes, ImagePreparation.decodeBytes(image.getWidth(), image.getHeight(),
+                        bitsPerPixel, subsampling(image, page, targetDpi)));
+            }
+        } catch (IOException ex) {
+            // The page is rendered
+        }
+        return decodeBytes;
+    }
+
+    /**
+     * Returns the image of a page that holds nothing but one image that covers
+     * the page, or null for any other page.
+     */
+    static PDImageXObject scannedImage(PDPage page) throws IOException {
+        PDResources resources = page.getResources();
+        if (resources == null || page.getRotation() != 0 || resources.getFontNames().iterator().hasNext()) {
+            return null;
+        }
+        PDImageXObject image = null;
+        for (COSName name : resources.getXObjectNames()) {
+            PDXObject xObject = resources.getXObject(name);
+            if (image != null || !(xObject instanceof PDImageXObject)) {
+                return null;
+            }
+            image = (PDImageXObject) xObject;
+        }
+        if (image == null) {
+            return null;
+        }
+        PDRectangle cropBox = page.getCropBox();
+        double pageAspectRatio = cropBox.getWidth() / cropBox.getHeight();
+        double imageAspectRatio = (double) image.getWidth() / image.getHeight();
+        if (Math.abs(imageAspectRatio / pageAspectRatio - 1) > ASPECT_RATIO_TOLERANCE) {
+            return null;
+        }
+        return image;
+    }
+
+    private static int subsampling(PDImageXObject image, PDPage page, int targetDpi) {
+        if (targetDpi <= 0) {
+            return 1;
+        }
+        long dpi = Math.round(image.getWidth() * POINTS_PER_INCH / page.getCropBox().getWidth());
+        return (int) Math.max(1, dpi / targetDpi);
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.bind.DatatypeConverter;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+import net.binarypaper.barcodescanner.entity.Page;
+
+/**
+ * Remembers the decoded pages of page images by a hash of their content, and
+ * of whole input files by a hash of their size, modification time and first
+ * and last blocks, so that a page or file that is scanned again is not
+ * decoded again. Scanners resend files after network errors, and many
+ * documents share the same cover and separator pages.
+ * <p>
+ * The entries are kept in memory up to a total number of pages, and the least
+ * recently used entries are dropped first. Optionally every entry is also
+ * written to a folder, which keeps the results across restarts and is read
+ * when an entry is not in memory. The folder is not cleaned up by the scanner.
+ * <p>
+ * The keys include the settings that change the decode results, so entries
+ * written with other settings are never used.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+final class ResultCache {
+
+    private static final Logger LOGGER = Logger.getLogger(ResultCache.class.getName());
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int FORMAT_VERSION = 2;
+    // The size of the blocks at the start and end of an input file that
+    // are hashed into its key
+    private static final int FILE_KEY_BLOCK = 64 * 1024;
+
+    /**
+     * The kinds of entries, which are counted separately.
+     */
+    enum Kind {
+
+        /**
+         * The barcodes of one page image, stored as a single page.
+         */
+        PAGE,
+        /**
+         * The pages of a whole input file.
+         */
+        FILE
+    }
+
+    /**
+     * The outcomes of a lookup.
+     */
+    enum Lookup {
+
+        MEMORY_HIT,
+        DISK_HIT,
+        MISS
+    }
+
+    private final int maxPages;
+    private final File folder;
+    private final Map<String, List<Page>> entries = new LinkedHashMap<String, List<Page>>(16, 0.75f, true);
+    private int cachedPages;
+    private final AtomicLongArray lookups = new AtomicLongArray(Kind.values().length * Lookup.values().length);
+
+    /**
+     * @param maxPages The number of pages to keep in memory, 0 to keep none.
+     * @param folder The folder to keep the entries in, or null to only keep
+     * them in memory.
+     */
+    ResultCache(int maxPages, File folder) {
+        this.maxPages = Math.max(maxPages, 0);
+        this.folder = folder;
+    }
+
+    /**
+     * Loads the cache of the resultCacheSize and resultCacheFolder settings.
+     */
+    static ResultCache load() {
+        String folderName = Settings.getString("resultCacheFolder", null);
+        File folder = null;
+        if (folderName != null) {
+            folder = new File(folderName);
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                LOGGER.log(Level.WARNING, "The result cache folder {0} could not be created. Results are only cached in memory.",
+                        folder.getAbsolutePath());
+                folder = null;
+            }
+        }
+        return new ResultCache(Settings.getInt("resultCacheSize", 0), folder);
+    }
+
+    boolean isEnabled() {
+        return maxPages > 0 || folder != null;
+    }
+
+    /**
+     * Returns the cached pages of a key, or null when they are not cached.
+     */
+    List<Page> get(Kind kind, String key) {
+        List<Page> pages;
+        synchronized (entries) {
+            pages = entries.get(kind + key);
+        }
+        if (pages != null) {
+            count(kind, Lookup.MEMORY_HIT);
+            return pages;
+        }
+        pages = readEntry(kind, key);
+        if (pages != null) {
+            count(kind, Lookup.DISK_HIT);
+            putInMemory(kind + key, pages);
+            return pages;
+        }
+        count(kind, Lookup.MISS);
+        return null;
+    }
+
+    void put(Kind kind, String key, List<Page> pages) {
+        pages = Collections.unmodifiableList(new ArrayList<Page>(pages));
+        putInMemory(kind + key, pages);
+        writeEntry(kind, key, pages);
+    }
+
+    private void putInMemory(String key, List<Page> pages) {
+        int weight = Math.max(pages.size(), 1);
+        if (weight > maxPages) {
+            return;
+        }
+        synchronized (entries) {
+            List<Page> replaced = entries.put(key, pages);
+            if (replaced != null) {
+                cachedPages -= Math.max(replaced.size(), 1);
+            }
+            cachedPages += weight;
+            // Drop the least recently used entries
+            Iterator<List<Page>> iterator = entries.values().iterator();
+            while (cachedPages > maxPages) {
+                cachedPages -= Math.max(iterator.next().size(), 1);
+                iterator.remove();
+            }
+        }
+    }
+
+    private void count(Kind kind, Lookup lookup) {
+        lookups.incrementAndGet(kind.ordinal() * Lookup.values().length + lookup.ordinal());
+    }
+
+    long getLookups(Kind kind, Lookup lookup) {
+        return lookups.get(kind.ordinal() * Lookup.values().length + lookup.ordinal());
+    }
+
+    int getCachedPages() {
+        synchronized (entries) {
+            return cachedPages;
+        }
+    }
+
+    private File entryFile(Kind kind, String key) {
+        // Spread the entries over subfolders to keep the folders small
+        return new File(new File(folder, key.substring(0, 2)), kind.name().toLowerCase() + "-" + key);
+    }
+
+    private List<Page> readEntry(Kind kind, String key) {
+        if (folder == null) {
+            return null;
+        }
+        File entryFile = entryFile(kind, key);
+        if (!entryFile.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(entryFile)));
+            try {
+                // Version 1 entries, whose pages have no blank flag, are
+                // still read
+                int version = input.readInt();
+                if (version < 1 || version > FORMAT_VERSION) {
+                    return null;
+                }
+                List<Page> pages = new ArrayList<Page>();
+                for (int pageCount = input.readInt(); pageCount > 0; pageCount--) {
+                    Page page = new Page();
+                    page.setPageNumber(input.readInt());
+                    List<Barcode> barcodes = new ArrayList<Barcode>();
+                    for (int barcodeCount = input.readInt(); barcodeCount > 0; barcodeCount--) {
+                        Barcode barcode = new Barcode();
+                        barcode.setType(BarcodeType.valueOf(input.readUTF()));
+                        barcode.setContent(input.readUTF());
+                        barcodes.add(barcode);
+                    }
+                    page.setBarcodes(barcodes);
+                    if (version >= 2 && input.readBoolean()) {
+                        page.setBlank(Boolean.TRUE);
+                    }
+                    pages.add(page);
+                }
+                return Collections.unmodifiableList(pages);
+            } finally {
+                input.close();
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "The result cache entry " + entryFile.getAbsolutePath() + " could not be read.", ex);
+            return null;
+        } catch (IllegalArgumentException ex) {
+            LOGGER.log(Level.WARNING, "The result cache entry " + entryFile.getAbsolutePath() + " could not be read.", ex);
+            return null;
+        }
+    }
+
+    private void writeEntry(Kind kind, String key, List<Page> pages) {
+        if (folder == null) {
+            return;
+        }
+        File entryFile = entryFile(kind, key);
+        if (entryFile.isFile()) {
+            return;
+        }
+        File entryFolder = entryFile.getParentFile();
+        try {
+            if (!entryFolder.isDirectory() && !entryFolder.mkdirs()) {
+                throw new IOException("The folder " + entryFolder.getAbsolutePath() + " could not be created.");
+            }
+            // Write to a temporary file first, so that a half written entry
+            // is never read
+            File tempFile = File.createTempFile(entryFile.getName(), ".tmp", entryFolder);
+            try {
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+                try {
+                    output.writeInt(FORMAT_VERSION);
+                    output.writeInt(pages.size());
+                    for (Page page : pages) {
+                        output.writeInt(page.getPageNumber());
+                        output.writeInt(page.getBarcodes().size());
+                        for (Barcode barcode : page.getBarcodes()) {
+                            output.writeUTF(barcode.getType().name());
+                            output.writeUTF(barcode.getContent());
+                        }
+                        output.writeBoolean(Boolean.TRUE.equals(page.getBlank()));
+                    }
+                } finally {
+                    output.close();
+                }
+                Files.move(tempFile.toPath(), entryFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                tempFile.delete();
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "The result cache entry " + entryFile.getAbsolutePath() + " could not be written.", ex);
+        }
+    }
+
+    /**
+     * Returns the key of a page image that is decoded with the given
+     * settings and regions.
+     *
+     * @param settings The settings that change the decode results.
+     */
+    static String pageKey(BufferedImage image, List<Rectangle> regions, String settings) {
+        MessageDigest digest = createDigest();
+        digest.update((settings + regions + image.getWidth() + "x" + image.getHeight()).getBytes(UTF_8));
+        ColorModel colorModel = image.getColorModel();
+        digest.update((colorModel.getClass().getName() + colorModel.getPixelSize()).getBytes(UTF_8));
+        if (colorModel instanceof IndexColorModel) {
+            // The same pixels are black or white depending on the palette
+            IndexColorModel indexColorModel = (IndexColorModel) colorModel;
+            int[] palette = new int[indexColorModel.getMapSize()];
+            indexColorModel.getRGBs(palette);
+            updateInts(digest, palette);
+        }
+        WritableRaster raster = image.getRaster();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        if (dataBuffer instanceof DataBufferByte && dataBuffer.getNumBanks() == 1 && raster.getParent() == null) {
+            digest.update(((DataBufferByte) dataBuffer).getData());
+        } else {
+            int width = image.getWidth();
+            int[] row = new int[width];
+            for (int y = 0; y < image.getHeight(); y++) {
+                image.getRGB(0, y, width, 1, row, 0, width);
+                updateInts(digest, row);
+            }
+        }
+        return DatatypeConverter.printHexBinary(digest.digest());
+    }
+
+    /**
+     * Returns the key of an input file that is decoded with the given
+     * settings. The key is a hash of the size and modification time of the
+     * file and of its first and last blocks, so that the file is not read
+     * twice before its first page is decoded. A file that is sent again is
+     * a new file, whose pages are found by their page keys instead.
+     *
+     * @param settings The settings that change the decode results.
+     */
+    static String fileKey(File file, String settings) throws IOException {
+        MessageDigest digest = createDigest();
+        digest.update(settings.getBytes(UTF_8));
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            long length = input.length();
+            ByteBuffer attributes = ByteBuffer.allocate(16);
+            attributes.putLong(length).putLong(file.lastModified());
+            digest.update(attributes.array());
+            byte[] block = new byte[(int) Math.min(length, FILE_KEY_BLOCK)];
+            input.readFully(block);
+            digest.update(block);
+            if (length > FILE_KEY_BLOCK) {
+                block = new byte[(int) Math.min(length - FILE_KEY_BLOCK, FILE_KEY_BLOCK)];
+                input.seek(length - block.length);
+                input.readFully(block);
+                digest.update(block);
+            }
+        } finally {
+            input.close();
+        }
+        return DatatypeConverter.printHexBinary(digest.digest());
+    }
+
+    private static void updateInts(MessageDigest digest, int[] values) {
+        ByteBuffer bytes = ByteBuffer.allocate(values.length * 4);
+        bytes.asIntBuffer().put(values);
+        digest.update(bytes.array());
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java platform supports MD5
+            throw new IllegalStateException(ex);
+        }
+    }
+}
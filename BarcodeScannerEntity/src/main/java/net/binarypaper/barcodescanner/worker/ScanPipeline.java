@@ -0,0 +1,395 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import net.binarypaper.barcodescanner.entity.Page;
+
+/**
+ * Processes the input files in three stages that each run on their own thread
+ * pool:
+ * <ol>
+ * <li>intake - claims the input file when the input folder is shared with
+ * other nodes, validates it and reads its pages one after the other,</li>
+ * <li>page decode - scans the pages for barcodes on the
+ * {@link PageDecodeExecutor},</li>
+ * <li>output - collects the pages in order while the file is still being read,
+ * writes the output file in the {@link OutputFormat} and removes the input
+ * file. In batch mode the output is added to a batch file instead, and the
+ * input file is removed once the {@link BatchWriter} commits the batch.</li>
+ * </ol>
+ * A slow or very large file therefore only occupies one thread of a stage
+ * while the files queued behind it keep moving. The number of files in the
+ * pipeline at the same time is capped. The files wait in the
+ * {@link IntakeScheduler} until a file slot and an intake thread are free,
+ * and are read in the order it decides.
+ * <p>
+ * The depth of the intake and output queues and the time the files wait in
+ * the intake queue, the intake and input file moves take are recorded in the
+ * {@link ScannerMetrics}.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+class ScanPipeline {
+
+    private static final Logger LOGGER = Logger.getLogger(ScanPipeline.class.getName());
+    // Tiff files of at least this size are memory mapped, 0 to never map
+    private static final long mapInputFileBytes = Settings.getInt("mapInputFileMegabytes", 16) * 1024L * 1024L;
+
+    private final BarcodeScanner barcodeScanner;
+    private final ScannerMetrics metrics;
+    private final BatchWriter batchWriter;
+    private final WorkClaims workClaims;
+    private final ThreadPoolExecutor intakeExecutor;
+    private final ThreadPoolExecutor outputExecutor;
+    private final IntakeScheduler scheduler;
+    // The files in the pipeline, including the queued files, by path
+    private final ConcurrentHashMap<String, IntakeScheduler.Ticket> filesInFlight = new ConcurrentHashMap<String, IntakeScheduler.Ticket>();
+
+    /**
+     * @param batchWriter The batch writer to add the output to, or null to
+     * write one output file per input file.
+     * @param workClaims The claims that share the input folder with other
+     * nodes, or null when this node reads the input folder on its own.
+     */
+    ScanPipeline(BarcodeScanner barcodeScanner, ScannerMetrics metrics, BatchWriter batchWriter, WorkClaims workClaims,
+            int intakeThreads, int outputThreads, int maxFilesInFlight) {
+        this.barcodeScanner = barcodeScanner;
+        this.metrics = metrics;
+        this.batchWriter = batchWriter;
+        this.workClaims = workClaims;
+        intakeExecutor = createExecutor(intakeThreads, "file-intake");
+        outputExecutor = createExecutor(outputThreads, "file-output");
+        scheduler = IntakeScheduler.load(intakeThreads, maxFilesInFlight);
+        metrics.addQueue("intake", new ScannerMetrics.Gauge() {
+
+            @Override
+            public long value() {
+                return scheduler.getQueuedFiles();
+            }
+        });
+        metrics.addQueue("output", new ScannerMetrics.Gauge() {
+
+            @Override
+            public long value() {
+                return outputExecutor.getQueue().size();
+            }
+        });
+        metrics.addQueue("files_in_flight", new ScannerMetrics.Gauge() {
+
+            @Override
+            public long value() {
+                return filesInFlight.size() - scheduler.getQueuedFiles();
+            }
+        });
+    }
+
+    private static ThreadPoolExecutor createExecutor(int threads, String name) {
+        int poolSize = Math.max(threads, 1);
+        // The queue does not need a bound of its own, the file slots already
+        // limit the number of files that can be waiting in it.
+        return new ThreadPoolExecutor(poolSize, poolSize,
+                0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new NamedThreadFactory(name));
+    }
+
+    /**
+     * Adds a file to the intake queue. Files that are already in the pipeline
+     * are ignored.
+     */
+    void submit(File file) {
+        IntakeScheduler.Ticket ticket = scheduler.createTicket(file);
+        if (filesInFlight.putIfAbsent(file.getAbsolutePath(), ticket) != null) {
+            return;
+        }
+        scheduler.add(ticket);
+        dispatch();
+    }
+
+    /**
+     * Starts reading the queued files for which the scheduler has a free
+     * intake thread and file slot.
+     */
+    private void dispatch() {
+        IntakeScheduler.Ticket ticket;
+        while ((ticket = scheduler.poll()) != null) {
+            final IntakeScheduler.Ticket startedTicket = ticket;
+            metrics.recordStage(ScannerMetrics.Stage.QUEUE, System.nanoTime() - ticket.getQueuedNanos());
+            try {
+                intakeExecutor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            File claimedFile = claim(startedTicket);
+                            if (claimedFile != null) {
+                                intake(claimedFile);
+                            }
+                        } finally {
+                            scheduler.readingDone(startedTicket);
+                            dispatch();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException ex) {
+                // The pipeline is shutting down, so the queued files are left
+                // in the input folder
+                scheduler.readingDone(ticket);
+                scheduler.fileDone(ticket);
+                filesInFlight.remove(ticket.getFile().getAbsolutePath());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Claims a file when it leaves the intake queue, so that a file that
+     * waits in the queue can still be claimed by another node.
+     *
+     * @return The file to scan, or null when another node claimed it.
+     */
+    private File claim(IntakeScheduler.Ticket ticket) {
+        File file = ticket.getFile();
+        if (workClaims == null) {
+            return file;
+        }
+        File claimedFile = workClaims.claim(file);
+        if (claimedFile == null) {
+            finished(file);
+            return null;
+        }
+        filesInFlight.put(claimedFile.getAbsolutePath(), ticket);
+        filesInFlight.remove(file.getAbsolutePath());
+        return claimedFile;
+    }
+
+    void shutdown() {
+        intakeExecutor.shutdown();
+        outputExecutor.shutdown();
+        if (batchWriter != null) {
+            batchWriter.close();
+        }
+    }
+
+    private void intake(final File file) {
+        long start = System.nanoTime();
+        final PageResults pageResults = new PageResults();
+        final String fileKey;
+        WorkJournal.Entry journal = null;
+        Closeable input = null;
+        try {
+            String fileNameLoweCase = file.getName().toLowerCase();
+            boolean pdf = fileNameLoweCase.endsWith(".pdf");
+            if (!pdf && !fileNameLoweCase.endsWith(".tif") && !fileNameLoweCase.endsWith(".tiff")) {
+                LOGGER.log(Level.WARNING, "The input file \"{0}\" does not have the file extension .pdf, .tiff or .tif", file.getName());
+                moveToErrorFolder(file);
+                finished(file);
+                return;
+            }
+            fileKey = barcodeScanner.fileKeyOf(file);
+            if (!barcodeScanner.readCachedPages(fileKey, pageResults)) {
+                journal = barcodeScanner.openJournal(fileKey);
+                input = pdf ? new PdfDocumentPool(file) : openTiff(file);
+            }
+        } catch (FileNotFoundException ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+            metrics.fileFailed();
+            closeJournal(journal);
+            finished(file);
+            return;
+        } catch (Exception ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+            moveToErrorFolder(file);
+            deleteJournal(journal);
+            finished(file);
+            return;
+        }
+        final WorkJournal.Entry fileJournal = journal;
+        metrics.recordStage(ScannerMetrics.Stage.INTAKE, System.nanoTime() - start);
+        // The output is written while the pages are still being read
+        outputExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                output(file, pageResults, fileKey, fileJournal);
+            }
+        });
+        if (input == null) {
+            // The pages were found in the result cache
+            return;
+        }
+        Map<Integer, Page> journaledPages = Collections.emptyMap();
+        if (journal != null && !journal.getJournaledPages().isEmpty()) {
+            journaledPages = journal.getJournaledPages();
+            LOGGER.log(Level.INFO, "Resuming the input file {0} with {1} pages from the work journal.",
+                    new Object[]{file.getAbsolutePath(), journaledPages.size()});
+        }
+        try {
+            if (input instanceof PdfDocumentPool) {
+                barcodeScanner.readPdfPages((PdfDocumentPool) input, file.getAbsolutePath(), pageResults, journaledPages);
+            } else {
+                barcodeScanner.readTiffPages((ImageInputStream) input, file.getAbsolutePath(), pageResults, journaledPages);
+            }
+            pageResults.close();
+        } catch (IOException ex) {
+            pageResults.fail(ex);
+        } catch (RuntimeException ex) {
+            pageResults.fail(new IOException(ex));
+        } catch (Error ex) {
+            // The output thread waits for the end of the pages, even when
+            // the reader ran out of memory
+            pageResults.fail(new IOException(ex));
+            throw ex;
+        } finally {
+            try {
+                input.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, null, ex);
+            }
+        }
+    }
+
+    /**
+     * Opens a tiff file. Large files are memory mapped, which saves a read
+     * call for every field the image reader reads while it seeks between the
+     * pages.
+     */
+    private static ImageInputStream openTiff(File file) throws IOException {
+        if (mapInputFileBytes > 0 && file.length() >= mapInputFileBytes) {
+            return new MappedFileImageInputStream(file);
+        }
+        return new FileImageInputStream(file);
+    }
+
+    private void output(File file, PageResults pageResults, String fileKey, WorkJournal.Entry journal) {
+        if (batchWriter != null) {
+            outputToBatch(file, pageResults, fileKey, journal);
+            return;
+        }
+        try {
+            String outputFolder = Settings.getString("outputFolder");
+            barcodeScanner.marshalDocument(file.getName(), pageResults, outputFolder, fileKey, journal);
+            long start = System.nanoTime();
+            file.delete();
+            metrics.recordStage(ScannerMetrics.Stage.MOVE, System.nanoTime() - start);
+            metrics.fileProcessed();
+        } catch (Exception ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+            moveToErrorFolder(file);
+        } finally {
+            deleteJournal(journal);
+            finished(file);
+        }
+    }
+
+    /**
+     * Adds the output of a file to the open batch. The file slot is freed
+     * right away, but the file stays in flight until its batch is committed,
+     * so that a rescan of the input folder does not pick it up again.
+     */
+    private void outputToBatch(final File file, PageResults pageResults, String fileKey, final WorkJournal.Entry journal) {
+        ByteArrayOutputStream document = new ByteArrayOutputStream();
+        try {
+            barcodeScanner.writeDocument(file.getName(), pageResults, document, fileKey, journal);
+        } catch (Exception ex) {
+            LOGGER.log(Level.SEVERE, null, ex);
+            moveToErrorFolder(file);
+            deleteJournal(journal);
+            finished(file);
+            return;
+        }
+        // The journal is kept until the batch is committed
+        closeJournal(journal);
+        releaseFileSlot(file);
+        batchWriter.add(document.toByteArray(), new BatchWriter.Listener() {
+
+            @Override
+            public void committed() {
+                long start = System.nanoTime();
+                file.delete();
+                metrics.recordStage(ScannerMetrics.Stage.MOVE, System.nanoTime() - start);
+                metrics.fileProcessed();
+                deleteJournal(journal);
+                filesInFlight.remove(file.getAbsolutePath());
+            }
+
+            @Override
+            public void failed(IOException ex) {
+                moveToErrorFolder(file);
+                deleteJournal(journal);
+                filesInFlight.remove(file.getAbsolutePath());
+            }
+        });
+    }
+
+    private void moveToErrorFolder(File file) {
+        long start = System.nanoTime();
+        BarcodeScanner.moveInvalidInputFile(file);
+        metrics.recordStage(ScannerMetrics.Stage.MOVE, System.nanoTime() - start);
+        metrics.fileFailed();
+    }
+
+    private static void closeJournal(WorkJournal.Entry journal) {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Removes the journal of a file that has left the input folder.
+     */
+    private static void deleteJournal(WorkJournal.Entry journal) {
+        if (journal != null) {
+            journal.delete();
+        }
+    }
+
+    /**
+     * Frees the file slot of a file, which may stay in the pipeline until its
+     * batch is committed.
+     */
+    private void releaseFileSlot(File file) {
+        IntakeScheduler.Ticket ticket = filesInFlight.get(file.getAbsolutePath());
+        if (ticket != null) {
+            scheduler.fileDone(ticket);
+            dispatch();
+        }
+    }
+
+    private void finished(File file) {
+        IntakeScheduler.Ticket ticket = filesInFlight.remove(file.getAbsolutePath());
+        if (ticket != null) {
+            scheduler.fileDone(ticket);
+            dispatch();
+        }
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * Scans tiff files that are posted over http, as an alternative to dropping
+ * them in the input folder. A request posts the raw tiff file to /barcodes,
+ * optionally with the file name for the output as the fileName query
+ * parameter, and the response is the output in the {@link OutputFormat}.
+ * <p>
+ * The tiff file is read on one of a fixed number of request threads while it
+ * arrives, its pages are decoded by the {@link PageDecodeExecutor} like the
+ * pages of the input files, and the output is streamed back as the pages are
+ * decoded. Requests that find all request threads busy wait in a bounded
+ * queue. When the queue is full as well a request is answered right away with
+ * 429 Too Many Requests, so clients back off instead of piling up.
+ * <p>
+ * A request that is not a tiff file is answered with 400 Bad Request. When a
+ * file fails after part of the output was sent, the connection is closed
+ * without the end of the chunked response, so the client sees the response
+ * break off instead of a complete response with a truncated document.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+class ScanService implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(ScanService.class.getName());
+    private static final String DEFAULT_FILE_NAME = "request.tif";
+
+    private final BarcodeScanner barcodeScanner;
+    private final HttpServer httpServer;
+    private final ExecutorService requestExecutor;
+    private final ExecutorService outputExecutor;
+    private final Semaphore requestSlots;
+
+    /**
+     * Starts the service.
+     *
+     * @param port The port to listen on, or 0 for any free port.
+     * @param threads The number of requests that are read at the same time.
+     * @param queueSize The number of requests that may wait for a thread.
+     * @throws IOException When the port is already in use.
+     */
+    ScanService(BarcodeScanner barcodeScanner, int port, int threads, int queueSize) throws IOException {
+        this.barcodeScanner = barcodeScanner;
+        int poolSize = Math.max(threads, 1);
+        requestExecutor = Executors.newFixedThreadPool(poolSize, new NamedThreadFactory("http-request"));
+        // Every request being read has one thread writing its response
+        outputExecutor = Executors.newFixedThreadPool(poolSize, new NamedThreadFactory("http-output"));
+        requestSlots = new Semaphore(poolSize + Math.max(queueSize, 0));
+        httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+        httpServer.createContext("/barcodes", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                accept(exchange);
+            }
+        });
+        // The requests are accepted on the dispatcher thread of the server,
+        // which must never block
+        httpServer.setExecutor(null);
+        httpServer.start();
+    }
+
+    int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    private void accept(final HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            sendError(exchange, 405, "Post a tiff file to scan it.");
+            return;
+        }
+        if (!requestSlots.tryAcquire()) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendError(exchange, 429, "The barcode scanner is busy. Try again later.");
+            return;
+        }
+        try {
+            requestExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        scan(exchange);
+                    } finally {
+                        requestSlots.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            requestSlots.release();
+            sendError(exchange, 503, "The barcode scanner is shutting down.");
+        }
+    }
+
+    private void scan(HttpExchange exchange) {
+        final String fileName = fileNameOf(exchange);
+        final PageResults pageResults = new PageResults();
+        InputStream requestBody = exchange.getRequestBody();
+        final ResponseStream responseStream = new ResponseStream(exchange,
+                barcodeScanner.getOutputFormat().getContentType());
+        boolean completed = false;
+        try {
+            Future<Void> output = outputExecutor.submit(new Callable<Void>() {
+
+                @Override
+                public Void call() throws IOException {
+                    // Every page is flushed, the buffer only joins the small
+                    // writes of a page
+                    barcodeScanner.writeDocument(fileName, pageResults, new BufferedOutputStream(responseStream));
+                    return null;
+                }
+            });
+            ImageInputStream iis = new MemoryCacheImageInputStream(requestBody);
+            try {
+                barcodeScanner.readTiffPages(iis, fileName, pageResults);
+                pageResults.close();
+            } catch (IOException ex) {
+                pageResults.fail(ex);
+            } catch (RuntimeException ex) {
+                pageResults.fail(new IOException(ex));
+            } catch (Error ex) {
+                // The output thread waits for the end of the pages, even when
+                // the reader ran out of memory
+                pageResults.fail(new IOException(ex));
+                throw ex;
+            } finally {
+                iis.close();
+            }
+            output.get();
+            completed = true;
+        } catch (ExecutionException ex) {
+            LOGGER.log(Level.WARNING, "The barcodes of the posted file " + fileName + " could not be read.", ex.getCause());
+            if (!responseStream.isCommitted()) {
+                sendError(exchange, 400, "The posted file could not be read as a tiff file.");
+            }
+        } catch (InterruptedException ex) {
+            pageResults.cancel();
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, null, ex);
+        } catch (RejectedExecutionException ex) {
+            sendError(exchange, 503, "The barcode scanner is shutting down.");
+        } finally {
+            if (!completed) {
+                responseStream.abort();
+            }
+            exchange.close();
+        }
+    }
+
+    private static String fileNameOf(HttpExchange exchange) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith("fileName=") && parameter.length() > "fileName=".length()) {
+                    try {
+                        return URLDecoder.decode(parameter.substring("fileName=".length()), "UTF-8");
+                    } catch (UnsupportedEncodingException ex) {
+                        throw new IllegalStateException(ex);
+                    } catch (IllegalArgumentException ex) {
+                        LOGGER.log(Level.FINE, "The fileName parameter {0} is not url encoded.", parameter);
+                    }
+                }
+            }
+        }
+        return DEFAULT_FILE_NAME;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) {
+        try {
+            byte[] body = message.getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, "The error response could not be sent.", ex);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Stops accepting requests and lets the requests that are being read
+     * finish.
+     */
+    @Override
+    public void close() {
+        httpServer.stop(0);
+        requestExecutor.shutdown();
+        outputExecutor.shutdown();
+    }
+
+    /**
+     * The response body, whose 200 OK status line is only sent when the first
+     * page is written. Until then the request can still fail with an error
+     * status.
+     * <p>
+     * The stream takes the place of the response body of the exchange. When
+     * it is aborted, closing the exchange fails to close it, upon which the
+     * http server closes the connection without ending the chunked response.
+     */
+    private static class ResponseStream extends OutputStream {
+
+        private final HttpExchange exchange;
+        private final String contentType;
+        private final OutputStream body;
+        private volatile boolean aborted;
+
+        /**
+         * Must be created after the request body was taken from the exchange.
+         */
+        ResponseStream(HttpExchange exchange, String contentType) {
+            this.exchange = exchange;
+            this.contentType = contentType;
+            body = exchange.getResponseBody();
+            exchange.setStreams(null, this);
+        }
+
+        boolean isCommitted() {
+            return exchange.getResponseCode() != -1;
+        }
+
+        /**
+         * Makes closing the stream close the connection, so that a response
+         * that is not complete is not taken for a complete one.
+         */
+        void abort() {
+            aborted = true;
+        }
+
+        private OutputStream body() throws IOException {
+            if (aborted) {
+                throw new IOException("The response was aborted.");
+            }
+            if (!isCommitted()) {
+                exchange.getResponseHeaders().set("Content-Type", contentType);
+                // A length of 0 sends the body in chunks as it is written
+                exchange.sendResponseHeaders(200, 0);
+            }
+            return body;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            body().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            body().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (isCommitted() && !aborted) {
+                body.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            body().close();
+        }
+    }
+}
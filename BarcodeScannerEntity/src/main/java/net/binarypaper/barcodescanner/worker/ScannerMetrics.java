@@ -0,0 +1,384 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+
+/**
+ * Counts the work of the barcode scanner: the files and pages it processed,
+ * the barcodes it found, the time every stage of the pipeline takes and the
+ * depth of its queues. The metrics are published over JMX and can be written
+ * in the Prometheus text format for the {@link MetricsEndpoint}.
+ * <p>
+ * Recording is lock free apart from the pages per second, so the metrics are
+ * shared by all pipeline threads.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+class ScannerMetrics implements ScannerMetricsMXBean {
+
+    static final String OBJECT_NAME = "net.binarypaper.barcodescanner:type=ScannerMetrics";
+    private static final Logger LOGGER = Logger.getLogger(ScannerMetrics.class.getName());
+    private static final String PREFIX = "barcodescanner_";
+    private static final int RATE_WINDOW_SECONDS = 60;
+
+    /**
+     * The stages whose durations are recorded.
+     */
+    enum Stage {
+
+        /**
+         * Waiting in the intake queue for a free intake thread and file slot.
+         */
+        QUEUE,
+        /**
+         * Opening and validating an input file.
+         */
+        INTAKE,
+        /**
+         * Reading or rendering the image of one page.
+         */
+        READ,
+        /**
+         * Decoding the barcodes of one page.
+         */
+        DECODE,
+        /**
+         * Writing the output of one file, without waiting for its pages.
+         */
+        MARSHAL,
+        /**
+         * Removing a processed input file or moving it to the error folder.
+         */
+        MOVE
+    }
+
+    /**
+     * A value that is read when the metrics are read, like a queue size.
+     */
+    interface Gauge {
+
+        long value();
+    }
+
+    private final DecodeStrategy decodeStrategy;
+    private final ResultCache resultCache;
+    private final BlankPageFilter blankPageFilter;
+    private final AtomicLong filesProcessed = new AtomicLong();
+    private final AtomicLong filesFailed = new AtomicLong();
+    private final AtomicLong pagesProcessed = new AtomicLong();
+    private final AtomicLong pagesFailed = new AtomicLong();
+    private final AtomicLong pagesResumed = new AtomicLong();
+    private final AtomicLong pagesBlank = new AtomicLong();
+    private final AtomicLongArray barcodesPerType = new AtomicLongArray(BarcodeType.values().length);
+    private final Map<Stage, LatencyHistogram> stageHistograms = new EnumMap<Stage, LatencyHistogram>(Stage.class);
+    private final Map<String, Gauge> queues = new ConcurrentSkipListMap<String, Gauge>();
+    // Pages decoded per second in a ring of the last seconds
+    private final long[] pagesInSecond = new long[RATE_WINDOW_SECONDS];
+    private final long[] secondOfSlot = new long[RATE_WINDOW_SECONDS];
+
+    /**
+     * @param decodeStrategy The strategy whose resolved pages per tier are
+     * published.
+     * @param resultCache The cache whose lookups are published.
+     * @param blankPageFilter The filter whose ink threshold is published.
+     */
+    ScannerMetrics(DecodeStrategy decodeStrategy, ResultCache resultCache, BlankPageFilter blankPageFilter) {
+        this.decodeStrategy = decodeStrategy;
+        this.resultCache = resultCache;
+        this.blankPageFilter = blankPageFilter;
+        for (Stage stage : Stage.values()) {
+            stageHistograms.put(stage, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server. A failure is
+     * logged, the scanner works without JMX.
+     */
+    void registerMBean() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            mBeanServer.registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException ex) {
+            LOGGER.log(Level.WARNING, "The metrics could not be registered over JMX.", ex);
+        }
+    }
+
+    /**
+     * Adds a queue whose depth is published under the given name.
+     */
+    void addQueue(String name, Gauge depth) {
+        queues.put(name, depth);
+    }
+
+    void recordStage(Stage stage, long nanos) {
+        stageHistograms.get(stage).record(nanos);
+    }
+
+    void fileProcessed() {
+        filesProcessed.incrementAndGet();
+    }
+
+    void fileFailed() {
+        filesFailed.incrementAndGet();
+    }
+
+    /**
+     * Counts a decoded page and the barcodes found on it.
+     */
+    void pageProcessed(List<Barcode> barcodes) {
+        pagesProcessed.incrementAndGet();
+        for (Barcode barcode : barcodes) {
+            barcodesPerType.incrementAndGet(barcode.getType().ordinal());
+        }
+        long second = System.currentTimeMillis() / 1000;
+        int slot = (int) (second % RATE_WINDOW_SECONDS);
+        synchronized (pagesInSecond) {
+            if (secondOfSlot[slot] != second) {
+                secondOfSlot[slot] = second;
+                pagesInSecond[slot] = 0;
+            }
+            pagesInSecond[slot]++;
+        }
+    }
+
+    /**
+     * Counts a page that could not be read or decoded.
+     */
+    void pageFailed() {
+        pagesFailed.incrementAndGet();
+    }
+
+    /**
+     * Counts pages that were taken from the work journal instead of being
+     * decoded again.
+     */
+    void pagesResumed(int pages) {
+        pagesResumed.addAndGet(pages);
+    }
+
+    /**
+     * Counts a page that was found blank and was not decoded. The page is
+     * counted as processed as well.
+     */
+    void pageBlank() {
+        pagesBlank.incrementAndGet();
+    }
+
+    @Override
+    public long getFilesProcessed() {
+        return filesProcessed.get();
+    }
+
+    @Override
+    public long getFilesFailed() {
+        return filesFailed.get();
+    }
+
+    @Override
+    public long getPagesProcessed() {
+        return pagesProcessed.get();
+    }
+
+    @Override
+    public long getPagesFailed() {
+        return pagesFailed.get();
+    }
+
+    @Override
+    public long getPagesResumed() {
+        return pagesResumed.get();
+    }
+
+    @Override
+    public long getPagesBlank() {
+        return pagesBlank.get();
+    }
+
+    @Override
+    public double getBlankPageInkPercent() {
+        return blankPageFilter.getMaxInkPercent();
+    }
+
+    @Override
+    public double getPagesPerSecond() {
+        long second = System.currentTimeMillis() / 1000;
+        long pages = 0;
+        synchronized (pagesInSecond) {
+            for (int i = 0; i < RATE_WINDOW_SECONDS; i++) {
+                if (second - secondOfSlot[i] < RATE_WINDOW_SECONDS) {
+                    pages += pagesInSecond[i];
+                }
+            }
+        }
+        return (double) pages / RATE_WINDOW_SECONDS;
+    }
+
+    @Override
+    public Map<String, Long> getBarcodesPerType() {
+        Map<String, Long> barcodes = new LinkedHashMap<String, Long>();
+        for (BarcodeType type : BarcodeType.values()) {
+            barcodes.put(type.name(), barcodesPerType.get(type.ordinal()));
+        }
+        return barcodes;
+    }
+
+    @Override
+    public Map<String, Long> getPagesResolvedPerTier() {
+        Map<String, Long> pages = new LinkedHashMap<String, Long>();
+        for (DecodeTier tier : decodeStrategy.getTiers()) {
+            pages.put(tier.name(), decodeStrategy.getResolvedPages(tier));
+        }
+        pages.put("none", decodeStrategy.getUnresolvedPages());
+        return pages;
+    }
+
+    @Override
+    public Map<String, Long> getResultCacheLookups() {
+        Map<String, Long> lookups = new LinkedHashMap<String, Long>();
+        for (ResultCache.Kind kind : ResultCache.Kind.values()) {
+            for (ResultCache.Lookup lookup : ResultCache.Lookup.values()) {
+                lookups.put(kind.name().toLowerCase() + "_" + lookup.name().toLowerCase(), resultCache.getLookups(kind, lookup));
+            }
+        }
+        return lookups;
+    }
+
+    @Override
+    public int getResultCachePages() {
+        return resultCache.getCachedPages();
+    }
+
+    @Override
+    public Map<String, Long> getQueueDepths() {
+        Map<String, Long> depths = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, Gauge> queue : queues.entrySet()) {
+            depths.put(queue.getKey(), queue.getValue().value());
+        }
+        return depths;
+    }
+
+    @Override
+    public Map<String, Double> getStageMeanMillis() {
+        Map<String, Double> means = new LinkedHashMap<String, Double>();
+        for (Stage stage : Stage.values()) {
+            means.put(labelOf(stage), stageHistograms.get(stage).getMeanMillis());
+        }
+        return means;
+    }
+
+    @Override
+    public Map<String, Double> getStage95thPercentileMillis() {
+        Map<String, Double> percentiles = new LinkedHashMap<String, Double>();
+        for (Stage stage : Stage.values()) {
+            percentiles.put(labelOf(stage), stageHistograms.get(stage).getPercentileMillis(0.95));
+        }
+        return percentiles;
+    }
+
+    private static String labelOf(Stage stage) {
+        return stage.name().toLowerCase();
+    }
+
+    /**
+     * Returns the metrics in the Prometheus text exposition format.
+     */
+    String toPrometheusText() {
+        StringBuilder text = new StringBuilder();
+        appendHeader(text, "files_processed_total", "counter", "Input files whose output was written.");
+        appendSample(text, "files_processed_total", "", getFilesProcessed());
+        appendHeader(text, "files_failed_total", "counter", "Input files that were moved to the error folder.");
+        appendSample(text, "files_failed_total", "", getFilesFailed());
+        appendHeader(text, "pages_processed_total", "counter", "Pages that were decoded.");
+        appendSample(text, "pages_processed_total", "", getPagesProcessed());
+        appendHeader(text, "pages_failed_total", "counter", "Pages that could not be read or decoded.");
+        appendSample(text, "pages_failed_total", "", getPagesFailed());
+        appendHeader(text, "pages_resumed_total", "counter", "Pages taken from the work journal instead of being decoded again.");
+        appendSample(text, "pages_resumed_total", "", getPagesResumed());
+        appendHeader(text, "pages_blank_total", "counter", "Pages found blank and not decoded.");
+        appendSample(text, "pages_blank_total", "", getPagesBlank());
+        appendHeader(text, "blank_page_ink_percent", "gauge", "The highest percentage of dark pixels on a blank page, 0 when pages are always decoded.");
+        appendSample(text, "blank_page_ink_percent", "", getBlankPageInkPercent());
+        appendHeader(text, "pages_resolved_total", "counter", "Pages resolved per decode tier, none for pages without barcodes.");
+        for (Map.Entry<String, Long> tier : getPagesResolvedPerTier().entrySet()) {
+            appendSample(text, "pages_resolved_total", label("tier", tier.getKey()), tier.getValue());
+        }
+        appendHeader(text, "barcodes_total", "counter", "Barcodes found per barcode type.");
+        for (Map.Entry<String, Long> type : getBarcodesPerType().entrySet()) {
+            appendSample(text, "barcodes_total", label("type", type.getKey()), type.getValue());
+        }
+        appendHeader(text, "result_cache_lookups_total", "counter", "Result cache lookups per kind of entry and outcome.");
+        for (ResultCache.Kind kind : ResultCache.Kind.values()) {
+            for (ResultCache.Lookup lookup : ResultCache.Lookup.values()) {
+                appendSample(text, "result_cache_lookups_total",
+                        label("kind", kind.name().toLowerCase()) + "," + label("result", lookup.name().toLowerCase()),
+                        resultCache.getLookups(kind, lookup));
+            }
+        }
+        appendHeader(text, "result_cache_pages", "gauge", "Pages held in the memory of the result cache.");
+        appendSample(text, "result_cache_pages", "", getResultCachePages());
+        appendHeader(text, "queue_depth", "gauge", "Files or pages waiting in a queue of the pipeline.");
+        for (Map.Entry<String, Long> queue : getQueueDepths().entrySet()) {
+            appendSample(text, "queue_depth", label("queue", queue.getKey()), queue.getValue());
+        }
+        appendHeader(text, "stage_duration_seconds", "histogram", "Duration of the stages of the pipeline.");
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = stageHistograms.get(stage);
+            String stageLabel = label("stage", labelOf(stage));
+            for (int i = 0; i < LatencyHistogram.BUCKET_SECONDS.length; i++) {
+                appendSample(text, "stage_duration_seconds_bucket",
+                        stageLabel + "," + label("le", Double.toString(LatencyHistogram.BUCKET_SECONDS[i])),
+                        histogram.getCumulativeCount(i));
+            }
+            appendSample(text, "stage_duration_seconds_bucket", stageLabel + "," + label("le", "+Inf"), histogram.getCount());
+            appendSample(text, "stage_duration_seconds_sum", stageLabel, histogram.getSumSeconds());
+            appendSample(text, "stage_duration_seconds_count", stageLabel, histogram.getCount());
+        }
+        return text.toString();
+    }
+
+    private static String label(String name, String value) {
+        return name + "=\"" + value + "\"";
+    }
+
+    private static void appendHeader(StringBuilder text, String name, String type, String help) {
+        text.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void appendSample(StringBuilder text, String name, String labels, Object value) {
+        text.append(PREFIX).append(name);
+        if (!labels.isEmpty()) {
+            text.append('{').append(labels).append('}');
+        }
+        text.append(' ').append(value).append('\n');
+    }
+}
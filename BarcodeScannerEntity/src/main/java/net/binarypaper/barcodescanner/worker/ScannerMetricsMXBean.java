@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.util.Map;
+
+/**
+ * The metrics of the barcode scanner as seen over JMX, for example in
+ * JConsole or VisualVM.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public interface ScannerMetricsMXBean {
+
+    long getFilesProcessed();
+
+    long getFilesFailed();
+
+    long getPagesProcessed();
+
+    /**
+     * The number of pages that could not be read or decoded, and are written
+     * with an error instead of barcodes.
+     */
+    long getPagesFailed();
+
+    /**
+     * The number of pages taken from the work journal after a restart instead
+     * of being decoded again.
+     */
+    long getPagesResumed();
+
+    /**
+     * The number of pages found blank and not decoded. They are counted as
+     * processed pages as well.
+     */
+    long getPagesBlank();
+
+    /**
+     * The highest percentage of dark pixels on a page that is found blank,
+     * or 0 when pages are always decoded.
+     */
+    double getBlankPageInkPercent();
+
+    /**
+     * The average number of pages decoded per second over the last minute.
+     */
+    double getPagesPerSecond();
+
+    /**
+     * The number of barcodes found per barcode type.
+     */
+    Map<String, Long> getBarcodesPerType();
+
+    /**
+     * The number of pages resolved per decode tier, and the number of pages
+     * without barcodes as none.
+     */
+    Map<String, Long> getPagesResolvedPerTier();
+
+    /**
+     * The number of result cache lookups per kind of entry and outcome, for
+     * example page_memory_hit or file_miss.
+     */
+    Map<String, Long> getResultCacheLookups();
+
+    /**
+     * The number of pages held in the memory of the result cache.
+     */
+    int getResultCachePages();
+
+    /**
+     * The number of files or pages waiting in every queue of the pipeline.
+     */
+    Map<String, Long> getQueueDepths();
+
+    /**
+     * The average duration in milliseconds per stage.
+     */
+    Map<String, Double> getStageMeanMillis();
+
+    /**
+     * An upper estimate of the 95th percentile duration in milliseconds per
+     * stage.
+     */
+    Map<String, Double> getStage95thPercentileMillis();
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.MissingResourceException;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Typed access to the settings in config.properties. Optional settings that
+ * are missing or blank fall back to the supplied default value, so that
+ * existing configuration files keep working when new settings are added.
+ * <p>
+ * Every config.properties on the class path is read, and a setting is taken
+ * from the first file that has it. A config.properties that is placed ahead
+ * of the one in the jar, like the one of the unit tests, therefore only needs
+ * the settings it changes.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+final class Settings {
+
+    private static final Logger LOGGER = Logger.getLogger(Settings.class.getName());
+    private static final Properties settings = load();
+
+    private Settings() {
+    }
+
+    private static Properties load() {
+        Properties settings = new Properties();
+        try {
+            List<URL> files = Collections.list(Settings.class.getClassLoader().getResources("config.properties"));
+            // The files at the end of the class path are read first, so that
+            // the files before them replace their settings
+            Collections.reverse(files);
+            for (URL file : files) {
+                InputStream input = file.openStream();
+                try {
+                    settings.load(input);
+                } finally {
+                    input.close();
+                }
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("The settings in config.properties could not be read.", ex);
+        }
+        return settings;
+    }
+
+    /**
+     * Returns a setting that must be set.
+     *
+     * @throws MissingResourceException When the setting is missing.
+     */
+    static String getString(String key) {
+        String value = settings.getProperty(key);
+        if (value == null) {
+            throw new MissingResourceException("The setting " + key + " is missing from config.properties.",
+                    Settings.class.getName(), key);
+        }
+        return value;
+    }
+
+    static String getString(String key, String defaultValue) {
+        String value = settings.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        value = value.trim();
+        return value.isEmpty() ? defaultValue : value;
+    }
+
+    static int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            LOGGER.log(Level.WARNING, "The setting {0}={1} is not a valid number. The default value {2} will be used.",
+                    new Object[]{key, value, defaultValue});
+            return defaultValue;
+        }
+    }
+
+    static double getDouble(String key, double defaultValue) {
+        String value = getString(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException ex) {
+            LOGGER.log(Level.WARNING, "The setting {0}={1} is not a valid number. The default value {2} will be used.",
+                    new Object[]{key, value, defaultValue});
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Moves files to a name that is not taken yet, in folders that other nodes
+ * and other programs write to as well. A rename replaces a file that appears
+ * under the new name after the name was found to be free, so the file is
+ * linked to the new name instead, which fails when the name is taken, and is
+ * then removed from its old name. The new name never shows a partial file.
+ * <p>
+ * On file systems without hard links the new name is reserved with an empty
+ * file first, which the file then replaces.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+final class UniqueFileMove {
+
+    private UniqueFileMove() {
+    }
+
+    /**
+     * Moves a file to the name and extension in a folder, or to the name with
+     * _1, _2 and so on added before the extension when the name is taken.
+     *
+     * @param extension The extension with its dot, or an empty string.
+     * @return The file the file was moved to.
+     * @throws NoSuchFileException When the file or the folder does not exist.
+     */
+    static File move(File file, File folder, String name, String extension) throws IOException {
+        File target = new File(folder, name + extension);
+        for (int i = 1; !moveIfFree(file.toPath(), target.toPath()); i++) {
+            target = new File(folder, name + "_" + i + extension);
+        }
+        return target;
+    }
+
+    /**
+     * Moves a file to a name unless the name is taken.
+     *
+     * @return False when the name is taken.
+     */
+    private static boolean moveIfFree(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+        } catch (FileAlreadyExistsException ex) {
+            return false;
+        } catch (NoSuchFileException ex) {
+            throw ex;
+        } catch (UnsupportedOperationException ex) {
+            return reserveAndMove(source, target);
+        } catch (FileSystemException ex) {
+            // The file system does not support hard links after all
+            return reserveAndMove(source, target);
+        }
+        try {
+            Files.delete(source);
+        } catch (IOException ex) {
+            // The file may not be left under both names
+            Files.deleteIfExists(target);
+            throw ex;
+        }
+        return true;
+    }
+
+    private static boolean reserveAndMove(Path source, Path target) throws IOException {
+        try {
+            Files.createFile(target);
+        } catch (FileAlreadyExistsException ex) {
+            return false;
+        }
+        boolean moved = false;
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(target);
+            }
+        }
+        return true;
+    }
+}
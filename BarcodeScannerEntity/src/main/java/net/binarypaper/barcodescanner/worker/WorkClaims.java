@@ -0,0 +1,323 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shares the input folder between several barcode scanner nodes, for example
+ * on separate hosts that mount the input folder over NFS.
+ * <p>
+ * A node claims an input file by moving it into its own folder in the
+ * .inprogress folder of the input folder. The move is an atomic rename, so
+ * when two nodes claim the same file only one of them succeeds. A file is
+ * claimed when an intake thread starts on it, not when it is queued. The files
+ * that are queued on a busy node therefore stay in the input folder, where the
+ * nodes with free threads take them, and every node takes work at the rate it
+ * can process it.
+ * <p>
+ * Every node keeps a lease file next to its folder, which it rewrites at a
+ * quarter of the lease time. The other nodes watch the content of the lease
+ * files with their own clocks, so the clocks of the hosts do not need to
+ * agree. When a lease has not changed for the lease time, the node is taken to
+ * be down. The first node that renames its lease file takes it over, and moves
+ * the claimed files of the node back to the input folder, where they are
+ * claimed again. A node that is started again with the same name returns its
+ * own claimed files the same way. A file is therefore scanned at least once,
+ * and twice only when a node that was taken to be down was still busy with it.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+final class WorkClaims implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(WorkClaims.class.getName());
+    static final String IN_PROGRESS_FOLDER = ".inprogress";
+    private static final String LEASE_EXTENSION = ".lease";
+    private static final String REAPED_EXTENSION = ".reaped";
+
+    private final File inputFolder;
+    private final File inProgressFolder;
+    private final String nodeId;
+    private final File nodeFolder;
+    private final File leaseFile;
+    private final long leaseMillis;
+    private final Map<String, Observation> observations = new HashMap<String, Observation>();
+    private ScheduledExecutorService heartbeat;
+    private long leaseSequence;
+
+    /**
+     * @param nodeId The name of this node, which must differ from the names
+     * of the other nodes.
+     * @param leaseMillis The time after which a node that stopped renewing its
+     * lease is taken to be down.
+     */
+    WorkClaims(File inputFolder, String nodeId, long leaseMillis) {
+        this.inputFolder = inputFolder;
+        this.inProgressFolder = new File(inputFolder, IN_PROGRESS_FOLDER);
+        this.nodeId = nodeId.replaceAll("[^A-Za-z0-9._-]", "_");
+        this.nodeFolder = new File(inProgressFolder, this.nodeId);
+        this.leaseFile = new File(inProgressFolder, this.nodeId + LEASE_EXTENSION);
+        this.leaseMillis = Math.max(leaseMillis, 4);
+    }
+
+    /**
+     * Loads the claims of the nodeId and leaseSeconds settings.
+     *
+     * @return The claims, or null when no nodeId is set and this node reads
+     * the input folder on its own.
+     */
+    static WorkClaims load(File inputFolder) {
+        String nodeId = Settings.getString("nodeId", null);
+        if (nodeId == null) {
+            return null;
+        }
+        return new WorkClaims(inputFolder, nodeId, Settings.getInt("leaseSeconds", 60) * 1000L);
+    }
+
+    String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Takes the lease of this node, returns the files this node claimed before
+     * it was restarted, and starts renewing the lease.
+     *
+     * @throws IOException When the lease can not be written.
+     */
+    void start() throws IOException {
+        // Another node may create the folder at the same time
+        if (!inProgressFolder.mkdirs() && !inProgressFolder.isDirectory()) {
+            throw new IOException("The folder " + inProgressFolder.getAbsolutePath() + " could not be created.");
+        }
+        // The lease is written before the folder exists, so the other nodes
+        // never see the folder without a lease
+        renewLease();
+        if (!nodeFolder.isDirectory() && !nodeFolder.mkdir()) {
+            throw new IOException("The folder " + nodeFolder.getAbsolutePath() + " could not be created.");
+        }
+        int returnedFiles = returnFiles(nodeFolder);
+        if (returnedFiles > 0) {
+            LOGGER.log(Level.INFO, "Returned {0} files that node {1} claimed before it was restarted.",
+                    new Object[]{returnedFiles, nodeId});
+        }
+        heartbeat = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("lease-heartbeat"));
+        heartbeat.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                heartbeat();
+            }
+        }, leaseMillis / 4, leaseMillis / 4, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Claims an input file for this node.
+     *
+     * @return The claimed file in the folder of this node, or null when the
+     * file was claimed by another node first.
+     */
+    File claim(File file) {
+        File claimedFile = new File(nodeFolder, file.getName());
+        if (claimedFile.exists()) {
+            // A file of the same name is still being scanned, the file is
+            // claimed once it is done
+            return null;
+        }
+        try {
+            Files.move(file.toPath(), claimedFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            return claimedFile;
+        } catch (NoSuchFileException ex) {
+            if (!file.exists()) {
+                LOGGER.log(Level.FINE, "The input file {0} was claimed by another node.", file.getName());
+                return null;
+            }
+            // The folder of this node is missing, which the next heartbeat
+            // repairs
+            LOGGER.log(Level.WARNING, "The input file " + file.getAbsolutePath() + " could not be claimed.", ex);
+            return null;
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "The input file " + file.getAbsolutePath() + " could not be claimed.", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Renews the lease of this node and takes over the claimed files of the
+     * nodes whose lease expired.
+     */
+    synchronized void heartbeat() {
+        try {
+            if (leaseSequence > 0 && !leaseFile.isFile()) {
+                LOGGER.log(Level.SEVERE, "The lease of node {0} was taken over by another node, which returned the files of this node to the input folder. The lease time is too short.",
+                        nodeId);
+            }
+            renewLease();
+            // A node that was taken over lost its folder as well, and can
+            // not claim files until the folder is back
+            if (!nodeFolder.isDirectory() && !nodeFolder.mkdirs()) {
+                throw new IOException("The folder " + nodeFolder.getAbsolutePath() + " could not be created.");
+            }
+        } catch (IOException ex) {
+            LOGGER.log(Level.SEVERE, "The lease of node " + nodeId + " could not be renewed.", ex);
+        }
+        File[] entries = inProgressFolder.listFiles();
+        if (entries == null) {
+            LOGGER.log(Level.WARNING, "The folder {0} could not be listed.", inProgressFolder.getAbsolutePath());
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Map<String, Observation> seen = new HashMap<String, Observation>();
+        for (File entry : entries) {
+            // Every other node is watched through its folder, whose lease may
+            // be missing when a node went down while it was taken over
+            if (!entry.isDirectory() || entry.getName().equals(nodeId)) {
+                continue;
+            }
+            String otherNodeId = entry.getName();
+            String lease = readLease(otherNodeId);
+            Observation observation = observations.get(otherNodeId);
+            if (observation == null || !observation.lease.equals(lease)) {
+                observation = new Observation(lease, now);
+            } else if (now - observation.unchangedSince >= leaseMillis) {
+                takeOver(otherNodeId, lease.isEmpty());
+                continue;
+            }
+            seen.put(otherNodeId, observation);
+        }
+        observations.clear();
+        observations.putAll(seen);
+    }
+
+    private void renewLease() throws IOException {
+        leaseSequence++;
+        FileOutputStream outputStream = new FileOutputStream(leaseFile);
+        try {
+            outputStream.write((nodeId + " " + leaseSequence + " " + System.currentTimeMillis() + "\n").getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Returns the content of the lease of a node, or an empty string when the
+     * node has no lease.
+     */
+    private String readLease(String otherNodeId) {
+        try {
+            return new String(Files.readAllBytes(new File(inProgressFolder, otherNodeId + LEASE_EXTENSION).toPath()), "UTF-8");
+        } catch (NoSuchFileException ex) {
+            return "";
+        } catch (IOException ex) {
+            LOGGER.log(Level.FINE, null, ex);
+            return "";
+        }
+    }
+
+    /**
+     * Takes over the lease of a node that is down and returns its claimed
+     * files to the input folder.
+     */
+    private void takeOver(String otherNodeId, boolean withoutLease) {
+        File reapedFile = new File(inProgressFolder, otherNodeId + REAPED_EXTENSION);
+        if (!withoutLease) {
+            try {
+                // Only the node that renames the lease returns the files
+                Files.move(new File(inProgressFolder, otherNodeId + LEASE_EXTENSION).toPath(), reapedFile.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (NoSuchFileException ex) {
+                return;
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "The lease of node " + otherNodeId + " could not be taken over.", ex);
+                return;
+            }
+        }
+        File otherNodeFolder = new File(inProgressFolder, otherNodeId);
+        int returnedFiles = returnFiles(otherNodeFolder);
+        reapedFile.delete();
+        otherNodeFolder.delete();
+        LOGGER.log(Level.WARNING, "The lease of node {0} expired. Node {1} returned its {2} claimed files to the input folder.",
+                new Object[]{otherNodeId, nodeId, returnedFiles});
+    }
+
+    /**
+     * Moves the claimed files in a node folder back to the input folder. A
+     * file whose name is taken in the input folder gets a number added before
+     * its file extension. A file that is dropped in the input folder under
+     * the same name at the same time is never replaced.
+     *
+     * @return The number of files that were returned.
+     */
+    private int returnFiles(File folder) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        int returnedFiles = 0;
+        for (File file : files) {
+            String fileName = file.getName();
+            int extensionStart = fileName.lastIndexOf('.') > 0 ? fileName.lastIndexOf('.') : fileName.length();
+            try {
+                UniqueFileMove.move(file, inputFolder, fileName.substring(0, extensionStart), fileName.substring(extensionStart));
+                returnedFiles++;
+            } catch (NoSuchFileException ex) {
+                // Returned by another node or finished after all
+                LOGGER.log(Level.FINE, null, ex);
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "The claimed file " + file.getAbsolutePath() + " could not be returned to the input folder.", ex);
+            }
+        }
+        return returnedFiles;
+    }
+
+    /**
+     * Stops renewing the lease. The files that are still claimed are returned
+     * when this node is started again, or by another node once the lease
+     * expires.
+     */
+    @Override
+    public void close() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+        }
+    }
+
+    /**
+     * The lease of another node as it was last seen.
+     */
+    private static class Observation {
+
+        private final String lease;
+        private final long unchangedSince;
+
+        Observation(String lease, long unchangedSince) {
+            this.lease = lease;
+            this.unchangedSince = unchangedSince;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import net.binarypaper.barcodescanner.entity.Page;
+
+/**
+ * An append-only journal of the decoded pages of the input files that are
+ * being scanned. A scanner that is restarted partway through a large file
+ * takes the pages it already decoded from the journal, and only reads and
+ * decodes the pages after them.
+ * <p>
+ * Every input file has its own journal file in the journal folder, named by
+ * the key of the file content. A page is appended to it as soon as it is
+ * written to the output. A record holds the length of the page, the page in
+ * the format of the {@link BinaryDocumentWriter} and a CRC32 of the page. It
+ * is appended in a single write, so it survives a crash of the process. A
+ * record that was cut short or damaged when the machine went down fails its
+ * length or checksum check, and the journal is cut back to the records before
+ * it.
+ * <p>
+ * The journal of a file is removed when the file leaves the input folder,
+ * either because its output was written or because it was moved to the error
+ * folder.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+final class WorkJournal {
+
+    private static final Logger LOGGER = Logger.getLogger(WorkJournal.class.getName());
+    private static final int MAGIC = 0x4243534A;
+    private static final int HEADER_LENGTH = 8;
+
+    private final File folder;
+
+    /**
+     * @param folder The folder to keep the journals in, or null to not keep
+     * journals.
+     */
+    WorkJournal(File folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Loads the journal of the journalFolder setting.
+     */
+    static WorkJournal load() {
+        String folderName = Settings.getString("journalFolder", null);
+        File folder = null;
+        if (folderName != null) {
+            folder = new File(folderName);
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                LOGGER.log(Level.WARNING, "The work journal folder {0} could not be created. No work journal is kept.",
+                        folder.getAbsolutePath());
+                folder = null;
+            }
+        }
+        return new WorkJournal(folder);
+    }
+
+    boolean isEnabled() {
+        return folder != null;
+    }
+
+    /**
+     * Opens the journal of an input file, and reads the pages that were
+     * journaled before a restart.
+     *
+     * @param fileKey The result cache key of the input file.
+     */
+    Entry open(String fileKey) throws IOException {
+        File file = new File(folder, fileKey + ".journal");
+        Map<Integer, Page> pages = new TreeMap<Integer, Page>();
+        long validLength = file.isFile() ? read(file, pages) : 0;
+        if (validLength < file.length()) {
+            LOGGER.log(Level.WARNING, "The work journal {0} ends in a damaged record, which is dropped.", file.getAbsolutePath());
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.setLength(validLength);
+            } finally {
+                randomAccessFile.close();
+            }
+        }
+        FileOutputStream outputStream = new FileOutputStream(file, true);
+        if (validLength == 0) {
+            ByteArrayOutputStream header = new ByteArrayOutputStream(HEADER_LENGTH);
+            DataOutputStream headerOutput = new DataOutputStream(header);
+            headerOutput.writeInt(MAGIC);
+            headerOutput.writeInt(BinaryDocumentWriter.FORMAT_VERSION);
+            outputStream.write(header.toByteArray());
+        }
+        return new Entry(file, outputStream, pages);
+    }
+
+    /**
+     * Reads the valid records of a journal file.
+     *
+     * @return The length of the valid part of the file.
+     */
+    private static long read(File file, Map<Integer, Page> pages) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        long validLength = 0;
+        try {
+            if (input.readInt() != MAGIC) {
+                return 0;
+            }
+            // Pages are appended in the current format, so a journal of
+            // another version is started over
+            int version = input.readInt();
+            if (version != BinaryDocumentWriter.FORMAT_VERSION) {
+                return 0;
+            }
+            validLength = HEADER_LENGTH;
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length = input.readInt();
+                if (length <= 0 || length > file.length() - validLength) {
+                    return validLength;
+                }
+                byte[] pageBytes = new byte[length];
+                input.readFully(pageBytes);
+                crc.reset();
+                crc.update(pageBytes);
+                if (input.readInt() != (int) crc.getValue()) {
+                    return validLength;
+                }
+                Page page = BinaryDocumentWriter.readPageFields(new DataInputStream(new ByteArrayInputStream(pageBytes)), version);
+                pages.put(page.getPageNumber(), page);
+                validLength += 4 + length + 4;
+            }
+        } catch (EOFException ex) {
+            // The last record was cut short
+            return validLength;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * The journal of one input file.
+     */
+    static final class Entry implements Closeable {
+
+        private final File file;
+        private final Map<Integer, Page> journaledPages;
+        private final Set<Integer> appendedPages = new HashSet<Integer>();
+        private FileOutputStream outputStream;
+
+        private Entry(File file, FileOutputStream outputStream, Map<Integer, Page> journaledPages) {
+            this.file = file;
+            this.outputStream = outputStream;
+            this.journaledPages = Collections.unmodifiableMap(journaledPages);
+        }
+
+        /**
+         * The pages that were journaled before the journal was opened, by page
+         * number.
+         */
+        Map<Integer, Page> getJournaledPages() {
+            return journaledPages;
+        }
+
+        /**
+         * Appends a page that is not in the journal yet. A journal that can
+         * not be written is closed, the file is then scanned without it.
+         */
+        synchronized void append(Page page) {
+            if (outputStream == null || journaledPages.containsKey(page.getPageNumber())
+                    || appendedPages.contains(page.getPageNumber())) {
+                return;
+            }
+            try {
+                ByteArrayOutputStream pageBytes = new ByteArrayOutputStream();
+                BinaryDocumentWriter.writePageFields(new DataOutputStream(pageBytes), page);
+                CRC32 crc = new CRC32();
+                crc.update(pageBytes.toByteArray());
+                ByteBuffer record = ByteBuffer.allocate(4 + pageBytes.size() + 4);
+                record.putInt(pageBytes.size());
+                record.put(pageBytes.toByteArray());
+                record.putInt((int) crc.getValue());
+                // One write, so that a crash of the process never leaves
+                // half a record behind
+                outputStream.write(record.array());
+                appendedPages.add(page.getPageNumber());
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "The work journal " + file.getAbsolutePath() + " could not be written.", ex);
+                close();
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException ex) {
+                    LOGGER.log(Level.FINE, null, ex);
+                }
+                outputStream = null;
+            }
+        }
+
+        /**
+         * Closes and removes the journal, once the input file has left the
+         * input folder.
+         */
+        synchronized void delete() {
+            close();
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.IOException;
+import java.io.Writer;
+import javax.xml.bind.JAXBException;
+import net.binarypaper.barcodescanner.entity.Document;
+import net.binarypaper.barcodescanner.entity.Page;
+import org.eclipse.persistence.exceptions.XMLMarshalException;
+import org.eclipse.persistence.internal.oxm.XPathFragment;
+import org.eclipse.persistence.jaxb.JAXBMarshaller;
+import org.eclipse.persistence.oxm.record.FormattedWriterRecord;
+import org.eclipse.persistence.oxm.record.WriterRecord;
+
+/**
+ * Writes a Document as xml one page at a time, so that a page can be written
+ * as soon as it is decoded and the whole Document never has to be held in
+ * memory.
+ * <p>
+ * The document element is started and ended on a MOXy writer record, and
+ * every page is marshalled onto the same record as a fragment. The record
+ * keeps the depth of the page elements, so the output is exactly the same as
+ * marshalling the whole Document in one go, including the indentation and
+ * the CDATA sections of the barcode content. Compact xml is marshalled
+ * without indentation and line breaks.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+class XmlDocumentWriter implements DocumentWriter {
+
+    private static final XPathFragment DOCUMENT = new XPathFragment("document");
+    private static final MarshallerPool formattedMarshallers = new MarshallerPool(MarshallerPool.XML, true);
+    private static final MarshallerPool formattedPageMarshallers = new MarshallerPool(MarshallerPool.XML, true, true);
+    private static final MarshallerPool compactPageMarshallers = new MarshallerPool(MarshallerPool.XML, false, true);
+
+    private final Writer writer;
+    private final String fileName;
+    private final MarshallerPool marshallers;
+    private final WriterRecord record;
+    private boolean started;
+
+    XmlDocumentWriter(Writer writer, String fileName) {
+        this(writer, fileName, true);
+    }
+
+    /**
+     * @param formatted false to write compact xml.
+     */
+    XmlDocumentWriter(Writer writer, String fileName, boolean formatted) {
+        this.writer = writer;
+        this.fileName = fileName;
+        this.marshallers = formatted ? formattedPageMarshallers : compactPageMarshallers;
+        record = formatted ? new FormattedWriterRecord() : new WriterRecord();
+        record.setWriter(writer);
+    }
+
+    /**
+     * Marshals a whole Document in one go.
+     */
+    static void marshal(Document document, Writer writer) throws IOException {
+        writer.write(formattedMarshallers.marshal(document));
+    }
+
+    @Override
+    public void writePage(Page page) throws IOException {
+        JAXBMarshaller marshaller = marshallers.borrow();
+        try {
+            start(marshaller);
+            marshaller.marshal(MarshallerPool.pageElement(page), record);
+            record.flush();
+        } catch (JAXBException ex) {
+            throw new IOException("Page " + page.getPageNumber() + " of " + fileName + " could not be marshalled.", ex);
+        } catch (XMLMarshalException ex) {
+            // The record wraps the IOException of the writer
+            throw new IOException("Page " + page.getPageNumber() + " of " + fileName + " could not be written.", ex);
+        } finally {
+            marshallers.giveBack(marshaller);
+        }
+    }
+
+    /**
+     * Lends the marshaller to the record, and writes the xml declaration and
+     * the start of the document element before the first page.
+     */
+    private void start(JAXBMarshaller marshaller) {
+        record.setMarshaller(marshaller.getXMLMarshaller());
+        if (!started) {
+            record.startDocument("UTF-8", "1.0");
+            record.openStartElement(DOCUMENT, null);
+            record.attribute(null, "fileName", "fileName", fileName);
+            started = true;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            JAXBMarshaller marshaller = marshallers.borrow();
+            try {
+                start(marshaller);
+                record.endElement(DOCUMENT, null);
+                record.endDocument();
+                record.flush();
+            } catch (XMLMarshalException ex) {
+                throw new IOException("The end of " + fileName + " could not be written.", ex);
+            } finally {
+                marshallers.giveBack(marshaller);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
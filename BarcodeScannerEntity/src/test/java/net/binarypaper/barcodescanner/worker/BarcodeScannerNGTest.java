@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.xml.bind.DatatypeConverter;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.Page;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class BarcodeScannerNGTest {
+
+    @Test
+    public void testReadTiffBarcodesInMemory() throws Exception {
+        byte[] tiff = TestTiffs.createQrTiff("Page 1 Barcode", null, "<xml>Page 3 Barcode</xml>");
+        BarcodeScanner barcodeScanner = new BarcodeScanner();
+        String xml = barcodeScanner.readTiffBarcodes("test.tif", tiff);
+        Assert.assertTrue(xml.contains("<document fileName=\"test.tif\">"));
+        Assert.assertTrue(xml.contains("<![CDATA[Page 1 Barcode]]>"));
+        Assert.assertTrue(xml.contains("<page pageNumber=\"2\"/>"));
+        Assert.assertTrue(xml.contains("<![CDATA[<xml>Page 3 Barcode</xml>]]>"));
+        Assert.assertEquals(barcodeScanner.readTiffBarcodes("test.tif", new ByteArrayInputStream(tiff)), xml);
+        Assert.assertEquals(barcodeScanner.readTiffBarcodes("test.tif", DatatypeConverter.printBase64Binary(tiff)), xml);
+    }
+
+    @Test
+    public void testReadTiffBarcodesConcurrently() throws Exception {
+        final byte[] tiff = TestTiffs.createQrTiff("Page 1 Barcode", "Page 2 Barcode");
+        final BarcodeScanner barcodeScanner = new BarcodeScanner();
+        String expectedXml = barcodeScanner.readTiffBarcodes("test.tif", tiff);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 32; i++) {
+                results.add(executor.submit(new Callable<String>() {
+
+                    @Override
+                    public String call() {
+                        return barcodeScanner.readTiffBarcodes("test.tif", tiff);
+                    }
+                }));
+            }
+            for (Future<String> result : results) {
+                Assert.assertEquals(result.get(), expectedXml);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testReadTiffPagesInOrder() throws Exception {
+        String[] contents = new String[12];
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = "Page " + (i + 1) + " Barcode";
+        }
+        byte[] tiff = TestTiffs.createQrTiff(contents);
+        PageResults pageResults = new PageResults();
+        new BarcodeScanner().readTiffPages(new ByteBufferImageInputStream(ByteBuffer.wrap(tiff)), "test.tif", pageResults);
+        pageResults.close();
+        for (int i = 0; i < contents.length; i++) {
+            Page page = pageResults.next().get();
+            Assert.assertEquals(page.getPageNumber(), i + 1);
+            Assert.assertEquals(page.getBarcodes().get(0).getContent(), contents[i]);
+        }
+        Assert.assertNull(pageResults.next());
+        Assert.assertNull(pageResults.next());
+    }
+
+    /**
+     * The pages before the damaged part of a truncated file are still in the
+     * output.
+     */
+    @Test
+    public void testReadTruncatedTiff() throws Exception {
+        byte[] tiff = TestTiffs.createQrTiff("Page 1 Barcode", "Page 2 Barcode", "Page 3 Barcode");
+        byte[] truncatedTiff = Arrays.copyOf(tiff, tiff.length * 3 / 4);
+        PageResults pageResults = new PageResults();
+        try {
+            new BarcodeScanner().readTiffPages(new ByteBufferImageInputStream(ByteBuffer.wrap(truncatedTiff)), "test.tif", pageResults);
+            Assert.fail("The truncated file was read completely.");
+        } catch (IOException ex) {
+            pageResults.fail(ex);
+        }
+        Assert.assertEquals(pageResults.next().get().getBarcodes().get(0).getContent(), "Page 1 Barcode");
+        String xml = new BarcodeScanner().readTiffBarcodes("test.tif", truncatedTiff);
+        Assert.assertTrue(xml.contains("<![CDATA[Page 1 Barcode]]>"));
+        Assert.assertFalse(xml.contains("<![CDATA[Page 3 Barcode]]>"));
+    }
+
+    /**
+     * A damaged page becomes a page with an error, and the pages after it are
+     * still decoded.
+     */
+    @Test
+    public void testReadTiffWithDamagedPage() throws Exception {
+        byte[] tiff = TestTiffs.createQrTiff("Page 1 Barcode", "Page 2 Barcode", "Page 3 Barcode");
+        String xml = new BarcodeScanner().readTiffBarcodes("test.tif", TestTiffs.damagePage(tiff, 1));
+        Assert.assertTrue(xml.contains("<![CDATA[Page 1 Barcode]]>"), xml);
+        Assert.assertFalse(xml.contains("<![CDATA[Page 2 Barcode]]>"), xml);
+        Assert.assertTrue(xml.contains("<error>The page could not be read: "), xml);
+        Assert.assertTrue(xml.contains("<![CDATA[Page 3 Barcode]]>"), xml);
+        Assert.assertTrue(xml.indexOf("<error>") < xml.indexOf("Page 3 Barcode"), xml);
+    }
+
+    /**
+     * Pages that were journaled before a restart are not read again.
+     */
+    @Test
+    public void testReadTiffWithJournaledPages() throws Exception {
+        byte[] tiff = TestTiffs.createQrTiff("Page 1 Barcode", "Page 2 Barcode");
+        Page journaledPage = new Page();
+        journaledPage.setPageNumber(1);
+        journaledPage.setBarcodes(new ArrayList<Barcode>());
+        Map<Integer, Page> journaledPages = new HashMap<Integer, Page>();
+        journaledPages.put(1, journaledPage);
+        PageResults pageResults = new PageResults();
+        new BarcodeScanner().readTiffPages(new ByteBufferImageInputStream(ByteBuffer.wrap(tiff)), "test.tif", pageResults, journaledPages);
+        pageResults.close();
+        Assert.assertSame(pageResults.next().get(), journaledPage);
+        Assert.assertEquals(pageResults.next().get().getBarcodes().get(0).getContent(), "Page 2 Barcode");
+        Assert.assertNull(pageResults.next());
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class BarcodeTypesNGTest {
+
+    private static final DecodeStrategy TRY_HARDER_ONLY = new DecodeStrategy(Collections.singletonList(DecodeTier.TRY_HARDER), 1);
+
+    /**
+     * Barcode content that is valid for every type ZXing 2.3.0 can write.
+     * DATA_MATRIX and AZTEC are left out, because the 2.3.0 detectors do not
+     * find the symbols of their own writers on a generated page.
+     */
+    private Map<BarcodeType, String> createContents() {
+        Map<BarcodeType, String> contents = new LinkedHashMap<BarcodeType, String>();
+        contents.put(BarcodeType.QR, "QR content");
+        contents.put(BarcodeType.PDF417, "PDF417 content");
+        contents.put(BarcodeType.CODE_128, "CODE128");
+        contents.put(BarcodeType.CODE_39, "CODE39");
+        contents.put(BarcodeType.CODABAR, "A123456B");
+        contents.put(BarcodeType.EAN_13, "5901234123457");
+        contents.put(BarcodeType.EAN_8, "96385074");
+        contents.put(BarcodeType.UPC_A, "036000291452");
+        contents.put(BarcodeType.ITF, "12345678");
+        return contents;
+    }
+
+    @Test
+    public void testParse() {
+        Assert.assertEquals(BarcodeTypes.parse("QR, CODE_128,UNKNOWN"), EnumSet.of(BarcodeType.QR, BarcodeType.CODE_128));
+        Assert.assertEquals(BarcodeTypes.parse(""), EnumSet.of(BarcodeType.QR));
+    }
+
+    @Test
+    public void testEveryTypeHasAFormat() {
+        for (BarcodeType barcodeType : BarcodeType.values()) {
+            Assert.assertEquals(BarcodeTypes.fromFormat(BarcodeTypes.toFormat(barcodeType)), barcodeType);
+        }
+    }
+
+    /**
+     * Decodes every type with only that type enabled and with all types
+     * enabled. A type that is not enabled is not found.
+     */
+    @Test
+    public void testDecodeEveryType() throws Exception {
+        DecoderContext allTypesContext = new DecoderContext(EnumSet.allOf(BarcodeType.class), TRY_HARDER_ONLY);
+        for (Map.Entry<BarcodeType, String> entry : createContents().entrySet()) {
+            BarcodeType barcodeType = entry.getKey();
+            BufferedImage page = TestTiffs.createPage(BarcodeTypes.toFormat(barcodeType), entry.getValue());
+            DecoderContext decoderContext = new DecoderContext(EnumSet.of(barcodeType), TRY_HARDER_ONLY);
+            List<Barcode> barcodes = decoderContext.decode(page);
+            Assert.assertEquals(barcodes.size(), 1, barcodeType.name());
+            Assert.assertEquals(barcodes.get(0).getType(), barcodeType);
+            Assert.assertEquals(allTypesContext.decode(page).get(0).getType(), barcodeType);
+            Set<BarcodeType> otherTypes = EnumSet.complementOf(EnumSet.of(barcodeType));
+            // EAN-13 is also read as UPC-A and the other way around
+            otherTypes.removeAll(EnumSet.of(BarcodeType.EAN_13, BarcodeType.UPC_A));
+            Assert.assertTrue(new DecoderContext(otherTypes, TRY_HARDER_ONLY).decode(page).isEmpty(), barcodeType.name());
+        }
+    }
+}
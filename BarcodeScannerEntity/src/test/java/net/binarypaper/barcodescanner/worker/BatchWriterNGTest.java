@@ -0,0 +1,232 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.parsers.DocumentBuilderFactory;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.Page;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class BatchWriterNGTest {
+
+    private final TestFolders testFolders = new TestFolders();
+
+    @AfterMethod
+    public void deleteFolders() {
+        testFolders.deleteAll();
+    }
+
+    private byte[] document(OutputFormat outputFormat, String fileName) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        DocumentWriter documentWriter = outputFormat.createWriter(outputStream, fileName);
+        Page page = new Page();
+        page.setPageNumber(1);
+        page.setBarcodes(new ArrayList<Barcode>());
+        documentWriter.writePage(page);
+        documentWriter.close();
+        return outputStream.toByteArray();
+    }
+
+    private BatchWriter.Listener countingListener(final AtomicInteger committed, final CountDownLatch done) {
+        return new BatchWriter.Listener() {
+
+            @Override
+            public void committed() {
+                committed.incrementAndGet();
+                done.countDown();
+            }
+
+            @Override
+            public void failed(IOException ex) {
+                done.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void testFullBatchIsCommitted() throws Exception {
+        File outputFolder = testFolders.create("BatchWriterNGTest");
+        BatchWriter batchWriter = new BatchWriter(outputFolder, OutputFormat.XML, 2, 3600);
+        AtomicInteger committed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(3);
+        batchWriter.add(document(OutputFormat.XML, "a.tif"), countingListener(committed, done));
+        // Only the hidden temporary file exists while the batch is open
+        Assert.assertEquals(outputFolder.listFiles().length, 1);
+        Assert.assertTrue(outputFolder.listFiles()[0].getName().startsWith("."));
+        Assert.assertEquals(committed.get(), 0);
+        batchWriter.add(document(OutputFormat.XML, "b.tif"), countingListener(committed, done));
+        Assert.assertEquals(committed.get(), 2);
+        File[] batchFiles = outputFolder.listFiles();
+        Assert.assertEquals(batchFiles.length, 1);
+        Assert.assertTrue(batchFiles[0].getName().matches("batch-\\d{8}-\\d{6}-\\d{3}-[0-9a-f-]{36}\\.xml"), batchFiles[0].getName());
+        org.w3c.dom.Document batch = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(batchFiles[0]);
+        Assert.assertEquals(batch.getDocumentElement().getTagName(), "batch");
+        NodeList documents = batch.getElementsByTagName("document");
+        Assert.assertEquals(documents.getLength(), 2);
+        Assert.assertEquals(((Element) documents.item(1)).getAttribute("fileName"), "b.tif");
+        // Closing commits the open batch
+        batchWriter.add(document(OutputFormat.XML, "c.tif"), countingListener(committed, done));
+        batchWriter.close();
+        Assert.assertEquals(committed.get(), 3);
+        Assert.assertEquals(outputFolder.listFiles().length, 2);
+    }
+
+    /**
+     * Fails the writes of the documents of bad.tif, like a disk that fills up
+     * in the middle of a document.
+     */
+    private static class FailingBatchWriter extends BatchWriter {
+
+        FailingBatchWriter(File outputFolder, int batchSize) {
+            super(outputFolder, OutputFormat.XML, batchSize, 3600);
+        }
+
+        @Override
+        OutputStream openStream(FileOutputStream fileOutputStream) {
+            return new FilterOutputStream(super.openStream(fileOutputStream)) {
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    if (new String(b, off, len, "UTF-8").contains("bad.tif")) {
+                        out.write(b, off, len / 2);
+                        throw new IOException("No space left on device");
+                    }
+                    out.write(b, off, len);
+                }
+            };
+        }
+    }
+
+    @Test
+    public void testFailedDocumentDoesNotFailTheBatch() throws Exception {
+        File outputFolder = testFolders.create("BatchWriterNGTest");
+        final BatchWriter batchWriter = new FailingBatchWriter(outputFolder, 3);
+        final AtomicInteger committed = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger toldUnderLock = new AtomicInteger();
+        BatchWriter.Listener listener = new BatchWriter.Listener() {
+
+            @Override
+            public void committed() {
+                committed.incrementAndGet();
+                if (Thread.holdsLock(batchWriter)) {
+                    toldUnderLock.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void failed(IOException ex) {
+                failed.incrementAndGet();
+                if (Thread.holdsLock(batchWriter)) {
+                    toldUnderLock.incrementAndGet();
+                }
+            }
+        };
+        batchWriter.add(document(OutputFormat.XML, "a.tif"), listener);
+        batchWriter.add(document(OutputFormat.XML, "b.tif"), listener);
+        batchWriter.add(document(OutputFormat.XML, "bad.tif"), listener);
+        Assert.assertEquals(failed.get(), 1);
+        Assert.assertEquals(committed.get(), 0);
+        batchWriter.add(document(OutputFormat.XML, "c.tif"), listener);
+        Assert.assertEquals(committed.get(), 3);
+        Assert.assertEquals(toldUnderLock.get(), 0);
+        File[] batchFiles = outputFolder.listFiles();
+        Assert.assertEquals(batchFiles.length, 1);
+        NodeList documents = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(batchFiles[0])
+                .getElementsByTagName("document");
+        Assert.assertEquals(documents.getLength(), 3);
+        Assert.assertEquals(((Element) documents.item(0)).getAttribute("fileName"), "a.tif");
+        Assert.assertEquals(((Element) documents.item(2)).getAttribute("fileName"), "c.tif");
+        batchWriter.close();
+    }
+
+    @Test
+    public void testBatchIsCommittedAfterTime() throws Exception {
+        File outputFolder = testFolders.create("BatchWriterNGTest");
+        BatchWriter batchWriter = new BatchWriter(outputFolder, OutputFormat.XML, 100, 1);
+        try {
+            AtomicInteger committed = new AtomicInteger();
+            CountDownLatch done = new CountDownLatch(1);
+            batchWriter.add(document(OutputFormat.XML, "a.tif"), countingListener(committed, done));
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(committed.get(), 1);
+            Assert.assertTrue(outputFolder.listFiles()[0].getName().startsWith("batch-"));
+        } finally {
+            batchWriter.close();
+        }
+    }
+
+    @Test
+    public void testBatchLayoutFollowsTheOutputFormat() throws Exception {
+        File outputFolder = testFolders.create("BatchWriterNGTest");
+        BatchWriter batchWriter = new BatchWriter(outputFolder, OutputFormat.COMPACT_XML, 2, 3600);
+        AtomicInteger committed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(2);
+        batchWriter.add(document(OutputFormat.COMPACT_XML, "a.tif"), countingListener(committed, done));
+        batchWriter.add(document(OutputFormat.COMPACT_XML, "b.tif"), countingListener(committed, done));
+        org.w3c.dom.Document batch = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(outputFolder.listFiles()[0]);
+        Assert.assertEquals(batch.getElementsByTagName("document").getLength(), 2);
+
+        // A json batch holds one document per line
+        outputFolder = testFolders.create("BatchWriterNGTest");
+        batchWriter = new BatchWriter(outputFolder, OutputFormat.JSON, 2, 3600);
+        batchWriter.add(document(OutputFormat.JSON, "a.tif"), countingListener(committed, done));
+        batchWriter.add(document(OutputFormat.JSON, "b.tif"), countingListener(committed, done));
+        File batchFile = outputFolder.listFiles()[0];
+        Assert.assertTrue(batchFile.getName().endsWith(".ndjson"), batchFile.getName());
+        List<String> lines = Files.readAllLines(batchFile.toPath(), Charset.forName("UTF-8"));
+        Assert.assertEquals(lines.size(), 2);
+        Assert.assertEquals(lines.get(1), new String(document(OutputFormat.JSON, "b.tif"), "UTF-8"));
+
+        // Binary documents are read back one after the other
+        outputFolder = testFolders.create("BatchWriterNGTest");
+        batchWriter = new BatchWriter(outputFolder, OutputFormat.BINARY, 2, 3600);
+        batchWriter.add(document(OutputFormat.BINARY, "a.tif"), countingListener(committed, done));
+        batchWriter.add(document(OutputFormat.BINARY, "b.tif"), countingListener(committed, done));
+        InputStream inputStream = new FileInputStream(outputFolder.listFiles()[0]);
+        try {
+            Assert.assertEquals(BinaryDocumentWriter.read(inputStream).getFileName(), "a.tif");
+            Assert.assertEquals(BinaryDocumentWriter.read(inputStream).getFileName(), "b.tif");
+            Assert.assertNull(BinaryDocumentWriter.read(inputStream));
+        } finally {
+            inputStream.close();
+        }
+        Assert.assertEquals(committed.get(), 6);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+import net.binarypaper.barcodescanner.entity.Document;
+import net.binarypaper.barcodescanner.entity.Page;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class BinaryDocumentWriterNGTest {
+
+    private Page createPage(int pageNumber, String... contents) {
+        Page page = new Page();
+        page.setPageNumber(pageNumber);
+        List<Barcode> barcodes = new ArrayList<Barcode>();
+        for (String content : contents) {
+            Barcode barcode = new Barcode();
+            barcode.setType(BarcodeType.PDF417);
+            barcode.setContent(content);
+            barcodes.add(barcode);
+        }
+        page.setBarcodes(barcodes);
+        return page;
+    }
+
+    @Test
+    public void testDocumentIsReadBack() throws Exception {
+        char[] largeContent = new char[100000];
+        Arrays.fill(largeContent, 'ü');
+        List<Page> pages = new ArrayList<Page>();
+        pages.add(createPage(1, "Page 1 Barcode 1", "Line 1\nLine 2"));
+        pages.add(createPage(2));
+        pages.add(createPage(3, new String(largeContent)));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        BinaryDocumentWriter documentWriter = new BinaryDocumentWriter(outputStream, "Scan 1.tif");
+        // Nothing is written before the first page
+        Assert.assertEquals(outputStream.size(), 0);
+        for (Page page : pages) {
+            documentWriter.writePage(page);
+        }
+        documentWriter.close();
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(outputStream.toByteArray());
+        Document document = BinaryDocumentWriter.read(inputStream);
+        Assert.assertEquals(document.getFileName(), "Scan 1.tif");
+        Assert.assertEquals(document.getPages().size(), 3);
+        for (int i = 0; i < pages.size(); i++) {
+            Page page = document.getPages().get(i);
+            Assert.assertEquals(page.getPageNumber(), pages.get(i).getPageNumber());
+            Assert.assertEquals(page.getBarcodes().size(), pages.get(i).getBarcodes().size());
+            for (int j = 0; j < page.getBarcodes().size(); j++) {
+                Assert.assertEquals(page.getBarcodes().get(j).getType(), BarcodeType.PDF417);
+                Assert.assertEquals(page.getBarcodes().get(j).getContent(), pages.get(i).getBarcodes().get(j).getContent());
+            }
+        }
+        Assert.assertNull(BinaryDocumentWriter.read(inputStream));
+    }
+
+    @Test
+    public void testPageErrorIsReadBack() throws Exception {
+        Page errorPage = createPage(2);
+        errorPage.setError("The page could not be read: ünknown compression");
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        BinaryDocumentWriter documentWriter = new BinaryDocumentWriter(outputStream, "damaged.tif");
+        documentWriter.writePage(createPage(1, "Page 1 Barcode"));
+        documentWriter.writePage(errorPage);
+        documentWriter.close();
+        Document document = BinaryDocumentWriter.read(new ByteArrayInputStream(outputStream.toByteArray()));
+        Assert.assertNull(document.getPages().get(0).getError());
+        Assert.assertEquals(document.getPages().get(1).getError(), "The page could not be read: ünknown compression");
+        Assert.assertTrue(document.getPages().get(1).getBarcodes().isEmpty());
+    }
+
+    @Test
+    public void testBlankPageIsReadBack() throws Exception {
+        Page blankPage = createPage(2);
+        blankPage.setBlank(Boolean.TRUE);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        BinaryDocumentWriter documentWriter = new BinaryDocumentWriter(outputStream, "separated.tif");
+        documentWriter.writePage(createPage(1, "Page 1 Barcode"));
+        documentWriter.writePage(blankPage);
+        documentWriter.close();
+        Document document = BinaryDocumentWriter.read(new ByteArrayInputStream(outputStream.toByteArray()));
+        Assert.assertNull(document.getPages().get(0).getBlank());
+        Assert.assertEquals(document.getPages().get(1).getBlank(), Boolean.TRUE);
+    }
+
+    @Test
+    public void testVersion2DocumentIsRead() throws Exception {
+        ByteArrayOutputStream pageBytes = new ByteArrayOutputStream();
+        DataOutputStream pageOutput = new DataOutputStream(pageBytes);
+        pageOutput.writeInt(1);
+        pageOutput.writeInt(0);
+        pageOutput.writeInt(-1);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(outputStream);
+        output.writeInt(BinaryDocumentWriter.MAGIC);
+        output.writeInt(2);
+        output.writeInt(5);
+        output.write("a.tif".getBytes("UTF-8"));
+        output.writeInt(pageBytes.size());
+        pageBytes.writeTo(output);
+        output.writeInt(0);
+        Document document = BinaryDocumentWriter.read(new ByteArrayInputStream(outputStream.toByteArray()));
+        Assert.assertEquals(document.getFileName(), "a.tif");
+        Assert.assertEquals(document.getPages().size(), 1);
+        Assert.assertNull(document.getPages().get(0).getBlank());
+    }
+
+    @Test
+    public void testDocumentWithoutPages() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new BinaryDocumentWriter(outputStream, "empty.tif").close();
+        Document document = BinaryDocumentWriter.read(new ByteArrayInputStream(outputStream.toByteArray()));
+        Assert.assertEquals(document.getFileName(), "empty.tif");
+        Assert.assertTrue(document.getPages().isEmpty());
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testOtherStreamIsRejected() throws Exception {
+        BinaryDocumentWriter.read(new ByteArrayInputStream("<?xml version=\"1.0\"?>".getBytes("UTF-8")));
+    }
+}
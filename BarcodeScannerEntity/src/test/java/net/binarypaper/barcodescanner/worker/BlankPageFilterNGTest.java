@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import com.google.zxing.BarcodeFormat;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.Random;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class BlankPageFilterNGTest {
+
+    private final BlankPageFilter blankPageFilter = new BlankPageFilter(0.5);
+
+    private BufferedImage createBlankPage(int imageType) {
+        return createBlankPage(new BufferedImage(TestTiffs.PAGE_WIDTH, TestTiffs.PAGE_HEIGHT, imageType));
+    }
+
+    private BufferedImage createBlankPage(BufferedImage page) {
+        Graphics2D graphics = page.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, page.getWidth(), page.getHeight());
+        graphics.dispose();
+        return page;
+    }
+
+    /**
+     * Adds specks of dust and the dark border that scanners leave at the
+     * edge of the page.
+     */
+    private BufferedImage addDust(BufferedImage page) {
+        Graphics2D graphics = page.createGraphics();
+        graphics.setColor(Color.BLACK);
+        Random random = new Random(42);
+        for (int i = 0; i < 300; i++) {
+            graphics.fillRect(random.nextInt(page.getWidth()), random.nextInt(page.getHeight()), 3, 3);
+        }
+        graphics.fillRect(0, 0, page.getWidth(), 12);
+        graphics.fillRect(0, 0, 12, page.getHeight());
+        graphics.dispose();
+        return page;
+    }
+
+    /**
+     * Adds a QR code that is far smaller than the barcodes on real pages.
+     */
+    private BufferedImage addSmallQrCode(BufferedImage page) throws Exception {
+        BufferedImage qrPage = TestTiffs.createPage(BufferedImage.TYPE_BYTE_GRAY, BarcodeFormat.QR_CODE, "Small", 0, 0);
+        Graphics2D graphics = page.createGraphics();
+        graphics.drawImage(qrPage.getSubimage(0, 0, 250, 250), 600, 900, 60, 60, null);
+        graphics.dispose();
+        return page;
+    }
+
+    @Test
+    public void testDustyPagesAreBlank() {
+        Assert.assertTrue(blankPageFilter.isBlank(createBlankPage(BufferedImage.TYPE_BYTE_BINARY)));
+        Assert.assertTrue(blankPageFilter.isBlank(addDust(createBlankPage(BufferedImage.TYPE_BYTE_BINARY))));
+        Assert.assertTrue(blankPageFilter.isBlank(addDust(createBlankPage(BufferedImage.TYPE_BYTE_GRAY))));
+        Assert.assertTrue(blankPageFilter.isBlank(addDust(createBlankPage(BufferedImage.TYPE_INT_RGB))));
+        // Dust in the corner of a page that is not a whole number of bytes wide
+        BufferedImage narrowPage = createBlankPage(new BufferedImage(1237, 1000, BufferedImage.TYPE_BYTE_BINARY));
+        narrowPage.setRGB(1236, 999, Color.BLACK.getRGB());
+        Assert.assertTrue(blankPageFilter.isBlank(narrowPage));
+    }
+
+    @Test
+    public void testPagesWithBarcodesAreNotBlank() throws Exception {
+        Assert.assertFalse(blankPageFilter.isBlank(TestTiffs.createPage(BarcodeFormat.QR_CODE, "Page 1")));
+        Assert.assertFalse(blankPageFilter.isBlank(TestTiffs.createPage(BarcodeFormat.CODE_128, "Page 1")));
+        // A small barcode holds far less ink than the threshold, but inks the
+        // tiles it covers densely
+        Assert.assertFalse(blankPageFilter.isBlank(addSmallQrCode(addDust(createBlankPage(BufferedImage.TYPE_BYTE_BINARY)))));
+        Assert.assertFalse(blankPageFilter.isBlank(addSmallQrCode(createBlankPage(BufferedImage.TYPE_BYTE_GRAY))));
+        // Pages are always decoded when the filter is off
+        Assert.assertFalse(new BlankPageFilter(0).isBlank(createBlankPage(BufferedImage.TYPE_BYTE_BINARY)));
+    }
+
+    @Test
+    public void testPaletteDecidesWhatIsInk() {
+        // Bilevel tiff pages are read with 0 as black or with 0 as white
+        byte[] blackIsZero = new byte[]{0, (byte) 0xFF};
+        IndexColorModel colorModel = new IndexColorModel(1, 2, blackIsZero, blackIsZero, blackIsZero);
+        BufferedImage page = new BufferedImage(TestTiffs.PAGE_WIDTH, TestTiffs.PAGE_HEIGHT, BufferedImage.TYPE_BYTE_BINARY, colorModel);
+        Assert.assertFalse(blankPageFilter.isBlank(page));
+        Assert.assertTrue(blankPageFilter.isBlank(addDust(createBlankPage(page))));
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import com.google.zxing.BarcodeFormat;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class DecodeStrategyNGTest {
+
+    private static final int PAGES = 3;
+
+    @Test
+    public void testParseTiers() {
+        Assert.assertEquals(DecodeStrategy.parseTiers("FAST, ROTATED,UNKNOWN"), Arrays.asList(DecodeTier.FAST, DecodeTier.ROTATED));
+        Assert.assertEquals(DecodeStrategy.parseTiers(""), Arrays.asList(DecodeTier.TRY_HARDER));
+    }
+
+    @Test
+    public void testRepeatedTiersAreLeftOut() {
+        List<DecodeTier> allTiers = Arrays.asList(DecodeTier.values());
+        Assert.assertEquals(new DecodeStrategy(allTiers, 1).getTiers(),
+                Arrays.asList(DecodeTier.FAST, DecodeTier.TRY_HARDER, DecodeTier.ROTATED));
+        Assert.assertEquals(new DecodeStrategy(allTiers, 2).getTiers(), allTiers);
+    }
+
+    @Test
+    public void testRotatedTier() throws Exception {
+        BufferedImage page = rotateClockwise(TestTiffs.createPage(BarcodeFormat.CODE_128, "VERTICAL128"));
+        DecodeStrategy fastOnly = new DecodeStrategy(Arrays.asList(DecodeTier.FAST), 1);
+        Assert.assertTrue(new DecoderContext(EnumSet.of(BarcodeType.CODE_128), fastOnly).decode(page).isEmpty());
+        Assert.assertEquals(fastOnly.getUnresolvedPages(), 1);
+
+        DecodeStrategy withRotation = new DecodeStrategy(Arrays.asList(DecodeTier.FAST, DecodeTier.ROTATED), 1);
+        List<Barcode> barcodes = new DecoderContext(EnumSet.of(BarcodeType.CODE_128), withRotation).decode(page);
+        Assert.assertEquals(barcodes.size(), 1);
+        Assert.assertEquals(barcodes.get(0).getContent(), "VERTICAL128");
+        Assert.assertEquals(withRotation.getResolvedPages(DecodeTier.ROTATED), 1);
+    }
+
+    @Test
+    public void testVerticalLinearBarcodeWithDefaultTiers() throws Exception {
+        BufferedImage page = rotateClockwise(TestTiffs.createPage(BarcodeFormat.CODE_128, "VERTICAL128"));
+        DecodeStrategy defaultStrategy = DecodeStrategy.load();
+        List<Barcode> barcodes = new DecoderContext(EnumSet.of(BarcodeType.CODE_128), defaultStrategy).decode(page);
+        Assert.assertEquals(barcodes.size(), 1);
+        Assert.assertEquals(barcodes.get(0).getContent(), "VERTICAL128");
+        // TRY_HARDER tries the linear barcode vertically
+        Assert.assertEquals(defaultStrategy.getResolvedPages(DecodeTier.TRY_HARDER), 1);
+    }
+
+    /**
+     * A clean page is resolved by the first tier of every strategy.
+     */
+    @Test
+    public void testCleanPageIsResolvedByTheFirstTier() throws Exception {
+        BufferedImage page = TestTiffs.createPage(BarcodeFormat.QR_CODE, "Fast pass barcode");
+        DecodeStrategy[] strategies = {
+            new DecodeStrategy(Arrays.asList(DecodeTier.TRY_HARDER), 1),
+            new DecodeStrategy(Arrays.asList(DecodeTier.FAST, DecodeTier.TRY_HARDER), 1),
+            new DecodeStrategy(Arrays.asList(DecodeTier.FAST, DecodeTier.TRY_HARDER, DecodeTier.FULL_RESOLUTION), 2)
+        };
+        for (DecodeStrategy strategy : strategies) {
+            DecoderContext decoderContext = new DecoderContext(EnumSet.of(BarcodeType.QR), strategy);
+            for (int i = 0; i < PAGES; i++) {
+                Assert.assertEquals(decoderContext.decode(page).get(0).getContent(), "Fast pass barcode");
+            }
+            Assert.assertEquals(strategy.getResolvedPages(strategy.getTiers().get(0)), PAGES, strategy.report());
+        }
+    }
+
+    private BufferedImage rotateClockwise(BufferedImage image) {
+        BufferedImage rotated = new BufferedImage(image.getHeight(), image.getWidth(), image.getType());
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                rotated.setRGB(image.getHeight() - 1 - y, x, image.getRGB(x, y));
+            }
+        }
+        return rotated;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class DecoderContextNGTest {
+
+    private static final DecodeStrategy TRY_HARDER_ONLY = new DecodeStrategy(Collections.singletonList(DecodeTier.TRY_HARDER), 1);
+
+    @Test
+    public void testDecodeReusesDecoderState() throws Exception {
+        BufferedImage page = TestTiffs.createPage(BarcodeFormat.QR_CODE, "Reuse test barcode");
+        BufferedImage smallPage = TestTiffs.createPage(BufferedImage.TYPE_BYTE_GRAY, BarcodeFormat.QR_CODE, "Small page barcode", 10, 10)
+                .getSubimage(0, 0, 400, 400);
+        DecoderContext decoderContext = new DecoderContext(EnumSet.of(BarcodeType.QR), TRY_HARDER_ONLY);
+        for (int i = 0; i < 2; i++) {
+            List<Barcode> barcodes = decoderContext.decode(page);
+            Assert.assertEquals(barcodes.size(), 1);
+            Assert.assertEquals(barcodes.get(0).getContent(), "Reuse test barcode");
+            // Nothing of the larger page is left in the reused buffers
+            barcodes = decoderContext.decode(smallPage);
+            Assert.assertEquals(barcodes.size(), 1);
+            Assert.assertEquals(barcodes.get(0).getContent(), "Small page barcode");
+        }
+        // The smaller page is loaded into the buffer of the larger page
+        byte[] luminances = decoderContext.loadLuminances(page, 1).getMatrix();
+        Assert.assertSame(decoderContext.loadLuminances(smallPage, 1).getMatrix(), luminances);
+    }
+
+    @Test
+    public void testLargeBuffersAreNotKept() throws Exception {
+        BufferedImage page = TestTiffs.createPage(BarcodeFormat.QR_CODE, "Large page barcode");
+        BufferedImage smallPage = TestTiffs.createPage(BufferedImage.TYPE_BYTE_GRAY, BarcodeFormat.QR_CODE, "Small page barcode", 10, 10)
+                .getSubimage(0, 0, 400, 400);
+        // Room for the luminances of the small page and their turned copy
+        DecoderContext decoderContext = new DecoderContext(EnumSet.of(BarcodeType.QR), TRY_HARDER_ONLY, 2 * 400 * 400);
+        Assert.assertEquals(decoderContext.decode(page).get(0).getContent(), "Large page barcode");
+        decoderContext.trimBuffers();
+        byte[] luminances = decoderContext.loadLuminances(smallPage, 1).getMatrix();
+        Assert.assertEquals(luminances.length, 400 * 400);
+        Assert.assertEquals(decoderContext.decode(smallPage).get(0).getContent(), "Small page barcode");
+        decoderContext.trimBuffers();
+        Assert.assertSame(decoderContext.loadLuminances(smallPage, 1).getMatrix(), luminances);
+    }
+
+    /**
+     * The luminances read straight from the data buffer must be the ones
+     * ZXing's BufferedImageLuminanceSource computes.
+     */
+    @Test
+    public void testLuminancesMatchZxing() throws Exception {
+        DecoderContext decoderContext = new DecoderContext(EnumSet.of(BarcodeType.QR), TRY_HARDER_ONLY);
+        int[] imageTypes = {BufferedImage.TYPE_BYTE_BINARY, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_INT_RGB};
+        for (int imageType : imageTypes) {
+            BufferedImage page = TestTiffs.createPage(imageType, BarcodeFormat.QR_CODE, "Luminance test barcode", 333, 111);
+            assertSameLuminances(decoderContext.loadLuminances(page, 1), new BufferedImageLuminanceSource(page));
+            // A subimage starts in the middle of a byte of a bilevel page
+            BufferedImage region = page.getSubimage(301, 97, 317, 283);
+            assertSameLuminances(decoderContext.loadLuminances(region, 1),
+                    new BufferedImageLuminanceSource(page, 301, 97, 317, 283));
+        }
+    }
+
+    private void assertSameLuminances(LuminanceSource actual, LuminanceSource expected) {
+        Assert.assertEquals(actual.getWidth(), expected.getWidth());
+        Assert.assertEquals(actual.getHeight(), expected.getHeight());
+        int size = expected.getWidth() * expected.getHeight();
+        // The reused buffer may be larger than the image
+        Assert.assertEquals(Arrays.copyOf(actual.getMatrix(), size), expected.getMatrix());
+    }
+}
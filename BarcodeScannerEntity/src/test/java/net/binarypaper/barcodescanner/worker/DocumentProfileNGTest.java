@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import com.google.zxing.BarcodeFormat;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.regex.Pattern;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class DocumentProfileNGTest {
+
+    private static final DecodeStrategy TRY_HARDER_ONLY = new DecodeStrategy(Collections.singletonList(DecodeTier.TRY_HARDER), 1);
+
+    private DocumentProfile createCoverSheetProfile() {
+        return new DocumentProfile("coverSheet", Pattern.compile("COVER.*\\.tif"),
+                DocumentProfile.parseRegions("1:0.5,0,0.5,0.2; *:0,0.9,1,0.1"));
+    }
+
+    @Test
+    public void testParseRegions() {
+        Assert.assertEquals(DocumentProfile.parseRegions("1:0,0,1,0.2;x:0,0,1,1;2:0,0,1;3:0,0,2,1;").size(), 1);
+        // Bounds that are not numbers or are infinite are not fractions either
+        Assert.assertTrue(DocumentProfile.parseRegions("1:NaN,0,1,1;2:0,0,Infinity,1;3:0,-Infinity,1,1").isEmpty());
+    }
+
+    @Test
+    public void testRegionsOf() {
+        DocumentProfile profile = createCoverSheetProfile();
+        Assert.assertEquals(profile.regionsOf(1, 1000, 2000),
+                Arrays.asList(new Rectangle(500, 0, 500, 400), new Rectangle(0, 1800, 1000, 200)));
+        Assert.assertEquals(profile.regionsOf(2, 1000, 2000),
+                Arrays.asList(new Rectangle(0, 1800, 1000, 200)));
+        Assert.assertTrue(DocumentProfile.WHOLE_PAGE.regionsOf(1, 1000, 2000).isEmpty());
+    }
+
+    @Test
+    public void testForFile() {
+        List<DocumentProfile> profiles = Collections.singletonList(createCoverSheetProfile());
+        Assert.assertEquals(DocumentProfile.forFile(profiles, "/input/COVER-0001.tif").getName(), "coverSheet");
+        Assert.assertSame(DocumentProfile.forFile(profiles, "/input/invoice.tif"), DocumentProfile.WHOLE_PAGE);
+    }
+
+    /**
+     * Decodes a page with the barcode in the top right corner with the cover
+     * sheet regions.
+     */
+    @Test
+    public void testRegionDecode() throws Exception {
+        BufferedImage page = TestTiffs.createPage(BarcodeFormat.QR_CODE, "Cover sheet barcode");
+        DecoderContext decoderContext = new DecoderContext(EnumSet.of(BarcodeType.QR), TRY_HARDER_ONLY);
+        List<Rectangle> regions = createCoverSheetProfile().regionsOf(1, page.getWidth(), page.getHeight());
+        List<Barcode> barcodes = decoderContext.decode(page, regions);
+        Assert.assertEquals(barcodes.size(), 1);
+        Assert.assertEquals(barcodes.get(0).getContent(), "Cover sheet barcode");
+        // A barcode in two overlapping regions is returned once
+        List<Rectangle> overlappingRegions = Arrays.asList(regions.get(0), new Rectangle(0, 0, page.getWidth(), page.getHeight() / 2));
+        Assert.assertEquals(decoderContext.decode(page, overlappingRegions).size(), 1);
+        // A barcode outside of the regions is still found on the whole page
+        List<Rectangle> missedRegions = createCoverSheetProfile().regionsOf(2, page.getWidth(), page.getHeight());
+        Assert.assertEquals(decoderContext.decode(page, missedRegions).size(), 1);
+    }
+}
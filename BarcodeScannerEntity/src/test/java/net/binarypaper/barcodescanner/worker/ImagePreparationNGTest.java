@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import com.google.zxing.BarcodeFormat;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class ImagePreparationNGTest {
+
+    /**
+     * Creates a 300 dpi page by doubling a generated 150 dpi page.
+     */
+    private BufferedImage create300DpiPage() throws Exception {
+        BufferedImage page = TestTiffs.createPage(BarcodeFormat.QR_CODE, "300 dpi barcode");
+        BufferedImage page300Dpi = new BufferedImage(page.getWidth() * 2, page.getHeight() * 2, BufferedImage.TYPE_BYTE_BINARY);
+        Graphics2D graphics = page300Dpi.createGraphics();
+        graphics.drawImage(page, 0, 0, page300Dpi.getWidth(), page300Dpi.getHeight(), null);
+        graphics.dispose();
+        return page300Dpi;
+    }
+
+    @Test
+    public void testReadParam() throws Exception {
+        byte[] tiff = TestTiffs.createTiff(Collections.singletonList(create300DpiPage()), 300);
+        ImageReader reader = ImageIO.getImageReadersByFormatName("tiff").next();
+        ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(tiff));
+        try {
+            reader.setInput(iis);
+            Assert.assertEquals(ImagePreparation.dpiOf(reader.getImageMetadata(0)), 300, 0.01);
+            Assert.assertNull(ImagePreparation.readParam(reader, 0, 0));
+            Assert.assertNull(ImagePreparation.readParam(reader, 0, 200));
+            ImageReadParam param = ImagePreparation.readParam(reader, 0, 150);
+            Assert.assertEquals(param.getSourceXSubsampling(), 2);
+
+            DecoderContext decoderContext = new DecoderContext(EnumSet.of(BarcodeType.QR),
+                    new DecodeStrategy(Collections.singletonList(DecodeTier.TRY_HARDER), 1));
+            BufferedImage fullPage = reader.read(0);
+            BufferedImage subsampledPage = reader.read(0, param);
+            Assert.assertEquals(subsampledPage.getWidth(), fullPage.getWidth() / 2);
+            List<Barcode> barcodes = decoderContext.decode(subsampledPage);
+            Assert.assertEquals(barcodes.size(), 1);
+            Assert.assertEquals(barcodes.get(0).getContent(), "300 dpi barcode");
+        } finally {
+            reader.dispose();
+            iis.close();
+        }
+    }
+
+    @Test
+    public void testOversizedPageIsSubsampled() throws Exception {
+        BufferedImage page = create300DpiPage();
+        byte[] tiff = TestTiffs.createTiff(Collections.singletonList(page), 300);
+        ImageReader reader = ImageIO.getImageReadersByFormatName("tiff").next();
+        ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(tiff));
+        try {
+            reader.setInput(iis);
+            // A bit of the bilevel page, a byte of luminance, a byte of the
+            // turned luminance and a bit of the binarized page for every pixel
+            long pixels = (long) page.getWidth() * page.getHeight();
+            long decodeBytes = pixels / 8 + 2 * pixels + pixels / 8;
+            Assert.assertEquals(ImagePreparation.decodeBytesOf(reader, 0, null), decodeBytes);
+            Assert.assertNull(ImagePreparation.readParam(reader, 0, 0, decodeBytes));
+            ImageReadParam param = ImagePreparation.readParam(reader, 0, 0, decodeBytes / 3);
+            Assert.assertEquals(param.getSourceXSubsampling(), 2);
+            Assert.assertEquals(ImagePreparation.decodeBytesOf(reader, 0, param), decodeBytes / 4);
+            // A page subsampled to the target resolution may already fit
+            Assert.assertEquals(ImagePreparation.readParam(reader, 0, 150, decodeBytes / 3).getSourceXSubsampling(), 2);
+            Assert.assertEquals(ImagePreparation.readParam(reader, 0, 150, decodeBytes / 5).getSourceXSubsampling(), 3);
+        } finally {
+            reader.dispose();
+            iis.close();
+        }
+    }
+
+    @Test
+    public void testPageWithoutResolution() throws Exception {
+        byte[] tiff = TestTiffs.createQrTiff("No resolution");
+        ImageReader reader = ImageIO.getImageReadersByFormatName("tiff").next();
+        ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(tiff));
+        try {
+            reader.setInput(iis);
+            Assert.assertNull(ImagePreparation.readParam(reader, 0, 150));
+        } finally {
+            reader.dispose();
+            iis.close();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class InputFolderWatcherNGTest {
+
+    private static final long ONE_HOUR = 3600000;
+
+    private final TestFolders testFolders = new TestFolders();
+
+    @AfterMethod
+    public void deleteFolders() {
+        testFolders.deleteAll();
+    }
+
+    private Future<List<File>> takeLater(ExecutorService executor, final InputFolderWatcher inputFolderWatcher) {
+        return executor.submit(new Callable<List<File>>() {
+
+            @Override
+            public List<File> call() throws InterruptedException {
+                return inputFolderWatcher.takeStableFiles();
+            }
+        });
+    }
+
+    private void append(File file, int bytes) throws IOException {
+        OutputStream outputStream = new FileOutputStream(file, true);
+        try {
+            outputStream.write(new byte[bytes]);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    @Test
+    public void testGrowingFileIsNotTaken() throws Exception {
+        File inputFolder = testFolders.create("InputFolderWatcherNGTest");
+        InputFolderWatcher inputFolderWatcher = new InputFolderWatcher(inputFolder, 500, ONE_HOUR, ".part");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            File growingFile = new File(inputFolder, "growing.tif");
+            append(growingFile, 1024);
+            Future<List<File>> stableFiles = takeLater(executor, inputFolderWatcher);
+            // The scanner is still copying the file
+            for (int i = 0; i < 8; i++) {
+                Thread.sleep(100);
+                Assert.assertFalse(stableFiles.isDone());
+                append(growingFile, 1024);
+            }
+            Assert.assertEquals(stableFiles.get(10, TimeUnit.SECONDS), Arrays.asList(growingFile));
+            Assert.assertEquals(growingFile.length(), 9 * 1024);
+        } finally {
+            executor.shutdownNow();
+            inputFolderWatcher.close();
+        }
+    }
+
+    @Test
+    public void testInProgressFilesAreIgnored() throws Exception {
+        File inputFolder = testFolders.create("InputFolderWatcherNGTest");
+        File partFile = new File(inputFolder, "scan.tif.part");
+        append(partFile, 1024);
+        File readyFile = new File(inputFolder, "ready.tif");
+        append(readyFile, 1024);
+        InputFolderWatcher inputFolderWatcher = new InputFolderWatcher(inputFolder, 0, ONE_HOUR, ".part");
+        try {
+            Assert.assertEquals(inputFolderWatcher.takeStableFiles(), Arrays.asList(readyFile));
+            // The file is taken once it is renamed
+            File renamedFile = new File(inputFolder, "scan.tif");
+            Assert.assertTrue(partFile.renameTo(renamedFile));
+            Assert.assertEquals(inputFolderWatcher.takeStableFiles(), Arrays.asList(renamedFile));
+        } finally {
+            inputFolderWatcher.close();
+        }
+    }
+
+    /**
+     * Creates more files than the watch service keeps events for, so that
+     * only a rescan of the folder finds all of them.
+     */
+    @Test
+    public void testLostEventsRescanTheFolder() throws Exception {
+        File inputFolder = testFolders.create("InputFolderWatcherNGTest");
+        File firstFile = new File(inputFolder, "first.tif");
+        append(firstFile, 1);
+        InputFolderWatcher inputFolderWatcher = new InputFolderWatcher(inputFolder, 0, ONE_HOUR, ".part");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // The folder is listed at start up, the next rescan is an hour away
+            Assert.assertEquals(inputFolderWatcher.takeStableFiles(), Arrays.asList(firstFile));
+            Assert.assertTrue(firstFile.delete());
+            Set<File> createdFiles = new HashSet<File>();
+            for (int i = 0; i < 2000; i++) {
+                File file = new File(inputFolder, "scan" + i + ".tif");
+                Assert.assertTrue(file.createNewFile());
+                createdFiles.add(file);
+            }
+            Set<File> takenFiles = new HashSet<File>();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (takenFiles.size() < createdFiles.size()) {
+                long timeout = Math.max(deadline - System.currentTimeMillis(), 1);
+                takenFiles.addAll(takeLater(executor, inputFolderWatcher).get(timeout, TimeUnit.MILLISECONDS));
+            }
+            Assert.assertEquals(takenFiles, createdFiles);
+        } finally {
+            executor.shutdownNow();
+            inputFolderWatcher.close();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class IntakeSchedulerNGTest {
+
+    private static final long MEGABYTE = 1024 * 1024;
+    private static final List<Pattern> COVER_SHEETS = Arrays.asList(Pattern.compile("COVER.*"));
+
+    // The latencies of the small files in the last simulation
+    private List<Long> lastLatencies;
+
+    private static IntakeScheduler.Ticket add(IntakeScheduler scheduler, String fileName, long length, long arrivalMillis) {
+        IntakeScheduler.Ticket ticket = scheduler.createTicket(new File(fileName), length, arrivalMillis);
+        scheduler.add(ticket);
+        return ticket;
+    }
+
+    private static String pollName(IntakeScheduler scheduler) {
+        IntakeScheduler.Ticket ticket = scheduler.poll();
+        return ticket == null ? null : ticket.getFile().getName();
+    }
+
+    @Test
+    public void testSmallFilesFirstWithoutStarvation() {
+        IntakeScheduler scheduler = new IntakeScheduler(Collections.<Pattern>emptyList(), 60000, 1000, 10, 10, 0);
+        add(scheduler, "archive.tif", 100 * MEGABYTE, 0);
+        // Small files that arrive within the 100 second delay of the large
+        // file pass it, the later ones do not
+        add(scheduler, "late.tif", MEGABYTE / 10, 150000);
+        add(scheduler, "early.tif", MEGABYTE / 10, 50000);
+        Assert.assertEquals(pollName(scheduler), "early.tif");
+        Assert.assertEquals(pollName(scheduler), "archive.tif");
+        Assert.assertEquals(pollName(scheduler), "late.tif");
+        Assert.assertNull(scheduler.poll());
+    }
+
+    @Test
+    public void testPriorityClasses() {
+        IntakeScheduler scheduler = new IntakeScheduler(COVER_SHEETS, 60000, 0, 10, 10, 0);
+        Assert.assertEquals(scheduler.priorityClassOf("COVER-1.tif"), 0);
+        Assert.assertEquals(scheduler.priorityClassOf("scan.tif"), 1);
+        add(scheduler, "scan1.tif", 0, 0);
+        add(scheduler, "COVER-late.tif", 0, 90000);
+        add(scheduler, "COVER-early.tif", 0, 30000);
+        Assert.assertEquals(pollName(scheduler), "COVER-early.tif");
+        Assert.assertEquals(pollName(scheduler), "scan1.tif");
+        Assert.assertEquals(pollName(scheduler), "COVER-late.tif");
+    }
+
+    @Test
+    public void testReservedSlots() {
+        IntakeScheduler scheduler = new IntakeScheduler(COVER_SHEETS, 60000, 0, 2, 3, 1);
+        add(scheduler, "scan1.tif", 0, 0);
+        add(scheduler, "scan2.tif", 0, 1);
+        IntakeScheduler.Ticket first = scheduler.poll();
+        Assert.assertEquals(first.getFile().getName(), "scan1.tif");
+        // The second intake thread is kept for the cover sheets
+        Assert.assertNull(scheduler.poll());
+        add(scheduler, "COVER.tif", 0, 2);
+        Assert.assertEquals(pollName(scheduler), "COVER.tif");
+        Assert.assertNull(scheduler.poll());
+        // The output of the first file is still being written, which leaves
+        // the second file no unreserved file slot
+        scheduler.readingDone(first);
+        add(scheduler, "COVER-2.tif", 0, 3);
+        Assert.assertEquals(pollName(scheduler), "COVER-2.tif");
+        Assert.assertNull(scheduler.poll());
+        Assert.assertEquals(scheduler.getFilesInFlight(), 3);
+        Assert.assertEquals(scheduler.getQueuedFiles(), 1);
+    }
+
+    @Test
+    public void testReservedSlotsLeaveOneForOtherFiles() {
+        IntakeScheduler scheduler = new IntakeScheduler(COVER_SHEETS, 60000, 0, 2, 8, 5);
+        add(scheduler, "scan.tif", 0, 0);
+        Assert.assertEquals(pollName(scheduler), "scan.tif");
+    }
+
+    /**
+     * Replays batches of small files on one intake thread, where every batch
+     * is listed with a large archive file first, and compares the latency of
+     * the small files with the files read in the order they arrive. The
+     * replay runs on a simulated clock, so the result does not depend on the
+     * speed of the machine.
+     */
+    @Test
+    public void testLatencyOfSmallFiles() {
+        long fifoMakespan = simulate(new IntakeScheduler(Collections.<Pattern>emptyList(), 0, 0, 1, 1, 0));
+        List<Long> fifoLatencies = lastLatencies;
+        long scheduledMakespan = simulate(new IntakeScheduler(Collections.<Pattern>emptyList(), 60000, 1000, 1, 1, 0));
+        List<Long> scheduledLatencies = lastLatencies;
+        // Both keep the thread busy as long as files are queued
+        Assert.assertEquals(scheduledMakespan, fifoMakespan);
+        Assert.assertTrue(percentile(scheduledLatencies, 99) * 2 < percentile(fifoLatencies, 99));
+    }
+
+    /**
+     * Simulates the intake of 400 files that arrive in batches of 20 every
+     * 20 seconds.
+     *
+     * @return The time at which the last file was read, in milliseconds.
+     */
+    private long simulate(IntakeScheduler scheduler) {
+        Map<File, long[]> files = new HashMap<File, long[]>();
+        List<IntakeScheduler.Ticket> arrivals = new ArrayList<IntakeScheduler.Ticket>();
+        for (int i = 0; i < 400; i++) {
+            boolean archive = i % 20 == 0;
+            long length = archive ? 40 * MEGABYTE : MEGABYTE / 10;
+            long arrivalMillis = i / 20 * 20000L;
+            IntakeScheduler.Ticket ticket = scheduler.createTicket(new File("scan" + i + ".tif"), length, arrivalMillis);
+            // The arrival time and the time it takes to read the file
+            files.put(ticket.getFile(), new long[]{arrivalMillis, archive ? 16000 : 150});
+            arrivals.add(ticket);
+        }
+        List<Long> latencies = new ArrayList<Long>();
+        long now = 0;
+        int arrived = 0;
+        while (latencies.size() < 400 || arrived < arrivals.size()) {
+            while (arrived < arrivals.size() && files.get(arrivals.get(arrived).getFile())[0] <= now) {
+                scheduler.add(arrivals.get(arrived++));
+            }
+            IntakeScheduler.Ticket ticket = scheduler.poll();
+            if (ticket == null) {
+                if (arrived == arrivals.size()) {
+                    break;
+                }
+                now = files.get(arrivals.get(arrived).getFile())[0];
+                continue;
+            }
+            long[] file = files.get(ticket.getFile());
+            now += file[1];
+            scheduler.readingDone(ticket);
+            scheduler.fileDone(ticket);
+            if (file[1] < 1000) {
+                latencies.add(now - file[0]);
+            }
+        }
+        lastLatencies = latencies;
+        return now;
+    }
+
+    private static long percentile(List<Long> values, int percentile) {
+        List<Long> sorted = new ArrayList<Long>(values);
+        Collections.sort(sorted);
+        return sorted.get(Math.min(sorted.size() - 1, sorted.size() * percentile / 100));
+    }
+}
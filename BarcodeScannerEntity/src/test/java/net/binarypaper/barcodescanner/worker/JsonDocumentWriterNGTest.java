@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+import net.binarypaper.barcodescanner.entity.Document;
+import net.binarypaper.barcodescanner.entity.Page;
+import org.eclipse.persistence.jaxb.JAXBContextFactory;
+import org.eclipse.persistence.jaxb.MarshallerProperties;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class JsonDocumentWriterNGTest {
+
+    private String marshalDocument(Document document) throws JAXBException {
+        JAXBContext jaxbContext = JAXBContextFactory.createContext(new Class[]{Document.class}, null);
+        Marshaller jaxbMarshaller = jaxbContext.createMarshaller();
+        jaxbMarshaller.setProperty(MarshallerProperties.MEDIA_TYPE, "application/json");
+        StringWriter stringWriter = new StringWriter();
+        jaxbMarshaller.marshal(document, stringWriter);
+        return stringWriter.toString();
+    }
+
+    private String writeDocument(Document document) throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        JsonDocumentWriter documentWriter = new JsonDocumentWriter(stringWriter, document.getFileName());
+        for (Page page : document.getPages()) {
+            documentWriter.writePage(page);
+        }
+        documentWriter.close();
+        return stringWriter.toString();
+    }
+
+    private Page createPage(int pageNumber, String... contents) {
+        Page page = new Page();
+        page.setPageNumber(pageNumber);
+        List<Barcode> barcodes = new ArrayList<Barcode>();
+        for (String content : contents) {
+            Barcode barcode = new Barcode();
+            barcode.setType(BarcodeType.QR);
+            barcode.setContent(content);
+            barcodes.add(barcode);
+        }
+        page.setBarcodes(barcodes);
+        return page;
+    }
+
+    @Test
+    public void testBlankPageIsMarked() throws Exception {
+        Document document = new Document();
+        document.setFileName("separated.tif");
+        List<Page> pages = new ArrayList<Page>();
+        pages.add(createPage(1, "Page 1 Barcode 1"));
+        Page blankPage = createPage(2);
+        blankPage.setBlank(Boolean.TRUE);
+        pages.add(blankPage);
+        document.setPages(pages);
+        String json = writeDocument(document);
+        Assert.assertEquals(json, marshalDocument(document));
+        Assert.assertTrue(json.contains("\"blank\":true"), json);
+    }
+
+    @Test
+    public void testPagesAreWrittenLikeTheWholeDocument() throws Exception {
+        Document document = new Document();
+        document.setFileName("Scan \"page\":[1].tif");
+        List<Page> pages = new ArrayList<Page>();
+        pages.add(createPage(1, "Page 1 Barcode 1", "{\"json\":\"inside a barcode\"}"));
+        pages.add(createPage(2));
+        pages.add(createPage(3, "Line 1\nLine 2", "ünïcode ]}}"));
+        document.setPages(pages);
+        String json = writeDocument(document);
+        Assert.assertEquals(json, marshalDocument(document));
+        Assert.assertFalse(json.contains("\n"), json);
+    }
+
+    @Test
+    public void testDocumentWithoutPages() throws Exception {
+        Document document = new Document();
+        document.setFileName("empty.tif");
+        document.setPages(Collections.<Page>emptyList());
+        Assert.assertEquals(writeDocument(document), marshalDocument(document));
+    }
+
+    @Test
+    public void testFileNameIsEscapedLikeTheWholeDocument() throws Exception {
+        Document document = new Document();
+        document.setFileName("Scan \\ /1\t\b\f\r\n\u0001\u007f\u0085 \u00e9\ud83d\ude00.tif");
+        document.setPages(Collections.singletonList(createPage(1, "Page 1 Barcode 1")));
+        Assert.assertEquals(writeDocument(document), marshalDocument(document));
+    }
+}
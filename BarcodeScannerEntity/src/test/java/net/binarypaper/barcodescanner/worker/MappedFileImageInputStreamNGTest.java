@@ -0,0 +1,140 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class MappedFileImageInputStreamNGTest {
+
+    private File createFile(byte[] content) throws IOException {
+        File file = File.createTempFile("MappedFileImageInputStreamNGTest", ".tif");
+        file.deleteOnExit();
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(content);
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+
+    private byte[] createTiff(int pageCount) throws Exception {
+        String[] contents = new String[pageCount];
+        for (int i = 0; i < pageCount; i++) {
+            contents[i] = "Page " + (i + 1);
+        }
+        return TestTiffs.createQrTiff(contents);
+    }
+
+    private static byte[] readPage(ImageInputStream iis, int pageIndex) throws IOException {
+        ImageReader reader = ImageIO.getImageReadersByFormatName("tiff").next();
+        try {
+            reader.setInput(iis, false, true);
+            BufferedImage page = reader.read(pageIndex);
+            return ((DataBufferByte) page.getRaster().getDataBuffer()).getData();
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void testReadsAcrossWindows() throws Exception {
+        byte[] tiff = createTiff(3);
+        File file = createFile(tiff);
+        // Windows far smaller than a page make most reads span windows
+        MappedFileImageInputStream iis = new MappedFileImageInputStream(file, 1000);
+        try {
+            Assert.assertEquals(iis.length(), tiff.length);
+            byte[] bytes = new byte[tiff.length];
+            iis.readFully(bytes, 0, 10);
+            iis.readFully(bytes, 10, 2500);
+            iis.readFully(bytes, 2510, tiff.length - 2510);
+            Assert.assertEquals(bytes, tiff);
+            Assert.assertEquals(iis.read(), -1);
+            Assert.assertEquals(iis.read(bytes, 0, 1), -1);
+            iis.seek(999);
+            Assert.assertEquals(iis.read(), tiff[999] & 0xff);
+            Assert.assertEquals(iis.read(), tiff[1000] & 0xff);
+            for (int i = 0; i < 3; i++) {
+                // The reader finds the tiff header at the stream position
+                iis.seek(0);
+                Assert.assertEquals(readPage(iis, i), readPage(new ByteBufferImageInputStream(ByteBuffer.wrap(tiff)), i));
+            }
+        } finally {
+            iis.close();
+        }
+        try {
+            iis.read();
+            Assert.fail("A closed stream must not be read.");
+        } catch (IOException ex) {
+            // The windows are unmapped
+        }
+    }
+
+    @Test
+    public void testPagesAreReadConcurrently() throws Exception {
+        final byte[] tiff = createTiff(8);
+        final File file = createFile(tiff);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 32; i++) {
+                final int pageIndex = i % 8;
+                results.add(executor.submit(new Callable<Boolean>() {
+
+                    @Override
+                    public Boolean call() throws Exception {
+                        MappedFileImageInputStream iis = new MappedFileImageInputStream(file, 4096);
+                        try {
+                            return Arrays.equals(readPage(iis, pageIndex),
+                                    readPage(new ByteBufferImageInputStream(ByteBuffer.wrap(tiff)), pageIndex));
+                        } finally {
+                            iis.close();
+                        }
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                Assert.assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // The file is no longer mapped once the streams are closed
+        Assert.assertTrue(file.delete());
+    }
+}
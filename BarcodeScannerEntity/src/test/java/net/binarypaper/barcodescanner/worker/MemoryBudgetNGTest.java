@@ -0,0 +1,245 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class MemoryBudgetNGTest {
+
+    private Future<MemoryBudget.Grant> acquireLater(ExecutorService executor, final MemoryBudget memoryBudget, final long bytes) {
+        return executor.submit(new Callable<MemoryBudget.Grant>() {
+
+            @Override
+            public MemoryBudget.Grant call() throws InterruptedException {
+                return memoryBudget.acquire(bytes);
+            }
+        });
+    }
+
+    private void awaitWaitingPages(MemoryBudget memoryBudget, int pages) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (memoryBudget.getWaitingPages() != pages && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(memoryBudget.getWaitingPages(), pages);
+    }
+
+    @Test
+    public void testPagesWaitForMemory() throws Exception {
+        MemoryBudget memoryBudget = new MemoryBudget(100);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            MemoryBudget.Grant first = memoryBudget.acquire(60);
+            MemoryBudget.Grant second = memoryBudget.acquire(40);
+            Assert.assertEquals(memoryBudget.getUsedBytes(), 100);
+            Future<MemoryBudget.Grant> large = acquireLater(executor, memoryBudget, 70);
+            awaitWaitingPages(memoryBudget, 1);
+            // A small page that fits is not let past the large page that
+            // asked first
+            Future<MemoryBudget.Grant> small = acquireLater(executor, memoryBudget, 10);
+            awaitWaitingPages(memoryBudget, 2);
+            second.release();
+            second.release();
+            Assert.assertEquals(memoryBudget.getUsedBytes(), 60);
+            try {
+                small.get(100, TimeUnit.MILLISECONDS);
+                Assert.fail("The small page passed the large page.");
+            } catch (TimeoutException ex) {
+                // Waits behind the large page
+            }
+            first.release();
+            Assert.assertEquals(large.get(10, TimeUnit.SECONDS).getBytes(), 70);
+            Assert.assertEquals(small.get(10, TimeUnit.SECONDS).getBytes(), 10);
+            Assert.assertEquals(memoryBudget.getUsedBytes(), 80);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPageLargerThanTheBudgetIsDecodedAlone() throws Exception {
+        MemoryBudget memoryBudget = new MemoryBudget(100);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            MemoryBudget.Grant small = memoryBudget.acquire(1);
+            Future<MemoryBudget.Grant> huge = acquireLater(executor, memoryBudget, 1000);
+            awaitWaitingPages(memoryBudget, 1);
+            small.release();
+            Assert.assertEquals(huge.get(10, TimeUnit.SECONDS).getBytes(), 100);
+            Assert.assertEquals(memoryBudget.getUsedBytes(), 100);
+        } finally {
+            executor.shutdownNow();
+        }
+        // Without a budget every page is admitted right away
+        MemoryBudget noBudget = new MemoryBudget(0);
+        Assert.assertFalse(noBudget.isEnabled());
+        Assert.assertEquals(noBudget.acquire(Long.MAX_VALUE).getBytes(), 0);
+    }
+
+    @Test
+    public void testInterruptedPageLeavesTheQueue() throws Exception {
+        MemoryBudget memoryBudget = new MemoryBudget(100);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            MemoryBudget.Grant grant = memoryBudget.acquire(100);
+            Future<MemoryBudget.Grant> interrupted = acquireLater(executor, memoryBudget, 50);
+            awaitWaitingPages(memoryBudget, 1);
+            Future<MemoryBudget.Grant> next = acquireLater(executor, memoryBudget, 50);
+            awaitWaitingPages(memoryBudget, 2);
+            interrupted.cancel(true);
+            awaitWaitingPages(memoryBudget, 1);
+            grant.release();
+            Assert.assertEquals(next.get(10, TimeUnit.SECONDS).getBytes(), 50);
+            Assert.assertEquals(memoryBudget.getUsedBytes(), 50);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCancelledPageReleasesItsMemory() throws Exception {
+        MemoryBudget memoryBudget = new MemoryBudget(100);
+        PageDecodeExecutor pageDecodeExecutor = new PageDecodeExecutor(1, 1);
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        Future<Boolean> running = pageDecodeExecutor.submit(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() throws InterruptedException {
+                busy.countDown();
+                return done.await(10, TimeUnit.SECONDS);
+            }
+        }, memoryBudget.acquire(30));
+        Assert.assertTrue(busy.await(10, TimeUnit.SECONDS));
+        Future<Boolean> queued = pageDecodeExecutor.submit(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() {
+                return true;
+            }
+        }, memoryBudget.acquire(50));
+        Assert.assertEquals(memoryBudget.getUsedBytes(), 80);
+        Assert.assertEquals(pageDecodeExecutor.getPendingPages(), 2);
+        // A page cancelled before it is decoded never runs
+        queued.cancel(false);
+        Assert.assertEquals(memoryBudget.getUsedBytes(), 30);
+        Assert.assertEquals(pageDecodeExecutor.getPendingPages(), 1);
+        done.countDown();
+        Assert.assertTrue(running.get(10, TimeUnit.SECONDS));
+        // The memory is released right after the result is set
+        long deadline = System.currentTimeMillis() + 10000;
+        while (memoryBudget.getUsedBytes() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(memoryBudget.getUsedBytes(), 0);
+        Assert.assertEquals(pageDecodeExecutor.getPendingPages(), 0);
+    }
+
+    @Test
+    public void testInterruptedSubmitReleasesItsMemory() throws Exception {
+        final MemoryBudget memoryBudget = new MemoryBudget(100);
+        final PageDecodeExecutor pageDecodeExecutor = new PageDecodeExecutor(1, 0);
+        final CountDownLatch done = new CountDownLatch(1);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            pageDecodeExecutor.submit(new Callable<Boolean>() {
+
+                @Override
+                public Boolean call() throws InterruptedException {
+                    return done.await(10, TimeUnit.SECONDS);
+                }
+            }, memoryBudget.acquire(30));
+            final MemoryBudget.Grant grant = memoryBudget.acquire(70);
+            Future<Void> blocked = executor.submit(new Callable<Void>() {
+
+                @Override
+                public Void call() throws InterruptedException {
+                    pageDecodeExecutor.submit(new Callable<Boolean>() {
+
+                        @Override
+                        public Boolean call() {
+                            return true;
+                        }
+                    }, grant);
+                    return null;
+                }
+            });
+            try {
+                blocked.get(100, TimeUnit.MILLISECONDS);
+                Assert.fail("The page was submitted past a full queue.");
+            } catch (TimeoutException ex) {
+                // Waits for a queue slot
+            }
+            blocked.cancel(true);
+            // The memory of the page that never got a queue slot is released
+            long deadline = System.currentTimeMillis() + 10000;
+            while (memoryBudget.getUsedBytes() != 30 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            Assert.assertEquals(memoryBudget.getUsedBytes(), 30);
+            Assert.assertEquals(pageDecodeExecutor.getPendingPages(), 1);
+        } finally {
+            done.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCancelledRunningPageKeepsItsMemory() throws Exception {
+        MemoryBudget memoryBudget = new MemoryBudget(100);
+        PageDecodeExecutor pageDecodeExecutor = new PageDecodeExecutor(1, 0);
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+        Future<Boolean> running = pageDecodeExecutor.submit(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() throws InterruptedException {
+                busy.countDown();
+                try {
+                    return done.await(10, TimeUnit.SECONDS);
+                } finally {
+                    finished.countDown();
+                }
+            }
+        }, memoryBudget.acquire(30));
+        Assert.assertTrue(busy.await(10, TimeUnit.SECONDS));
+        // The worker still holds the page image after the cancel
+        running.cancel(false);
+        Assert.assertEquals(memoryBudget.getUsedBytes(), 30);
+        Assert.assertEquals(pageDecodeExecutor.getPendingPages(), 1);
+        done.countDown();
+        Assert.assertTrue(finished.await(10, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (memoryBudget.getUsedBytes() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(memoryBudget.getUsedBytes(), 0);
+        Assert.assertEquals(pageDecodeExecutor.getPendingPages(), 0);
+    }
+}
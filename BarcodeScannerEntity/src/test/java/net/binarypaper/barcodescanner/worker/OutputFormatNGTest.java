@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+import net.binarypaper.barcodescanner.entity.Page;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class OutputFormatNGTest {
+
+    private static final int PAGES = 500;
+
+    private List<Page> createPages() {
+        List<Page> pages = new ArrayList<Page>();
+        for (int i = 1; i <= PAGES; i++) {
+            List<Barcode> barcodes = new ArrayList<Barcode>();
+            for (int j = 1; j <= 2; j++) {
+                Barcode barcode = new Barcode();
+                barcode.setType(BarcodeType.QR);
+                barcode.setContent("INV-2015-" + (i * 10 + j) + ";CUSTOMER-" + (i % 97));
+                barcodes.add(barcode);
+            }
+            Page page = new Page();
+            page.setPageNumber(i);
+            page.setBarcodes(barcodes);
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    private byte[] writeDocument(OutputFormat outputFormat, List<Page> pages) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        DocumentWriter documentWriter = outputFormat.createWriter(outputStream, "large document.tif");
+        for (Page page : pages) {
+            documentWriter.writePage(page);
+        }
+        documentWriter.close();
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Writes a document of many pages in every format. Every format is
+     * smaller than the one before it.
+     */
+    @Test
+    public void testSizes() throws Exception {
+        List<Page> pages = createPages();
+        Map<OutputFormat, Integer> sizes = new EnumMap<OutputFormat, Integer>(OutputFormat.class);
+        for (OutputFormat outputFormat : OutputFormat.values()) {
+            sizes.put(outputFormat, writeDocument(outputFormat, pages).length);
+        }
+        Assert.assertTrue(sizes.get(OutputFormat.COMPACT_XML) < sizes.get(OutputFormat.XML));
+        Assert.assertTrue(sizes.get(OutputFormat.JSON) < sizes.get(OutputFormat.COMPACT_XML));
+        Assert.assertTrue(sizes.get(OutputFormat.BINARY) < sizes.get(OutputFormat.JSON));
+    }
+
+    @Test
+    public void testFileExtensions() {
+        Assert.assertEquals(OutputFormat.XML.getFileExtension(), "xml");
+        Assert.assertEquals(OutputFormat.COMPACT_XML.getFileExtension(), "xml");
+        Assert.assertEquals(OutputFormat.JSON.getFileExtension(), "json");
+        Assert.assertEquals(OutputFormat.JSON.getBatchFileExtension(), "ndjson");
+        Assert.assertEquals(OutputFormat.BINARY.getFileExtension(), "bcs");
+    }
+}
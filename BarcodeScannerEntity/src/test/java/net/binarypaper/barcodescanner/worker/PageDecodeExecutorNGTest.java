@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class PageDecodeExecutorNGTest {
+
+    private Callable<Boolean> awaitTask(final CountDownLatch done) {
+        return new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() throws InterruptedException {
+                return done.await(10, TimeUnit.SECONDS);
+            }
+        };
+    }
+
+    private void awaitPendingPages(PageDecodeExecutor pageDecodeExecutor, int pages) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (pageDecodeExecutor.getPendingPages() != pages && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(pageDecodeExecutor.getPendingPages(), pages);
+    }
+
+    @Test
+    public void testSubmitBlocksWhileTheQueueIsFull() throws Exception {
+        final PageDecodeExecutor pageDecodeExecutor = new PageDecodeExecutor(2, 1);
+        final CountDownLatch done = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // Two pages are decoded and one waits in the queue
+            for (int i = 0; i < 3; i++) {
+                pageDecodeExecutor.submit(awaitTask(done));
+            }
+            Assert.assertEquals(pageDecodeExecutor.getPendingPages(), 3);
+            Future<Future<Boolean>> blocked = executor.submit(new Callable<Future<Boolean>>() {
+
+                @Override
+                public Future<Boolean> call() throws InterruptedException {
+                    return pageDecodeExecutor.submit(awaitTask(done));
+                }
+            });
+            try {
+                blocked.get(100, TimeUnit.MILLISECONDS);
+                Assert.fail("The page was submitted past a full queue.");
+            } catch (TimeoutException ex) {
+                // Waits for a queue slot
+            }
+            done.countDown();
+            Assert.assertTrue(blocked.get(10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS));
+            awaitPendingPages(pageDecodeExecutor, 0);
+        } finally {
+            done.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPermitIsReturnedWhenTaskThrows() throws Exception {
+        PageDecodeExecutor pageDecodeExecutor = new PageDecodeExecutor(1, 0);
+        Future<Boolean> failed = pageDecodeExecutor.submit(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() throws IOException {
+                throw new IOException("The page could not be decoded.");
+            }
+        });
+        try {
+            failed.get(10, TimeUnit.SECONDS);
+            Assert.fail("The page did not fail.");
+        } catch (ExecutionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof IOException);
+        }
+        awaitPendingPages(pageDecodeExecutor, 0);
+        // The only queue slot is free for the next page
+        Future<Boolean> next = pageDecodeExecutor.submit(new Callable<Boolean>() {
+
+            @Override
+            public Boolean call() {
+                return true;
+            }
+        });
+        Assert.assertTrue(next.get(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.common.BitMatrix;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+import net.binarypaper.barcodescanner.entity.Page;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.CCITTFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class PdfPagesNGTest {
+
+    private static final int RENDER_DPI = 100;
+
+    /**
+     * Adds a page that is one CCITT image of a generated 150 dpi page, like
+     * the pages of a scanner.
+     */
+    private void addScannedPage(PDDocument document, String content) throws Exception {
+        PDPage page = new PDPage(PDRectangle.A4);
+        document.addPage(page);
+        PDImageXObject image = CCITTFactory.createFromImage(document, TestTiffs.createPage(BarcodeFormat.QR_CODE, content));
+        PDPageContentStream contentStream = new PDPageContentStream(document, page);
+        try {
+            contentStream.drawImage(image, 0, 0, PDRectangle.A4.getWidth(), PDRectangle.A4.getHeight());
+        } finally {
+            contentStream.close();
+        }
+    }
+
+    /**
+     * Adds a page with a heading and a QR code drawn as vector graphics, like
+     * the pages of a generated pdf.
+     */
+    private void addGeneratedPage(PDDocument document, String content) throws Exception {
+        PDPage page = new PDPage(PDRectangle.A4);
+        document.addPage(page);
+        BitMatrix matrix = new MultiFormatWriter().encode(content, BarcodeFormat.QR_CODE, 0, 0);
+        float moduleSize = 4;
+        float left = 380;
+        float top = 780;
+        PDPageContentStream contentStream = new PDPageContentStream(document, page);
+        try {
+            contentStream.beginText();
+            contentStream.setFont(PDType1Font.HELVETICA, 14);
+            contentStream.newLineAtOffset(50, 780);
+            contentStream.showText("Generated page");
+            contentStream.endText();
+            for (int y = 0; y < matrix.getHeight(); y++) {
+                for (int x = 0; x < matrix.getWidth(); x++) {
+                    if (matrix.get(x, y)) {
+                        contentStream.addRect(left + x * moduleSize, top - (y + 1) * moduleSize, moduleSize, moduleSize);
+                    }
+                }
+            }
+            contentStream.fill();
+        } finally {
+            contentStream.close();
+        }
+    }
+
+    private File savePdf(PDDocument document) throws Exception {
+        File pdfFile = File.createTempFile("PdfPagesNGTest", ".pdf");
+        pdfFile.deleteOnExit();
+        try {
+            document.save(pdfFile);
+        } finally {
+            document.close();
+        }
+        return pdfFile;
+    }
+
+    @Test
+    public void testPageImage() throws Exception {
+        PDDocument document = new PDDocument();
+        addScannedPage(document, "Scanned page");
+        addGeneratedPage(document, "Generated page");
+        PdfDocumentPool pdfDocumentPool = new PdfDocumentPool(savePdf(document));
+        try {
+            PDDocument pdfDocument = pdfDocumentPool.borrow();
+            DecoderContext decoderContext = new DecoderContext(EnumSet.of(BarcodeType.QR),
+                    new DecodeStrategy(Collections.singletonList(DecodeTier.TRY_HARDER), 1));
+            // The scanned page is decoded from its embedded image
+            Assert.assertNotNull(PdfPages.scannedImage(pdfDocument.getPage(0)));
+            BufferedImage scannedPage = PdfPages.pageImage(pdfDocument, 0, RENDER_DPI, 0);
+            Assert.assertEquals(scannedPage.getWidth(), TestTiffs.PAGE_WIDTH);
+            Assert.assertEquals(decoderContext.decode(scannedPage).get(0).getContent(), "Scanned page");
+            Assert.assertEquals(PdfPages.pageImage(pdfDocument, 0, RENDER_DPI, 75).getWidth(), TestTiffs.PAGE_WIDTH / 2);
+            // The generated page is rendered
+            Assert.assertNull(PdfPages.scannedImage(pdfDocument.getPage(1)));
+            BufferedImage generatedPage = PdfPages.pageImage(pdfDocument, 1, RENDER_DPI, 0);
+            Assert.assertEquals(generatedPage.getWidth(), (int) (PDRectangle.A4.getWidth() * RENDER_DPI / 72));
+            Assert.assertEquals(generatedPage.getType(), BufferedImage.TYPE_BYTE_GRAY);
+            List<Barcode> barcodes = decoderContext.decode(generatedPage);
+            Assert.assertEquals(barcodes.get(0).getContent(), "Generated page");
+            pdfDocumentPool.release(pdfDocument);
+        } finally {
+            pdfDocumentPool.close();
+        }
+    }
+
+    @Test
+    public void testDecodeBytes() throws Exception {
+        PDDocument document = new PDDocument();
+        addScannedPage(document, "Scanned page");
+        addGeneratedPage(document, "Generated page");
+        try {
+            long renderedBytes = ImagePreparation.decodeBytes(Math.round(PDRectangle.A4.getWidth() * RENDER_DPI / 72),
+                    Math.round(PDRectangle.A4.getHeight() * RENDER_DPI / 72), 8, 1);
+            // The bilevel image of the scanned page is larger than the page
+            // rendered at a lower resolution
+            Assert.assertEquals(PdfPages.decodeBytesOf(document, 0, RENDER_DPI, 0),
+                    ImagePreparation.decodeBytes(TestTiffs.PAGE_WIDTH, TestTiffs.PAGE_HEIGHT, 1, 1));
+            Assert.assertEquals(PdfPages.decodeBytesOf(document, 0, RENDER_DPI, 75), renderedBytes);
+            Assert.assertEquals(PdfPages.decodeBytesOf(document, 1, RENDER_DPI, 0), renderedBytes);
+        } finally {
+            document.close();
+        }
+    }
+
+    @Test
+    public void testReadPdfPages() throws Exception {
+        PDDocument document = new PDDocument();
+        for (int i = 1; i <= 8; i++) {
+            if (i % 2 == 0) {
+                addGeneratedPage(document, "Page " + i);
+            } else {
+                addScannedPage(document, "Page " + i);
+            }
+        }
+        PdfDocumentPool pdfDocumentPool = new PdfDocumentPool(savePdf(document));
+        PageResults pageResults = new PageResults();
+        try {
+            new BarcodeScanner().readPdfPages(pdfDocumentPool, "test.pdf", pageResults);
+            pageResults.close();
+        } finally {
+            pdfDocumentPool.close();
+        }
+        for (int i = 1; i <= 8; i++) {
+            Page page = pageResults.next().get();
+            Assert.assertEquals(page.getPageNumber(), i);
+            Assert.assertEquals(page.getBarcodes().get(0).getContent(), "Page " + i);
+        }
+        Assert.assertNull(pageResults.next());
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import com.google.zxing.BarcodeFormat;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+import net.binarypaper.barcodescanner.entity.Page;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class ResultCacheNGTest {
+
+    private static final String SETTINGS = "QR;[FAST]";
+
+    private final TestFolders testFolders = new TestFolders();
+
+    @AfterMethod
+    public void deleteFolders() {
+        testFolders.deleteAll();
+    }
+
+    private List<Page> createPages(int pageCount) {
+        List<Page> pages = new ArrayList<Page>();
+        for (int i = 1; i <= pageCount; i++) {
+            Barcode barcode = new Barcode();
+            barcode.setType(BarcodeType.QR);
+            barcode.setContent("Page " + i + "\nwith <xml> & ünïcode");
+            Page page = new Page();
+            page.setPageNumber(i);
+            page.setBarcodes(Arrays.asList(barcode));
+            pages.add(page);
+        }
+        return pages;
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreDropped() {
+        ResultCache resultCache = new ResultCache(5, null);
+        resultCache.put(ResultCache.Kind.FILE, "A", createPages(2));
+        resultCache.put(ResultCache.Kind.FILE, "B", createPages(2));
+        Assert.assertNotNull(resultCache.get(ResultCache.Kind.FILE, "A"));
+        // B is the least recently used entry and makes room for C
+        resultCache.put(ResultCache.Kind.FILE, "C", createPages(2));
+        Assert.assertEquals(resultCache.getCachedPages(), 4);
+        Assert.assertNull(resultCache.get(ResultCache.Kind.FILE, "B"));
+        Assert.assertNotNull(resultCache.get(ResultCache.Kind.FILE, "C"));
+        // Entries larger than the cache are not kept
+        resultCache.put(ResultCache.Kind.FILE, "D", createPages(6));
+        Assert.assertNull(resultCache.get(ResultCache.Kind.FILE, "D"));
+        // The kinds of entries do not share keys
+        Assert.assertNull(resultCache.get(ResultCache.Kind.PAGE, "A"));
+        Assert.assertEquals(resultCache.getLookups(ResultCache.Kind.FILE, ResultCache.Lookup.MEMORY_HIT), 2);
+        Assert.assertEquals(resultCache.getLookups(ResultCache.Kind.FILE, ResultCache.Lookup.MISS), 2);
+        Assert.assertEquals(resultCache.getLookups(ResultCache.Kind.PAGE, ResultCache.Lookup.MISS), 1);
+    }
+
+    @Test
+    public void testEntriesAreReadFromTheFolder() throws Exception {
+        File folder = testFolders.create("ResultCacheNGTest");
+        List<Page> writtenPages = createPages(3);
+        writtenPages.get(1).setBlank(Boolean.TRUE);
+        new ResultCache(10, folder).put(ResultCache.Kind.FILE, "0123ABCD", writtenPages);
+        // A new cache finds the entry on disk and keeps it in memory
+        ResultCache resultCache = new ResultCache(10, folder);
+        List<Page> pages = resultCache.get(ResultCache.Kind.FILE, "0123ABCD");
+        Assert.assertEquals(pages.size(), 3);
+        Assert.assertEquals(pages.get(2).getPageNumber(), 3);
+        Assert.assertEquals(pages.get(2).getBarcodes().get(0).getType(), BarcodeType.QR);
+        Assert.assertEquals(pages.get(2).getBarcodes().get(0).getContent(), "Page 3\nwith <xml> & ünïcode");
+        Assert.assertEquals(pages.get(1).getBlank(), Boolean.TRUE);
+        Assert.assertNull(pages.get(2).getBlank());
+        Assert.assertNotNull(resultCache.get(ResultCache.Kind.FILE, "0123ABCD"));
+        Assert.assertEquals(resultCache.getLookups(ResultCache.Kind.FILE, ResultCache.Lookup.DISK_HIT), 1);
+        Assert.assertEquals(resultCache.getLookups(ResultCache.Kind.FILE, ResultCache.Lookup.MEMORY_HIT), 1);
+    }
+
+    @Test
+    public void testPageKey() throws Exception {
+        BufferedImage page = TestTiffs.createPage(BarcodeFormat.QR_CODE, "Page key");
+        List<Rectangle> noRegions = Collections.<Rectangle>emptyList();
+        String pageKey = ResultCache.pageKey(page, noRegions, SETTINGS);
+        Assert.assertEquals(ResultCache.pageKey(TestTiffs.createPage(BarcodeFormat.QR_CODE, "Page key"), noRegions, SETTINGS), pageKey);
+        Assert.assertNotEquals(ResultCache.pageKey(TestTiffs.createPage(BarcodeFormat.QR_CODE, "Other page"), noRegions, SETTINGS), pageKey);
+        Assert.assertNotEquals(ResultCache.pageKey(page, Arrays.asList(new Rectangle(0, 0, 10, 10)), SETTINGS), pageKey);
+        Assert.assertNotEquals(ResultCache.pageKey(page, noRegions, "QR;[TRY_HARDER]"), pageKey);
+        // A subimage shares the data buffer of the page, but only its own
+        // pixels are hashed
+        BufferedImage topHalf = page.getSubimage(0, 0, page.getWidth(), page.getHeight() / 2);
+        Assert.assertNotEquals(ResultCache.pageKey(topHalf, noRegions, SETTINGS), pageKey);
+    }
+
+    @Test
+    public void testFileKey() throws Exception {
+        File file = File.createTempFile("ResultCacheNGTest", ".tif");
+        file.deleteOnExit();
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(TestTiffs.createQrTiff("Page 1", "Page 2"));
+        } finally {
+            outputStream.close();
+        }
+        String fileKey = ResultCache.fileKey(file, SETTINGS);
+        Assert.assertEquals(fileKey.length(), 32);
+        Assert.assertEquals(ResultCache.fileKey(file, SETTINGS), fileKey);
+        Assert.assertNotEquals(ResultCache.fileKey(file, "QR;[TRY_HARDER]"), fileKey);
+        Assert.assertTrue(file.setLastModified(file.lastModified() - 60000));
+        Assert.assertNotEquals(ResultCache.fileKey(file, SETTINGS), fileKey);
+    }
+
+    @Test
+    public void testFileKeyOfLargeFile() throws Exception {
+        File file = File.createTempFile("ResultCacheNGTest", ".tif");
+        file.deleteOnExit();
+        byte[] content = new byte[200 * 1024];
+        Files.write(file.toPath(), content);
+        long lastModified = file.lastModified();
+        String fileKey = ResultCache.fileKey(file, SETTINGS);
+        content[content.length - 1] = 1;
+        Files.write(file.toPath(), content);
+        Assert.assertTrue(file.setLastModified(lastModified));
+        Assert.assertNotEquals(ResultCache.fileKey(file, SETTINGS), fileKey);
+        content[content.length - 1] = 0;
+        Files.write(file.toPath(), content);
+        Assert.assertTrue(file.setLastModified(lastModified));
+        Assert.assertEquals(ResultCache.fileKey(file, SETTINGS), fileKey);
+    }
+}
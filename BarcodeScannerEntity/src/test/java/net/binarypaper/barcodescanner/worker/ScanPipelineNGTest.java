@@ -0,0 +1,164 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class ScanPipelineNGTest {
+
+    private final File outputFolder = new File(Settings.getString("outputFolder"));
+    private final TestFolders testFolders = new TestFolders();
+
+    @AfterMethod
+    public void deleteFolders() {
+        testFolders.deleteAll();
+    }
+
+    /**
+     * A barcode scanner that holds the intake of the files whose name starts
+     * with the gated prefix until the gate is opened.
+     */
+    private static class GatedBarcodeScanner extends BarcodeScanner {
+
+        private final String gatedPrefix;
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final AtomicInteger startedFiles = new AtomicInteger();
+
+        GatedBarcodeScanner(String gatedPrefix) {
+            this.gatedPrefix = gatedPrefix;
+        }
+
+        @Override
+        String fileKeyOf(File inputFile) throws IOException {
+            startedFiles.incrementAndGet();
+            if (inputFile.getName().startsWith(gatedPrefix)) {
+                try {
+                    gate.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.fileKeyOf(inputFile);
+        }
+    }
+
+    private ScannerMetrics createMetrics() {
+        return new ScannerMetrics(DecodeStrategy.load(), new ResultCache(0, null), new BlankPageFilter(0));
+    }
+
+    private File createInputFile(File inputFolder, String fileName) throws Exception {
+        File inputFile = new File(inputFolder, fileName);
+        Files.write(inputFile.toPath(), TestTiffs.createQrTiff(fileName));
+        return inputFile;
+    }
+
+    private File outputFileOf(File inputFile) {
+        return new File(outputFolder, inputFile.getName() + ".xml");
+    }
+
+    private void awaitOutput(File inputFile) throws Exception {
+        File outputFile = outputFileOf(inputFile);
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((inputFile.exists() || !outputFile.isFile()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(inputFile.exists(), inputFile.getName());
+        String xml = new String(Files.readAllBytes(outputFile.toPath()), StandardCharsets.UTF_8);
+        Assert.assertTrue(xml.contains(inputFile.getName()), xml);
+        outputFile.delete();
+    }
+
+    /**
+     * Holds up the intake of one file and checks that the files behind it
+     * still pass through the decode and output stages.
+     */
+    @Test
+    public void testSlowFileDoesNotHoldUpTheOthers() throws Exception {
+        outputFolder.mkdirs();
+        File inputFolder = testFolders.create("ScanPipelineNGTest");
+        String prefix = inputFolder.getName() + "-";
+        GatedBarcodeScanner barcodeScanner = new GatedBarcodeScanner(prefix + "slow");
+        ScannerMetrics metrics = createMetrics();
+        ScanPipeline scanPipeline = new ScanPipeline(barcodeScanner, metrics, null, null, 2, 2, 4);
+        try {
+            File slowFile = createInputFile(inputFolder, prefix + "slow.tif");
+            scanPipeline.submit(slowFile);
+            for (int i = 0; i < 3; i++) {
+                File inputFile = createInputFile(inputFolder, prefix + "fast" + i + ".tif");
+                scanPipeline.submit(inputFile);
+                awaitOutput(inputFile);
+            }
+            Assert.assertTrue(slowFile.exists());
+            Assert.assertEquals(metrics.getFilesProcessed(), 3);
+            barcodeScanner.gate.countDown();
+            awaitOutput(slowFile);
+        } finally {
+            barcodeScanner.gate.countDown();
+            scanPipeline.shutdown();
+        }
+    }
+
+    @Test
+    public void testFilesInFlightAreCapped() throws Exception {
+        outputFolder.mkdirs();
+        File inputFolder = testFolders.create("ScanPipelineNGTest");
+        String prefix = inputFolder.getName() + "-";
+        GatedBarcodeScanner barcodeScanner = new GatedBarcodeScanner(prefix);
+        ScannerMetrics metrics = createMetrics();
+        ScanPipeline scanPipeline = new ScanPipeline(barcodeScanner, metrics, null, null, 4, 2, 2);
+        try {
+            File[] inputFiles = new File[5];
+            for (int i = 0; i < inputFiles.length; i++) {
+                inputFiles[i] = createInputFile(inputFolder, prefix + i + ".tif");
+                scanPipeline.submit(inputFiles[i]);
+            }
+            // Two intake threads stay idle, the files wait for a file slot
+            long deadline = System.currentTimeMillis() + 10000;
+            while (barcodeScanner.startedFiles.get() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(100);
+            Assert.assertEquals(barcodeScanner.startedFiles.get(), 2);
+            Assert.assertEquals(metrics.getQueueDepths().get("intake").longValue(), 3);
+            // A submitted file that is already in the pipeline is ignored
+            scanPipeline.submit(inputFiles[4]);
+            Assert.assertEquals(metrics.getQueueDepths().get("intake").longValue(), 3);
+
+            barcodeScanner.gate.countDown();
+            for (File inputFile : inputFiles) {
+                awaitOutput(inputFile);
+            }
+            Assert.assertEquals(barcodeScanner.startedFiles.get(), 5);
+            Assert.assertEquals(metrics.getFilesProcessed(), 5);
+        } finally {
+            barcodeScanner.gate.countDown();
+            scanPipeline.shutdown();
+        }
+    }
+}
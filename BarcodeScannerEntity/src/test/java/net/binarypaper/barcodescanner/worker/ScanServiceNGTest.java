@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class ScanServiceNGTest {
+
+    private HttpURLConnection post(ScanService scanService, String query) throws IOException {
+        URL url = new URL("http://localhost:" + scanService.getPort() + "/barcodes" + query);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "image/tiff");
+        return connection;
+    }
+
+    private HttpURLConnection post(ScanService scanService, String query, byte[] body) throws IOException {
+        HttpURLConnection connection = post(scanService, query);
+        OutputStream outputStream = connection.getOutputStream();
+        try {
+            outputStream.write(body);
+        } finally {
+            outputStream.close();
+        }
+        return connection;
+    }
+
+    private String readBody(HttpURLConnection connection) throws IOException {
+        InputStream inputStream = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+        } finally {
+            inputStream.close();
+        }
+        return body.toString("UTF-8");
+    }
+
+    @Test
+    public void testScanPostedTiff() throws Exception {
+        ScanService scanService = new ScanService(new BarcodeScanner(), 0, 2, 2);
+        try {
+            HttpURLConnection connection = post(scanService, "?fileName=Scan%201.tif",
+                    TestTiffs.createQrTiff("Posted page 1", "Posted page 2"));
+            Assert.assertEquals(connection.getResponseCode(), 200);
+            Assert.assertEquals(connection.getContentType(), "application/xml; charset=utf-8");
+            String xml = readBody(connection);
+            Assert.assertTrue(xml.contains("fileName=\"Scan 1.tif\""), xml);
+            Assert.assertTrue(xml.indexOf("Posted page 1") < xml.indexOf("Posted page 2"), xml);
+            Assert.assertTrue(xml.trim().endsWith("</document>"), xml);
+
+            connection = post(scanService, "", "Not a tiff file".getBytes("UTF-8"));
+            Assert.assertEquals(connection.getResponseCode(), 400);
+            readBody(connection);
+
+            connection = (HttpURLConnection) new URL("http://localhost:" + scanService.getPort() + "/barcodes").openConnection();
+            Assert.assertEquals(connection.getResponseCode(), 405);
+        } finally {
+            scanService.close();
+        }
+    }
+
+    /**
+     * A file that fails after its first page was sent must not look like a
+     * complete response.
+     */
+    @Test
+    public void testFailureAfterTheFirstPageBreaksOffTheResponse() throws Exception {
+        ScanService scanService = new ScanService(new BarcodeScanner(), 0, 1, 0);
+        try {
+            byte[] tiff = TestTiffs.createQrTiff("Page 1", "Page 2", "Page 3");
+            HttpURLConnection connection = post(scanService, "?fileName=truncated.tif",
+                    Arrays.copyOf(tiff, tiff.length * 2 / 3));
+            Assert.assertEquals(connection.getResponseCode(), 200);
+            try {
+                String xml = readBody(connection);
+                Assert.fail("The truncated response was ended normally: " + xml);
+            } catch (IOException ex) {
+                // The connection was closed before the end of the response
+            }
+        } finally {
+            scanService.close();
+        }
+    }
+
+    /**
+     * Keeps the only request slot busy with a request whose body is still
+     * being sent, and checks that other requests are turned away.
+     */
+    @Test
+    public void testBusyServiceAnswersTooManyRequests() throws Exception {
+        ScanService scanService = new ScanService(new BarcodeScanner(), 0, 1, 0);
+        try {
+            byte[] tiff = TestTiffs.createQrTiff("Slow page");
+            HttpURLConnection slowConnection = post(scanService, "?fileName=slow.tif");
+            slowConnection.setChunkedStreamingMode(1024);
+            OutputStream slowBody = slowConnection.getOutputStream();
+            slowBody.write(tiff, 0, 1024);
+            slowBody.flush();
+            int status = 0;
+            long deadline = System.currentTimeMillis() + 10000;
+            while (status != 429 && System.currentTimeMillis() < deadline) {
+                HttpURLConnection connection = post(scanService, "", new byte[0]);
+                status = connection.getResponseCode();
+                Assert.assertEquals(connection.getHeaderField("Retry-After"), status == 429 ? "1" : null);
+                readBody(connection);
+            }
+            Assert.assertEquals(status, 429);
+            slowBody.write(tiff, 1024, tiff.length - 1024);
+            slowBody.close();
+            Assert.assertEquals(slowConnection.getResponseCode(), 200);
+            Assert.assertTrue(readBody(slowConnection).contains("Slow page"));
+        } finally {
+            scanService.close();
+        }
+    }
+}
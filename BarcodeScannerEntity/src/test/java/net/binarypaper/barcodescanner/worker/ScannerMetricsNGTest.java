@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class ScannerMetricsNGTest {
+
+    private ScannerMetrics createMetrics() {
+        DecodeStrategy decodeStrategy = new DecodeStrategy(Arrays.asList(DecodeTier.FAST, DecodeTier.TRY_HARDER), 1);
+        decodeStrategy.resolved(DecodeTier.FAST);
+        decodeStrategy.unresolved();
+        ScannerMetrics scannerMetrics = new ScannerMetrics(decodeStrategy, new ResultCache(0, null), new BlankPageFilter(0.5));
+        Barcode barcode = new Barcode();
+        barcode.setType(BarcodeType.QR);
+        barcode.setContent("QR");
+        scannerMetrics.pageProcessed(Arrays.asList(barcode, barcode));
+        scannerMetrics.pageProcessed(Collections.<Barcode>emptyList());
+        scannerMetrics.pageBlank();
+        scannerMetrics.fileProcessed();
+        scannerMetrics.recordStage(ScannerMetrics.Stage.DECODE, TimeUnit.MILLISECONDS.toNanos(20));
+        scannerMetrics.recordStage(ScannerMetrics.Stage.DECODE, TimeUnit.MILLISECONDS.toNanos(40));
+        scannerMetrics.recordStage(ScannerMetrics.Stage.DECODE, TimeUnit.SECONDS.toNanos(90));
+        scannerMetrics.addQueue("page_decode", new ScannerMetrics.Gauge() {
+
+            @Override
+            public long value() {
+                return 3;
+            }
+        });
+        return scannerMetrics;
+    }
+
+    @Test
+    public void testCounters() {
+        ScannerMetrics scannerMetrics = createMetrics();
+        Assert.assertEquals(scannerMetrics.getFilesProcessed(), 1);
+        Assert.assertEquals(scannerMetrics.getFilesFailed(), 0);
+        Assert.assertEquals(scannerMetrics.getPagesProcessed(), 2);
+        Assert.assertEquals(scannerMetrics.getPagesPerSecond(), 2.0 / 60);
+        Assert.assertEquals(scannerMetrics.getBarcodesPerType().get("QR"), Long.valueOf(2));
+        Assert.assertEquals(scannerMetrics.getPagesResolvedPerTier().toString(), "{FAST=1, TRY_HARDER=0, none=1}");
+        Assert.assertEquals(scannerMetrics.getQueueDepths().get("page_decode"), Long.valueOf(3));
+        Assert.assertEquals(scannerMetrics.getStageMeanMillis().get("decode"), 30020.0);
+        // The 95th percentile is above the last bucket, so the longest
+        // duration is the estimate
+        Assert.assertEquals(scannerMetrics.getStage95thPercentileMillis().get("decode"), 90000.0);
+        Assert.assertEquals(scannerMetrics.getStage95thPercentileMillis().get("read"), 0.0);
+    }
+
+    @Test
+    public void testPrometheusText() {
+        String text = createMetrics().toPrometheusText();
+        Assert.assertTrue(text.contains("# TYPE barcodescanner_files_processed_total counter\nbarcodescanner_files_processed_total 1\n"));
+        Assert.assertTrue(text.contains("barcodescanner_barcodes_total{type=\"QR\"} 2\n"));
+        Assert.assertTrue(text.contains("barcodescanner_pages_resolved_total{tier=\"none\"} 1\n"));
+        Assert.assertTrue(text.contains("barcodescanner_queue_depth{queue=\"page_decode\"} 3\n"));
+        Assert.assertTrue(text.contains("barcodescanner_pages_blank_total 1\n"));
+        Assert.assertTrue(text.contains("barcodescanner_blank_page_ink_percent 0.5\n"));
+        // The buckets are cumulative
+        Assert.assertTrue(text.contains("barcodescanner_stage_duration_seconds_bucket{stage=\"decode\",le=\"0.01\"} 0\n"));
+        Assert.assertTrue(text.contains("barcodescanner_stage_duration_seconds_bucket{stage=\"decode\",le=\"0.025\"} 1\n"));
+        Assert.assertTrue(text.contains("barcodescanner_stage_duration_seconds_bucket{stage=\"decode\",le=\"60.0\"} 2\n"));
+        Assert.assertTrue(text.contains("barcodescanner_stage_duration_seconds_bucket{stage=\"decode\",le=\"+Inf\"} 3\n"));
+        Assert.assertTrue(text.contains("barcodescanner_stage_duration_seconds_sum{stage=\"decode\"} 90.06\n"));
+        Assert.assertTrue(text.contains("barcodescanner_stage_duration_seconds_count{stage=\"decode\"} 3\n"));
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        ScannerMetrics scannerMetrics = createMetrics();
+        scannerMetrics.registerMBean();
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(ScannerMetrics.OBJECT_NAME);
+        try {
+            Assert.assertEquals(mBeanServer.getAttribute(objectName, "PagesProcessed"), Long.valueOf(2));
+        } finally {
+            mBeanServer.unregisterMBean(objectName);
+        }
+    }
+
+    @Test
+    public void testMetricsEndpoint() throws Exception {
+        MetricsEndpoint metricsEndpoint = new MetricsEndpoint(createMetrics(), 0);
+        try {
+            URL url = new URL("http://localhost:" + metricsEndpoint.getPort() + "/metrics");
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            Assert.assertEquals(connection.getResponseCode(), 200);
+            Assert.assertTrue(connection.getContentType().startsWith("text/plain; version=0.0.4"));
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            InputStream inputStream = connection.getInputStream();
+            try {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    body.write(buffer, 0, read);
+                }
+            } finally {
+                inputStream.close();
+            }
+            Assert.assertTrue(body.toString("UTF-8").contains("barcodescanner_pages_processed_total 2\n"));
+        } finally {
+            metricsEndpoint.close();
+        }
+    }
+}
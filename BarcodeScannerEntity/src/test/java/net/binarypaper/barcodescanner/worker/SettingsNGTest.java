@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.util.MissingResourceException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class SettingsNGTest {
+
+    @Test
+    public void testTestSettingsOverrideTheMainSettings() {
+        Assert.assertEquals(Settings.getString("inputFolder"), "target/Input/");
+        // Only set in the main config.properties
+        Assert.assertEquals(Settings.getString("logLevel"), "ALL");
+        Assert.assertEquals(Settings.getInt("leaseSeconds", 0), 60);
+    }
+
+    @Test
+    public void testMissingSettings() {
+        Assert.assertEquals(Settings.getString("noSuchSetting", "default"), "default");
+        Assert.assertEquals(Settings.getInt("noSuchSetting", 7), 7);
+    }
+
+    @Test(expectedExceptions = MissingResourceException.class)
+    public void testMissingRequiredSetting() {
+        Settings.getString("noSuchSetting");
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The temporary folders of a test class, which are deleted with everything in
+ * them once a test is done.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+final class TestFolders {
+
+    private final List<File> folders = new ArrayList<File>();
+
+    File create(String prefix) throws IOException {
+        File folder = Files.createTempDirectory(prefix).toFile();
+        folders.add(folder);
+        return folder;
+    }
+
+    void deleteAll() {
+        for (File folder : folders) {
+            deleteTree(folder);
+        }
+        folders.clear();
+    }
+
+    private static void deleteTree(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+}
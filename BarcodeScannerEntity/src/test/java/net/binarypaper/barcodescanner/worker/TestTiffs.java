@@ -0,0 +1,175 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Creates tiff files with known barcodes for the tests.
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+final class TestTiffs {
+
+    static final int PAGE_WIDTH = 1240;
+    static final int PAGE_HEIGHT = 1754;
+
+    private TestTiffs() {
+    }
+
+    /**
+     * Creates a bilevel page with the barcode in the top right corner. A null
+     * content creates a blank page.
+     */
+    static BufferedImage createPage(BarcodeFormat format, String content) throws WriterException {
+        int left = isLinear(format) ? PAGE_WIDTH - 600 : PAGE_WIDTH - 350;
+        return createPage(BufferedImage.TYPE_BYTE_BINARY, format, content, left, 80);
+    }
+
+    private static boolean isLinear(BarcodeFormat format) {
+        return format != BarcodeFormat.QR_CODE && format != BarcodeFormat.DATA_MATRIX
+                && format != BarcodeFormat.AZTEC && format != BarcodeFormat.PDF_417;
+    }
+
+    static BufferedImage createPage(int imageType, BarcodeFormat format, String content, int left, int top) throws WriterException {
+        BufferedImage page = new BufferedImage(PAGE_WIDTH, PAGE_HEIGHT, imageType);
+        Graphics2D graphics = page.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, PAGE_WIDTH, PAGE_HEIGHT);
+        if (content != null) {
+            boolean linear = isLinear(format);
+            int size = linear ? 500 : 250;
+            BitMatrix matrix = new MultiFormatWriter().encode(content, format, size, linear ? 120 : size);
+            // Some writers ignore the requested size and use one pixel per module
+            int scale = Math.max(1, size / matrix.getWidth());
+            graphics.setColor(Color.BLACK);
+            for (int y = 0; y < matrix.getHeight(); y++) {
+                for (int x = 0; x < matrix.getWidth(); x++) {
+                    if (matrix.get(x, y)) {
+                        graphics.fillRect(left + x * scale, top + y * scale, scale, scale);
+                    }
+                }
+            }
+        }
+        graphics.dispose();
+        return page;
+    }
+
+    /**
+     * Creates a multi page tiff with a QR code per page. A null content creates
+     * a blank page.
+     */
+    static byte[] createQrTiff(String... pageContents) throws IOException, WriterException {
+        List<BufferedImage> pages = new ArrayList<BufferedImage>();
+        for (String content : pageContents) {
+            pages.add(createPage(BarcodeFormat.QR_CODE, content));
+        }
+        return createTiff(pages);
+    }
+
+    static byte[] createTiff(List<BufferedImage> pages) throws IOException {
+        return createTiff(pages, 0);
+    }
+
+    /**
+     * Creates a multi page tiff with the given resolution in its metadata, or
+     * without a resolution when the dpi is 0.
+     */
+    static byte[] createTiff(List<BufferedImage> pages, int dpi) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+        ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+        ImageOutputStream ios = ImageIO.createImageOutputStream(tiff);
+        try {
+            writer.setOutput(ios);
+            writer.prepareWriteSequence(null);
+            for (BufferedImage page : pages) {
+                ImageWriteParam param = writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionType(page.getType() == BufferedImage.TYPE_BYTE_BINARY ? "CCITT T.6" : "Deflate");
+                IIOMetadata metadata = null;
+                if (dpi > 0) {
+                    metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(page), param);
+                    metadata.mergeTree(IIOMetadataFormatImpl.standardMetadataFormatName, createDimension(dpi));
+                }
+                writer.writeToSequence(new IIOImage(page, null, metadata), param);
+            }
+            writer.endWriteSequence();
+        } finally {
+            ios.close();
+            writer.dispose();
+        }
+        return tiff.toByteArray();
+    }
+
+    /**
+     * Damages a page of a tiff file by giving it a compression the reader does
+     * not know, while the chain of pages stays intact.
+     *
+     * @param pageIndex The index of the page, from 0.
+     */
+    static byte[] damagePage(byte[] tiff, int pageIndex) {
+        byte[] damagedTiff = tiff.clone();
+        ByteBuffer buffer = ByteBuffer.wrap(damagedTiff);
+        buffer.order(damagedTiff[0] == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        int directory = buffer.getInt(4);
+        for (int i = 0; i < pageIndex; i++) {
+            directory = buffer.getInt(directory + 2 + (buffer.getShort(directory) & 0xFFFF) * 12);
+        }
+        int entryCount = buffer.getShort(directory) & 0xFFFF;
+        for (int i = 0; i < entryCount; i++) {
+            int entry = directory + 2 + i * 12;
+            // The Compression tag holds a single short
+            if ((buffer.getShort(entry) & 0xFFFF) == 259) {
+                buffer.putShort(entry + 8, (short) 9999);
+                return damagedTiff;
+            }
+        }
+        throw new IllegalArgumentException("The page has no compression tag.");
+    }
+
+    private static IIOMetadataNode createDimension(int dpi) {
+        IIOMetadataNode dimension = new IIOMetadataNode("Dimension");
+        for (String name : new String[]{"HorizontalPixelSize", "VerticalPixelSize"}) {
+            IIOMetadataNode pixelSize = new IIOMetadataNode(name);
+            pixelSize.setAttribute("value", Double.toString(25.4 / dpi));
+            dimension.appendChild(pixelSize);
+        }
+        IIOMetadataNode root = new IIOMetadataNode(IIOMetadataFormatImpl.standardMetadataFormatName);
+        root.appendChild(dimension);
+        return root;
+    }
+}
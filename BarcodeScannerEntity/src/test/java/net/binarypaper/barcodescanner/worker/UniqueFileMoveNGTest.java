@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class UniqueFileMoveNGTest {
+
+    private final TestFolders testFolders = new TestFolders();
+
+    @AfterMethod
+    public void deleteFolders() {
+        testFolders.deleteAll();
+    }
+
+    private File createFile(File folder, String name, String content) throws Exception {
+        File file = new File(folder, name);
+        Files.write(file.toPath(), content.getBytes("UTF-8"));
+        return file;
+    }
+
+    private String contentOf(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+    }
+
+    @Test
+    public void testTakenNameIsNotReplaced() throws Exception {
+        File sourceFolder = testFolders.create("UniqueFileMoveNGTest");
+        File targetFolder = testFolders.create("UniqueFileMoveNGTest");
+        File existingFile = createFile(targetFolder, "scan.tif", "existing");
+        File file = createFile(sourceFolder, "scan.tif", "first");
+        Assert.assertEquals(UniqueFileMove.move(file, targetFolder, "scan", ".tif"), new File(targetFolder, "scan_1.tif"));
+        Assert.assertFalse(file.exists());
+        Assert.assertEquals(contentOf(existingFile), "existing");
+        Assert.assertEquals(contentOf(new File(targetFolder, "scan_1.tif")), "first");
+        file = createFile(sourceFolder, "scan.tif", "second");
+        Assert.assertEquals(UniqueFileMove.move(file, targetFolder, "scan", ".tif"), new File(targetFolder, "scan_2.tif"));
+        Assert.assertEquals(contentOf(new File(targetFolder, "scan_1.tif")), "first");
+        // Without an extension the number goes at the end of the name
+        file = createFile(sourceFolder, "scan.tif", "third");
+        Assert.assertEquals(UniqueFileMove.move(file, targetFolder, "scan.tif", ""), new File(targetFolder, "scan.tif_1"));
+    }
+
+    @Test(expectedExceptions = NoSuchFileException.class)
+    public void testMissingFileIsNotMoved() throws Exception {
+        File folder = testFolders.create("UniqueFileMoveNGTest");
+        UniqueFileMove.move(new File(folder, "missing.tif"), folder, "moved", ".tif");
+    }
+}
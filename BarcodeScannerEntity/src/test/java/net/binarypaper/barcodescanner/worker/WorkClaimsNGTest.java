@@ -0,0 +1,282 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class WorkClaimsNGTest {
+
+    private final TestFolders testFolders = new TestFolders();
+
+    @AfterMethod
+    public void deleteFolders() {
+        testFolders.deleteAll();
+    }
+
+    private File createInputFolder(int fileCount) throws IOException {
+        File inputFolder = testFolders.create("WorkClaimsNGTest");
+        for (int i = 0; i < fileCount; i++) {
+            Files.write(new File(inputFolder, "scan" + i + ".tif").toPath(), new byte[]{(byte) i});
+        }
+        return inputFolder;
+    }
+
+    private static List<File> inputFiles(File inputFolder) {
+        List<File> inputFiles = new ArrayList<File>();
+        File[] files = inputFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile()) {
+                    inputFiles.add(file);
+                }
+            }
+        }
+        return inputFiles;
+    }
+
+    private static void awaitInputFiles(File inputFolder, int fileCount) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (inputFiles(inputFolder).size() != fileCount && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(inputFiles(inputFolder).size(), fileCount);
+    }
+
+    /**
+     * Waits until the node that takes over another node has removed its
+     * folder, which it does after it returned the files.
+     */
+    private static void awaitTakeOver(File inputFolder, String nodeId) throws InterruptedException {
+        File nodeFolder = new File(inputFolder, WorkClaims.IN_PROGRESS_FOLDER + "/" + nodeId);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (nodeFolder.exists() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        Assert.assertFalse(nodeFolder.exists());
+    }
+
+    @Test
+    public void testEveryFileIsClaimedOnce() throws Exception {
+        final File inputFolder = createInputFolder(200);
+        final List<File> files = inputFiles(inputFolder);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<WorkClaims> nodes = new ArrayList<WorkClaims>();
+        try {
+            List<Future<List<File>>> claims = new ArrayList<Future<List<File>>>();
+            for (int i = 0; i < 4; i++) {
+                final WorkClaims workClaims = new WorkClaims(inputFolder, "node-" + i, 60000);
+                workClaims.start();
+                nodes.add(workClaims);
+                claims.add(executor.submit(new Callable<List<File>>() {
+
+                    @Override
+                    public List<File> call() {
+                        List<File> claimedFiles = new ArrayList<File>();
+                        for (File file : files) {
+                            File claimedFile = workClaims.claim(file);
+                            if (claimedFile != null) {
+                                claimedFiles.add(claimedFile);
+                            }
+                        }
+                        return claimedFiles;
+                    }
+                }));
+            }
+            Set<String> claimedNames = new HashSet<String>();
+            for (Future<List<File>> claim : claims) {
+                for (File claimedFile : claim.get()) {
+                    Assert.assertTrue(claimedFile.isFile());
+                    Assert.assertTrue(claimedNames.add(claimedFile.getName()), claimedFile.getName());
+                }
+            }
+            Assert.assertEquals(claimedNames.size(), files.size());
+            Assert.assertTrue(inputFiles(inputFolder).isEmpty());
+        } finally {
+            executor.shutdown();
+            for (WorkClaims workClaims : nodes) {
+                workClaims.close();
+            }
+        }
+    }
+
+    @Test
+    public void testFilesOfExpiredLeaseAreReturned() throws Exception {
+        File inputFolder = createInputFolder(3);
+        WorkClaims crashingNode = new WorkClaims(inputFolder, "crashing", 400);
+        WorkClaims survivingNode = new WorkClaims(inputFolder, "surviving", 400);
+        crashingNode.start();
+        survivingNode.start();
+        try {
+            for (File file : inputFiles(inputFolder)) {
+                Assert.assertNotNull(crashingNode.claim(file));
+            }
+            // A node that renews its lease keeps its files
+            Thread.sleep(1200);
+            Assert.assertTrue(inputFiles(inputFolder).isEmpty());
+            Assert.assertEquals(new File(inputFolder, ".inprogress/crashing").list().length, 3);
+
+            crashingNode.close();
+            awaitInputFiles(inputFolder, 3);
+            awaitTakeOver(inputFolder, "crashing");
+            Assert.assertFalse(new File(inputFolder, ".inprogress/crashing.lease").exists());
+            Assert.assertTrue(new File(inputFolder, ".inprogress/surviving.lease").exists());
+        } finally {
+            crashingNode.close();
+            survivingNode.close();
+        }
+    }
+
+    @Test
+    public void testNodeThatWasTakenOverClaimsAgain() throws Exception {
+        File inputFolder = createInputFolder(2);
+        WorkClaims pausedNode = new WorkClaims(inputFolder, "paused", 400);
+        WorkClaims survivingNode = new WorkClaims(inputFolder, "surviving", 400);
+        pausedNode.start();
+        survivingNode.start();
+        try {
+            Assert.assertNotNull(pausedNode.claim(new File(inputFolder, "scan0.tif")));
+            // The node stops renewing its lease for longer than the lease
+            // time, and the other node takes its files and folder
+            pausedNode.close();
+            awaitInputFiles(inputFolder, 2);
+            awaitTakeOver(inputFolder, "paused");
+            Assert.assertNull(pausedNode.claim(new File(inputFolder, "scan0.tif")));
+            Assert.assertTrue(new File(inputFolder, "scan0.tif").isFile());
+
+            // Its next heartbeat takes the lease and the folder back
+            pausedNode.heartbeat();
+            Assert.assertTrue(new File(inputFolder, ".inprogress/paused.lease").isFile());
+            File claimedFile = pausedNode.claim(new File(inputFolder, "scan0.tif"));
+            Assert.assertEquals(claimedFile, new File(inputFolder, ".inprogress/paused/scan0.tif"));
+            Assert.assertTrue(claimedFile.isFile());
+        } finally {
+            pausedNode.close();
+            survivingNode.close();
+        }
+    }
+
+    @Test
+    public void testRestartedNodeReturnsItsFiles() throws Exception {
+        File inputFolder = createInputFolder(2);
+        WorkClaims workClaims = new WorkClaims(inputFolder, "node", 60000);
+        workClaims.start();
+        File claimedFile = workClaims.claim(new File(inputFolder, "scan0.tif"));
+        Assert.assertEquals(claimedFile, new File(inputFolder, ".inprogress/node/scan0.tif"));
+        // A file of the same name that arrives meanwhile keeps its name
+        Files.write(new File(inputFolder, "scan0.tif").toPath(), new byte[]{1});
+        workClaims.close();
+
+        workClaims = new WorkClaims(inputFolder, "node", 60000);
+        workClaims.start();
+        workClaims.close();
+        Assert.assertEquals(new HashSet<String>(Arrays.asList(inputFolder.list())),
+                new HashSet<String>(Arrays.asList(".inprogress", "scan0.tif", "scan0_1.tif", "scan1.tif")));
+    }
+
+    /**
+     * Claims the input files from several processes on one folder, the way
+     * nodes on separate hosts share a folder.
+     */
+    @Test
+    public void testNodesInSeparateProcesses() throws Exception {
+        File inputFolder = createInputFolder(300);
+        File goFile = new File(inputFolder.getParentFile(), inputFolder.getName() + ".go");
+        List<Process> processes = new ArrayList<Process>();
+        List<BufferedReader> outputs = new ArrayList<BufferedReader>();
+        try {
+            for (int i = 0; i < 3; i++) {
+                ProcessBuilder processBuilder = new ProcessBuilder(
+                        new File(System.getProperty("java.home"), "bin/java").getPath(),
+                        "-cp", System.getProperty("java.class.path"),
+                        WorkClaimsNGTest.class.getName(),
+                        inputFolder.getPath(), "node-" + i, goFile.getPath());
+                processBuilder.redirectErrorStream(true);
+                Process process = processBuilder.start();
+                processes.add(process);
+                outputs.add(new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8")));
+            }
+            for (BufferedReader output : outputs) {
+                Assert.assertEquals(output.readLine(), "ready");
+            }
+            Assert.assertTrue(goFile.createNewFile());
+            List<String> claimedNames = new ArrayList<String>();
+            for (int i = 0; i < processes.size(); i++) {
+                String line;
+                while ((line = outputs.get(i).readLine()) != null) {
+                    claimedNames.add(line);
+                }
+                Assert.assertEquals(processes.get(i).waitFor(), 0);
+            }
+            Assert.assertEquals(claimedNames.size(), 300);
+            Assert.assertEquals(new HashSet<String>(claimedNames).size(), 300);
+        } finally {
+            for (Process process : processes) {
+                process.destroy();
+            }
+            goFile.delete();
+        }
+    }
+
+    /**
+     * A node for {@link #testNodesInSeparateProcesses()}, which claims input
+     * files until there are none left and prints the name of every file it
+     * claimed.
+     */
+    public static void main(String[] args) throws Exception {
+        File inputFolder = new File(args[0]);
+        WorkClaims workClaims = new WorkClaims(inputFolder, args[1], 60000);
+        workClaims.start();
+        System.out.println("ready");
+        System.out.flush();
+        while (!new File(args[2]).exists()) {
+            Thread.sleep(5);
+        }
+        List<File> files = inputFiles(inputFolder);
+        while (!files.isEmpty()) {
+            // Every node takes the files in its own order
+            Collections.shuffle(files);
+            for (File file : files) {
+                File claimedFile = workClaims.claim(file);
+                if (claimedFile != null) {
+                    System.out.println(claimedFile.getName());
+                }
+            }
+            files = inputFiles(inputFolder);
+        }
+        workClaims.close();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+import net.binarypaper.barcodescanner.entity.Page;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class WorkJournalNGTest {
+
+    private static final String FILE_KEY = "0123456789ABCDEF0123456789ABCDEF";
+
+    private final TestFolders testFolders = new TestFolders();
+
+    @AfterMethod
+    public void deleteFolders() {
+        testFolders.deleteAll();
+    }
+
+    private Page createPage(int pageNumber) {
+        Barcode barcode = new Barcode();
+        barcode.setType(BarcodeType.QR);
+        barcode.setContent("Page " + pageNumber + " Barcode");
+        Page page = new Page();
+        page.setPageNumber(pageNumber);
+        page.setBarcodes(Arrays.asList(barcode));
+        return page;
+    }
+
+    private WorkJournal createJournal() throws Exception {
+        return new WorkJournal(testFolders.create("WorkJournalNGTest"));
+    }
+
+    @Test
+    public void testPagesAreReadAfterRestart() throws Exception {
+        WorkJournal workJournal = createJournal();
+        WorkJournal.Entry entry = workJournal.open(FILE_KEY);
+        Assert.assertTrue(entry.getJournaledPages().isEmpty());
+        entry.append(createPage(1));
+        entry.append(createPage(2));
+        // A page is only journaled once
+        entry.append(createPage(2));
+        entry.close();
+
+        entry = workJournal.open(FILE_KEY);
+        Assert.assertEquals(entry.getJournaledPages().keySet(), Arrays.asList(1, 2));
+        Assert.assertEquals(entry.getJournaledPages().get(2).getBarcodes().get(0).getContent(), "Page 2 Barcode");
+        // Pages that were journaled before are not appended again
+        entry.append(createPage(2));
+        entry.append(createPage(3));
+        entry.close();
+        Assert.assertEquals(workJournal.open(FILE_KEY).getJournaledPages().size(), 3);
+    }
+
+    @Test
+    public void testTornRecordIsDropped() throws Exception {
+        File folder = testFolders.create("WorkJournalNGTest");
+        WorkJournal workJournal = new WorkJournal(folder);
+        WorkJournal.Entry entry = workJournal.open(FILE_KEY);
+        entry.append(createPage(1));
+        entry.append(createPage(2));
+        entry.close();
+        File file = new File(folder, FILE_KEY + ".journal");
+        long length = file.length();
+        // The machine went down while the third page was written
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(length + 10);
+            randomAccessFile.seek(length);
+            randomAccessFile.writeInt(100);
+        } finally {
+            randomAccessFile.close();
+        }
+        entry = workJournal.open(FILE_KEY);
+        Assert.assertEquals(entry.getJournaledPages().keySet(), Arrays.asList(1, 2));
+        Assert.assertEquals(file.length(), length);
+        // New pages are appended after the valid records
+        entry.append(createPage(3));
+        entry.close();
+        Assert.assertEquals(workJournal.open(FILE_KEY).getJournaledPages().keySet(), Arrays.asList(1, 2, 3));
+    }
+
+    @Test
+    public void testDamagedRecordIsDropped() throws Exception {
+        File folder = testFolders.create("WorkJournalNGTest");
+        WorkJournal workJournal = new WorkJournal(folder);
+        WorkJournal.Entry entry = workJournal.open(FILE_KEY);
+        entry.append(createPage(1));
+        entry.close();
+        File file = new File(folder, FILE_KEY + ".journal");
+        long firstRecordEnd = file.length();
+        entry = workJournal.open(FILE_KEY);
+        entry.append(createPage(2));
+        entry.close();
+        // A flipped bit in the second record fails its checksum
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.seek(firstRecordEnd + 8);
+            int value = randomAccessFile.read();
+            randomAccessFile.seek(firstRecordEnd + 8);
+            randomAccessFile.write(value ^ 1);
+        } finally {
+            randomAccessFile.close();
+        }
+        entry = workJournal.open(FILE_KEY);
+        Assert.assertEquals(entry.getJournaledPages().keySet(), Arrays.asList(1));
+        Assert.assertEquals(file.length(), firstRecordEnd);
+        entry.close();
+    }
+
+    @Test
+    public void testOtherFileIsStartedOver() throws Exception {
+        File folder = testFolders.create("WorkJournalNGTest");
+        FileOutputStream outputStream = new FileOutputStream(new File(folder, FILE_KEY + ".journal"));
+        try {
+            outputStream.write("Not a journal".getBytes("UTF-8"));
+        } finally {
+            outputStream.close();
+        }
+        WorkJournal workJournal = new WorkJournal(folder);
+        WorkJournal.Entry entry = workJournal.open(FILE_KEY);
+        Assert.assertTrue(entry.getJournaledPages().isEmpty());
+        entry.append(createPage(1));
+        entry.close();
+        Assert.assertEquals(workJournal.open(FILE_KEY).getJournaledPages().size(), 1);
+    }
+
+    @Test
+    public void testDeleteRemovesTheJournal() throws Exception {
+        File folder = testFolders.create("WorkJournalNGTest");
+        WorkJournal.Entry entry = new WorkJournal(folder).open(FILE_KEY);
+        entry.append(createPage(1));
+        entry.delete();
+        Assert.assertEquals(folder.listFiles().length, 0);
+        // A deleted journal is not written anymore
+        entry.append(createPage(2));
+        Assert.assertEquals(folder.listFiles().length, 0);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 William Gadney <gadnex@gmail.com>.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.binarypaper.barcodescanner.worker;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import net.binarypaper.barcodescanner.entity.Barcode;
+import net.binarypaper.barcodescanner.entity.BarcodeType;
+import net.binarypaper.barcodescanner.entity.Document;
+import net.binarypaper.barcodescanner.entity.Page;
+import org.eclipse.persistence.jaxb.JAXBContextFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author William Gadney <gadnex@gmail.com>
+ */
+public class XmlDocumentWriterNGTest {
+
+    private String marshalDocument(Document document) throws JAXBException {
+        return marshalDocument(document, true);
+    }
+
+    private String marshalDocument(Document document, boolean formatted) throws JAXBException {
+        JAXBContext jaxbContext = JAXBContextFactory.createContext(new Class[]{Document.class}, null);
+        Marshaller jaxbMarshaller = jaxbContext.createMarshaller();
+        jaxbMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, formatted);
+        StringWriter stringWriter = new StringWriter();
+        jaxbMarshaller.marshal(document, stringWriter);
+        return stringWriter.toString();
+    }
+
+    private String writeDocument(Document document) throws IOException {
+        return writeDocument(document, true);
+    }
+
+    private String writeDocument(Document document, boolean formatted) throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        XmlDocumentWriter documentWriter = new XmlDocumentWriter(stringWriter, document.getFileName(), formatted);
+        for (Page page : document.getPages()) {
+            documentWriter.writePage(page);
+        }
+        documentWriter.close();
+        return stringWriter.toString();
+    }
+
+    private Page createPage(int pageNumber, String... contents) {
+        Page page = new Page();
+        page.setPageNumber(pageNumber);
+        List<Barcode> barcodes = new ArrayList<Barcode>();
+        for (String content : contents) {
+            Barcode barcode = new Barcode();
+            barcode.setType(BarcodeType.QR);
+            barcode.setContent(content);
+            barcodes.add(barcode);
+        }
+        page.setBarcodes(barcodes);
+        return page;
+    }
+
+    @Test
+    public void testPagesAreWrittenLikeTheWholeDocument() throws Exception {
+        Document document = new Document();
+        document.setFileName("Scan <1> & \"2\".tif");
+        List<Page> pages = new ArrayList<Page>();
+        pages.add(createPage(1, "Page 1 Barcode 1", "<xml>Page 1 Barcode 2 inside an xml tag</xml>"));
+        pages.add(createPage(2));
+        pages.add(createPage(3, "Content with ]]> inside", "Line 1\nLine 2"));
+        document.setPages(pages);
+        Assert.assertEquals(writeDocument(document), marshalDocument(document));
+    }
+
+    @Test
+    public void testBlankPageIsMarked() throws Exception {
+        Document document = new Document();
+        document.setFileName("separated.tif");
+        List<Page> pages = new ArrayList<Page>();
+        pages.add(createPage(1, "Page 1 Barcode 1"));
+        Page blankPage = createPage(2);
+        blankPage.setBlank(Boolean.TRUE);
+        pages.add(blankPage);
+        document.setPages(pages);
+        String xml = writeDocument(document);
+        Assert.assertEquals(xml, marshalDocument(document));
+        Assert.assertTrue(xml.contains("<page blank=\"true\" pageNumber=\"2\"/>"), xml);
+        Assert.assertTrue(xml.contains("<page pageNumber=\"1\">"), xml);
+    }
+
+    @Test
+    public void testDocumentWithoutPages() throws Exception {
+        Document document = new Document();
+        document.setFileName("empty.tif");
+        document.setPages(new ArrayList<Page>());
+        Assert.assertEquals(writeDocument(document), marshalDocument(document));
+    }
+
+    @Test
+    public void testCompactPagesAreWrittenLikeTheWholeDocument() throws Exception {
+        Document document = new Document();
+        document.setFileName("compact.tif");
+        List<Page> pages = new ArrayList<Page>();
+        pages.add(createPage(1, "Page 1 Barcode 1", "<xml>Page 1 Barcode 2 inside an xml tag</xml>"));
+        pages.add(createPage(2));
+        pages.add(createPage(3, "Line 1\nLine 2"));
+        document.setPages(pages);
+        String xml = writeDocument(document, false);
+        Assert.assertEquals(xml, marshalDocument(document, false));
+        Assert.assertFalse(xml.contains("\n   "), xml);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testFailedWriteIsAnIOException() throws Exception {
+        Writer failingWriter = new FilterWriter(new StringWriter()) {
+
+            @Override
+            public void write(String str, int off, int len) throws IOException {
+                throw new IOException("The connection was reset.");
+            }
+        };
+        new XmlDocumentWriter(failingWriter, "failed.tif").writePage(createPage(1, "Page 1 Barcode 1"));
+    }
+}